@@ -24,7 +24,6 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 
 import java.util.Random;
@@ -58,7 +57,7 @@ public class EightBallPlugin extends Plugin {
     @EventHandler
     @CommandFilter("8ball")
     public void on8BallCommand(CommandEvent e) {
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + ANSWERS[mRandom.nextInt(ANSWERS.length)]);
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + ANSWERS[mRandom.nextInt(ANSWERS.length)]);
     }
 
     @Override
@@ -24,7 +24,6 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.utils.Utils;
 
@@ -44,24 +43,24 @@ public class AdminPlugin extends Plugin {
         }
         if (action.equalsIgnoreCase("reload")) {
             getBot().getCommandManager().loadUserLevels();
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": User levels reloaded");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": User levels reloaded");
         } else if (action.equalsIgnoreCase("save")) {
             getBot().getCommandManager().loadUserLevels();
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": User levels saved");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": User levels saved");
         } else if (action.equalsIgnoreCase("list")) {
             Map<String, UserLevel> userLevels = getBot().getCommandManager().getUserLevels();
-            Irc.notice(e.getSession(), e.getSource().getNick(), "Moderators:");
+            getOutput().notice(e.getSession(), e.getSource().getNick(), "Moderators:");
             userLevels.entrySet().stream()
                     .filter((entry) -> entry.getValue() == UserLevel.MODERATOR)
-                    .forEach((entry) -> Irc.notice(e.getSession(), e.getSource().getNick(), "       " + entry.getKey()));
-            Irc.notice(e.getSession(), e.getSource().getNick(), "Admins:");
+                    .forEach((entry) -> getOutput().notice(e.getSession(), e.getSource().getNick(), "       " + entry.getKey()));
+            getOutput().notice(e.getSession(), e.getSource().getNick(), "Admins:");
             userLevels.entrySet().stream()
                     .filter((entry) -> entry.getValue() == UserLevel.ADMIN)
-                    .forEach((entry) -> Irc.notice(e.getSession(), e.getSource().getNick(), "       " + entry.getKey()));
-            Irc.notice(e.getSession(), e.getSource().getNick(), "Owners:");
+                    .forEach((entry) -> getOutput().notice(e.getSession(), e.getSource().getNick(), "       " + entry.getKey()));
+            getOutput().notice(e.getSession(), e.getSource().getNick(), "Owners:");
             userLevels.entrySet().stream()
                     .filter((entry) -> entry.getValue() == UserLevel.OWNER)
-                    .forEach((entry) -> Irc.notice(e.getSession(), e.getSource().getNick(), "       " + entry.getKey()));
+                    .forEach((entry) -> getOutput().notice(e.getSession(), e.getSource().getNick(), "       " + entry.getKey()));
         } else if (action.equalsIgnoreCase("set")) {
             String userLevel = e.getParams()[2];
             UserLevel level;
@@ -71,20 +70,20 @@ public class AdminPlugin extends Plugin {
                 try {
                     level = UserLevel.valueOf(userLevel.toUpperCase());
                 } catch (IllegalArgumentException iae) {
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Level must be a valid integer or user level string");
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Level must be a valid integer or user level string");
                     return;
                 }
             }
             getBot().getCommandManager().setUserLevel(e.getParams()[1], level);
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Gave " + level.name() + " privileges to '" + e.getParams()[1] + "'");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Gave " + level.name() + " privileges to '" + e.getParams()[1] + "'");
         } else if (action.equalsIgnoreCase("unset")) {
             getBot().getCommandManager().unsetUserLevel(e.getParams()[1]);
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Removed all privileges from '" + e.getParams()[1] + "'");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Removed all privileges from '" + e.getParams()[1] + "'");
         } else if (action.equalsIgnoreCase("clear")) {
             getBot().getCommandManager().clearUserLevel(e.getParams()[1]);
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Removed all privileges from hosts matching '" + e.getParams()[1] + "'");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Removed all privileges from hosts matching '" + e.getParams()[1] + "'");
         } else if (action.equalsIgnoreCase("check")) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + e.getRawParams() + ": " + getBot().getCommandManager().getLevelForHost(e.getRawParams()).name());
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + e.getRawParams() + ": " + getBot().getCommandManager().getLevelForHost(e.getRawParams()).name());
         }
     }
 
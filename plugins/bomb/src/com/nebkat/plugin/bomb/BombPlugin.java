@@ -24,6 +24,7 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
+import com.nebkat.junglist.bot.scheduler.Scheduler;
 import com.nebkat.junglist.irc.Channel;
 import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.Session;
@@ -38,8 +39,7 @@ import com.nebkat.junglist.irc.utils.Utils;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class BombPlugin extends Plugin {
@@ -133,9 +133,8 @@ public class BombPlugin extends Plugin {
     private BombColor mBombColor;
 
     private Random mRandom;
-    private Timer mTimer;
-    private TickTimerTask mTickTimerTask = new TickTimerTask();
-    private List<TimerTask> mPendingTimerTasks = new ArrayList<>();
+    private Scheduler.Task mTickTask;
+    private final List<Runnable> mPendingUnbans = new ArrayList<>();
 
     private int mTimeout;
 
@@ -147,11 +146,11 @@ public class BombPlugin extends Plugin {
             return;
         }
         if (!(e.getTarget() instanceof Channel)) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Bomb must be executed in a channel.");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Bomb must be executed in a channel.");
             return;
         }
         if (mBombActive) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Bomb already in progress!");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Bomb already in progress!");
             return;
         }
         List<BombColor> bombLevel = BOMB_LEVEL_EASY;
@@ -176,10 +175,9 @@ public class BombPlugin extends Plugin {
         String wiresString = bombLevel.stream()
                 .map((color) -> color.name().toUpperCase())
                 .collect(Collectors.toStringJoiner(", ")).toString();
-        Irc.message(mBombSession, mBombTarget, mBombNick + ": You have been challenged! Choose which wire to cut (" + wiresString + ") before time runs out!");
+        getOutput().message(mBombSession, mBombTarget, mBombNick + ": You have been challenged! Choose which wire to cut (" + wiresString + ") before time runs out!");
         mTimeout = 10;
-        mTickTimerTask = new TickTimerTask();
-        mTimer.schedule(mTickTimerTask, 1000, 1000);
+        mTickTask = getScheduler().scheduleAtFixedRate(this::onTick, 1000, 1000, TimeUnit.MILLISECONDS);
     }
 
     @EventHandler
@@ -193,14 +191,14 @@ public class BombPlugin extends Plugin {
             String message = e.getMessage().trim();
             boolean isAdmin = getBot().getCommandManager().getLevelForHost(e.getSource().getRaw()).getLevel() >= UserLevel.ADMIN.getLevel();
             if (message.equalsIgnoreCase(mBombColor.name()) || (isAdmin && message.equalsIgnoreCase(ADMIN_CORRECT_ANSWER))) {
-                Irc.message(mBombSession, mBombTarget, mBombNick + ": Correct wire! Bomb disarmed.");
+                getOutput().message(mBombSession, mBombTarget, mBombNick + ": Correct wire! Bomb disarmed.");
             } else {
                 if (mBombIsNuclear) {
                     Irc.ban(mBombSession, mBombTarget, mBombNick);
                 }
                 Irc.kick(mBombSession, mBombTarget, mBombNick, "Wrong wire! You failed to disarm the bomb! Correct wire was " + mBombColor.name().toLowerCase() + ".");
             }
-            mTickTimerTask.cancel();
+            cancelTick();
             mBombActive = false;
         }
     }
@@ -213,7 +211,7 @@ public class BombPlugin extends Plugin {
         if (mBombNick.equals(e.getSource().getNick()) &&
                 mBombSession.equals(e.getSession())) {
             mBombNick = e.getNick();
-            Irc.message(mBombSession, mBombTarget, mBombNick + ": You can run but you can't hide!");
+            getOutput().message(mBombSession, mBombTarget, mBombNick + ": You can run but you can't hide!");
         }
     }
 
@@ -239,18 +237,25 @@ public class BombPlugin extends Plugin {
             final Channel bombTarget = mBombTarget;
             final String bombNick = mBombNick;
             if (!mBombIsNuclear) {
-                Irc.message(mBombSession, mBombTarget, "Bitch too afraid to play the game. Banned for 30s. Correct wire was " + mBombColor.name().toLowerCase() + ".");
+                getOutput().message(mBombSession, mBombTarget, "Bitch too afraid to play the game. Banned for 30s. Correct wire was " + mBombColor.name().toLowerCase() + ".");
                 Irc.ban(bombSession, bombTarget, bombNick);
-                TimerTask unbanTimerTask = new TimerTask() {
+                Runnable unban = new Runnable() {
                     @Override
                     public void run() {
+                        synchronized (mPendingUnbans) {
+                            if (!mPendingUnbans.remove(this)) {
+                                return;
+                            }
+                        }
                         Irc.unban(bombSession, bombTarget, bombNick);
                     }
                 };
-                mPendingTimerTasks.add(unbanTimerTask);
-                mTimer.schedule(unbanTimerTask, 1000 * 30);
+                synchronized (mPendingUnbans) {
+                    mPendingUnbans.add(unban);
+                }
+                getScheduler().schedule(unban, 30, TimeUnit.SECONDS);
             } else {
-                Irc.message(mBombSession, mBombTarget, "Nobody escapes the nuclear bomb. Nobody.");
+                getOutput().message(mBombSession, mBombTarget, "Nobody escapes the nuclear bomb. Nobody.");
                 Irc.ban(bombSession, bombTarget, bombNick);
             }
 
@@ -261,18 +266,25 @@ public class BombPlugin extends Plugin {
     private void onTick() {
         if (mTimeout > 0) {
             mBombActive = true;
-            Irc.message(mBombSession, mBombTarget, mBombNick + ": " + mTimeout);
+            getOutput().message(mBombSession, mBombTarget, mBombNick + ": " + mTimeout);
             mTimeout--;
         } else {
             if (mBombIsNuclear) {
                 Irc.ban(mBombSession, mBombTarget, mBombNick);
             }
             Irc.kick(mBombSession, mBombTarget, mBombNick, "You failed to disarm the bomb! Correct wire was " + mBombColor.name().toLowerCase() + ".");
-            mTickTimerTask.cancel();
+            cancelTick();
             mBombActive = false;
         }
     }
 
+    private void cancelTick() {
+        if (mTickTask != null) {
+            mTickTask.cancel();
+            mTickTask = null;
+        }
+    }
+
     private void cancelBomb() {
         mBombActive = false;
         mBombColor = null;
@@ -280,7 +292,7 @@ public class BombPlugin extends Plugin {
         mBombNick = null;
         mBombSession = null;
         mBombTarget = null;
-        mTickTimerTask.cancel();
+        cancelTick();
     }
 
     @Override
@@ -288,7 +300,6 @@ public class BombPlugin extends Plugin {
         getBot().getCommandManager().registerCommand(new Command("bomb", this, "Bombs a user", "<user>", UserLevel.ADMIN, false));
         getBot().getCommandManager().registerCommand(new Command("nuclearbomb", this, "Bombs a user and bans if fail", "<user>", UserLevel.ADMIN, true));
 
-        mTimer = new Timer();
         mRandom = new Random();
     }
 
@@ -296,15 +307,11 @@ public class BombPlugin extends Plugin {
     public void onDisable() {
         cancelBomb();
 
-        mTimer.cancel();
-        mPendingTimerTasks.forEach(TimerTask::run);
-        mPendingTimerTasks.clear();
-    }
-
-    private class TickTimerTask extends TimerTask {
-        @Override
-        public void run() {
-            onTick();
+        // Lift bans straight away rather than leaving them in place
+        List<Runnable> unbans;
+        synchronized (mPendingUnbans) {
+            unbans = new ArrayList<>(mPendingUnbans);
         }
+        unbans.forEach(Runnable::run);
     }
 }
\ No newline at end of file
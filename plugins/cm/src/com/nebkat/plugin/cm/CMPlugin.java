@@ -34,7 +34,6 @@ import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.http.ConnectionManager;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.utils.Utils;
@@ -63,7 +62,7 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
     @CommandFilter("changelog")
     public void onChangelogCommand(final CommandEvent e) {
         if (e.getParams().length < 1) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + CHANGELOG_URL);
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + CHANGELOG_URL);
         } else {
             Config.Device device = null;
             for (List<Config.Device> devices : mConfig.devices.values()) {
@@ -75,10 +74,10 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
                 }
             }
             if (device == null) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown device " + e.getParams()[0]);
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown device " + e.getParams()[0]);
                 return;
             }
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Changelog for " + device.name + ": " + String.format(CHANGELOG_DEVICE_URL, e.getParams()[0]));
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Changelog for " + device.name + ": " + String.format(CHANGELOG_DEVICE_URL, e.getParams()[0]));
         }
     }
 
@@ -86,7 +85,7 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
     @CommandFilter("download")
     public void onDownloadCommand(CommandEvent e) {
         if (e.getParams().length < 1) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + DOWNLOAD_URL);
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + DOWNLOAD_URL);
         } else {
             Config.Device device = null;
             for (List<Config.Device> devices : mConfig.devices.values()) {
@@ -98,7 +97,7 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
                 }
             }
             if (device == null) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown device " + e.getParams()[0]);
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown device " + e.getParams()[0]);
                 return;
             }
 
@@ -121,12 +120,12 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
             try {
                 response = ConnectionManager.getHttpClient().execute(post, context);
             } catch (IOException ex) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching data");
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching data");
                 return;
             }
 
             if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching data");
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching data");
                 post.abort();
                 return;
             }
@@ -136,12 +135,12 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
 
                 if (results.result.size() > 0) {
                     GetCMApiResults.Result latest = results.result.get(0);
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Latest build (" + latest.channel + ") for " + device.name + ": " + latest.url + " [" + latest.md5sum.substring(0, 6) + "]");
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Latest build (" + latest.channel + ") for " + device.name + ": " + latest.url + " [" + latest.md5sum.substring(0, 6) + "]");
                 } else {
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No builds for " + device.name);
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No builds for " + device.name);
                 }
             } catch (IOException ioe) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching data");
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching data");
             }
         }
     }
@@ -150,7 +149,7 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
     @CommandFilter("supported")
     public void onSupportedCommand(CommandEvent e) {
         if (e.getParams().length < 1) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Supported OEMs: " + Utils.implode(mConfig.devices.keySet(), ","));
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Supported OEMs: " + Utils.implode(mConfig.devices.keySet(), ","));
         } else {
             List<Config.Device> oem = null;
             for (Map.Entry<String, List<Config.Device>> o : mConfig.devices.entrySet()) {
@@ -160,14 +159,14 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
                 }
             }
             if (oem == null) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown OEM " + e.getParams()[0] + ", supported:" + Utils.implode(mConfig.devices.keySet(), ","));
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown OEM " + e.getParams()[0] + ", supported:" + Utils.implode(mConfig.devices.keySet(), ","));
                 return;
             }
             List<String> codes = new ArrayList<>();
             for (Config.Device device : oem) {
                 codes.add(device.code);
             }
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Supported " + e.getParams()[0] + " devices: " + Utils.implode(codes, ","));
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Supported " + e.getParams()[0] + " devices: " + Utils.implode(codes, ","));
         }
     }
 
@@ -175,7 +174,7 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
     @CommandFilter("device")
     public void onDeviceCommand(CommandEvent e) {
         if (e.getParams().length < 1) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + WIKI_URL);
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + WIKI_URL);
         } else {
             Config.Device device = null;
             for (List<Config.Device> devices : mConfig.devices.values()) {
@@ -187,9 +186,9 @@ public class CMPlugin extends Plugin<CMPlugin.Config> {
                 }
             }
             if (device == null) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown device " + e.getParams()[0]);
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown device " + e.getParams()[0]);
             } else {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Information for " + device.name + ": " + String.format(WIKI_DEVICE_URL, device.code));
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Information for " + device.name + ": " + String.format(WIKI_DEVICE_URL, device.code));
             }
 
         }
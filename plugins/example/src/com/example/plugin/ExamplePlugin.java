@@ -24,7 +24,6 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.events.irc.PrivMessageEvent;
 import com.nebkat.junglist.irc.utils.Utils;
@@ -38,7 +37,7 @@ public class ExamplePlugin extends Plugin<ExamplePlugin.Config> {
     @EventHandler
     @CommandFilter("example")
     public void onCommand(CommandEvent e) {
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Received command with params: " + Utils.implode(e.getParams(), ", "));
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Received command with params: " + Utils.implode(e.getParams(), ", "));
     }
 
     @Override
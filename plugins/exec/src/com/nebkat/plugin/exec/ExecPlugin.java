@@ -24,7 +24,6 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 
 import java.io.BufferedReader;
@@ -43,20 +42,20 @@ public class ExecPlugin extends Plugin {
                 exec.getOutputStream().flush();
             }
         } catch (IOException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error running command: " + ex.getMessage());
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error running command: " + ex.getMessage());
             return;
         }
 
         try (BufferedReader input = new BufferedReader(new InputStreamReader(exec.getInputStream())); BufferedReader error = new BufferedReader(new InputStreamReader(exec.getErrorStream()))) {
             String line;
             while ((line = input.readLine()) != null) {
-                Irc.message(e.getSession(), e.getTarget(), line);
+                getOutput().message(e.getSession(), e.getTarget(), line);
             }
             while ((line = error.readLine()) != null) {
-                Irc.message(e.getSession(), e.getTarget(), line);
+                getOutput().message(e.getSession(), e.getTarget(), line);
             }
         } catch (IOException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error running command: " + ex.getMessage());
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error running command: " + ex.getMessage());
         }
     }
 
@@ -0,0 +1,515 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.geoip;
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline IP range database.
+ *
+ * The source is a CSV file of address ranges in the DB-IP lite layout, either
+ * {@code start,end,country} or {@code start,end,continent,country,region,city,latitude,longitude}. It is compiled once
+ * into a binary index of sorted IPv4 and IPv6 ranges that is memory mapped and binary searched in place, the index is
+ * reused for as long as the source file is unchanged.
+ */
+class GeoIpDatabase {
+    private static final int MAGIC = 0x47495058;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int V4_RECORD_SIZE = 12;
+    private static final int V6_RECORD_SIZE = 36;
+    private static final int LOCATION_SIZE = 20;
+
+    private final File mSource;
+    private final long mSourceModified;
+    private final long mSourceLength;
+    private final ByteBuffer mBuffer;
+    private final int mV4Count;
+    private final int mV6Count;
+    private final int mV6Offset;
+    private final int mLocationOffset;
+    private final int mStringOffset;
+
+    private GeoIpDatabase(File source, ByteBuffer buffer) {
+        mSource = source;
+        mBuffer = buffer;
+        mSourceModified = buffer.getLong(8);
+        mSourceLength = buffer.getLong(16);
+        mV4Count = buffer.getInt(24);
+        mV6Count = buffer.getInt(28);
+        int locationCount = buffer.getInt(32);
+        mV6Offset = HEADER_SIZE + mV4Count * V4_RECORD_SIZE;
+        mLocationOffset = mV6Offset + mV6Count * V6_RECORD_SIZE;
+        mStringOffset = mLocationOffset + locationCount * LOCATION_SIZE;
+    }
+
+    /**
+     * Opens a database, compiling its index first if it is missing or older than the source.
+     *
+     * @param source CSV source file.
+     * @param index Compiled index file.
+     */
+    static GeoIpDatabase open(File source, File index) throws IOException {
+        if (index.exists()) {
+            GeoIpDatabase database = new GeoIpDatabase(source, map(index));
+            if (database.mBuffer.getInt(0) == MAGIC && database.mBuffer.getInt(4) == VERSION && !database.isModified()) {
+                return database;
+            }
+        }
+        compile(source, index);
+        return new GeoIpDatabase(source, map(index));
+    }
+
+    /**
+     * @return True if the source file changed since the index was compiled.
+     */
+    boolean isModified() {
+        return mSource.lastModified() != mSourceModified || mSource.length() != mSourceLength;
+    }
+
+    /**
+     * @return Location of the address, or null if it is not within any range.
+     */
+    Location lookup(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            int ip = ByteBuffer.wrap(bytes).getInt();
+            int low = 0;
+            int high = mV4Count - 1;
+            int found = -1;
+            // Last range starting at or before the address
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (Integer.compareUnsigned(mBuffer.getInt(HEADER_SIZE + mid * V4_RECORD_SIZE), ip) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int record = HEADER_SIZE + found * V4_RECORD_SIZE;
+            if (found == -1 || Integer.compareUnsigned(mBuffer.getInt(record + 4), ip) < 0) {
+                return null;
+            }
+            return location(mBuffer.getInt(record + 8));
+        } else if (address instanceof Inet6Address) {
+            ByteBuffer ip = ByteBuffer.wrap(bytes);
+            long ipHigh = ip.getLong();
+            long ipLow = ip.getLong();
+            int low = 0;
+            int high = mV6Count - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int record = mV6Offset + mid * V6_RECORD_SIZE;
+                if (compare(mBuffer.getLong(record), mBuffer.getLong(record + 8), ipHigh, ipLow) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int record = mV6Offset + found * V6_RECORD_SIZE;
+            if (found == -1 || compare(mBuffer.getLong(record + 16), mBuffer.getLong(record + 24), ipHigh, ipLow) < 0) {
+                return null;
+            }
+            return location(mBuffer.getInt(record + 32));
+        }
+        return null;
+    }
+
+    private Location location(int index) {
+        int offset = mLocationOffset + index * LOCATION_SIZE;
+        return new Location(string(mBuffer.getInt(offset)), string(mBuffer.getInt(offset + 4)), string(mBuffer.getInt(offset + 8)),
+                mBuffer.getFloat(offset + 12), mBuffer.getFloat(offset + 16));
+    }
+
+    private String string(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        int position = mStringOffset + offset;
+        byte[] bytes = new byte[mBuffer.getShort(position) & 0xffff];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = mBuffer.get(position + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        int result = Long.compareUnsigned(aHigh, bHigh);
+        return result != 0 ? result : Long.compareUnsigned(aLow, bLow);
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Truncated geoip index " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void compile(File source, File index) throws IOException {
+        long modified = source.lastModified();
+        long length = source.length();
+        Ranges v4 = new Ranges(1);
+        Ranges v6 = new Ranges(2);
+        List<int[]> locations = new ArrayList<>();
+        List<float[]> coordinates = new ArrayList<>();
+        Map<String, Integer> locationIndex = new HashMap<>();
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] stringSize = new int[1];
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = split(line);
+                String country;
+                String region = null;
+                String city = null;
+                float latitude = 0f;
+                float longitude = 0f;
+                if (fields.length == 3) {
+                    country = fields[2];
+                } else if (fields.length >= 8) {
+                    country = fields[3];
+                    region = fields[4];
+                    city = fields[5];
+                    try {
+                        latitude = Float.parseFloat(fields[6]);
+                        longitude = Float.parseFloat(fields[7]);
+                    } catch (NumberFormatException e) {
+                        // No coordinates
+                    }
+                } else {
+                    continue;
+                }
+
+                byte[] start = parseAddress(fields[0]);
+                byte[] end = parseAddress(fields[1]);
+                if (start == null || end == null || start.length != end.length) {
+                    // Header or malformed line
+                    continue;
+                }
+
+                String key = country + '\u0000' + region + '\u0000' + city + '\u0000' + latitude + '\u0000' + longitude;
+                Integer location = locationIndex.get(key);
+                if (location == null) {
+                    location = locations.size();
+                    locationIndex.put(key, location);
+                    locations.add(new int[] {intern(country, stringIndex, strings, stringSize), intern(region, stringIndex, strings, stringSize),
+                            intern(city, stringIndex, strings, stringSize)});
+                    coordinates.add(new float[] {latitude, longitude});
+                }
+
+                ByteBuffer startBuffer = ByteBuffer.wrap(start);
+                ByteBuffer endBuffer = ByteBuffer.wrap(end);
+                if (start.length == 4) {
+                    v4.add(new long[] {startBuffer.getInt() & 0xffffffffL}, new long[] {endBuffer.getInt() & 0xffffffffL}, location);
+                } else {
+                    v6.add(new long[] {startBuffer.getLong(), startBuffer.getLong()}, new long[] {endBuffer.getLong(), endBuffer.getLong()}, location);
+                }
+            }
+        }
+        v4.sort();
+        v6.sort();
+
+        File temp = new File(index.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(modified);
+            out.writeLong(length);
+            out.writeInt(v4.mCount);
+            out.writeInt(v6.mCount);
+            out.writeInt(locations.size());
+            out.writeInt(stringSize[0]);
+            for (int i = 0; i < v4.mCount; i++) {
+                out.writeInt((int) v4.mStarts[i]);
+                out.writeInt((int) v4.mEnds[i]);
+                out.writeInt(v4.mLocations[i]);
+            }
+            for (int i = 0; i < v6.mCount; i++) {
+                out.writeLong(v6.mStarts[i * 2]);
+                out.writeLong(v6.mStarts[i * 2 + 1]);
+                out.writeLong(v6.mEnds[i * 2]);
+                out.writeLong(v6.mEnds[i * 2 + 1]);
+                out.writeInt(v6.mLocations[i]);
+            }
+            for (int i = 0; i < locations.size(); i++) {
+                out.writeInt(locations.get(i)[0]);
+                out.writeInt(locations.get(i)[1]);
+                out.writeInt(locations.get(i)[2]);
+                out.writeFloat(coordinates.get(i)[0]);
+                out.writeFloat(coordinates.get(i)[1]);
+            }
+            for (byte[] string : strings) {
+                out.writeShort(string.length);
+                out.write(string);
+            }
+        }
+        Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int intern(String string, Map<String, Integer> index, List<byte[]> strings, int[] size) {
+        if (string == null || string.isEmpty()) {
+            return -1;
+        }
+        Integer offset = index.get(string);
+        if (offset == null) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xffff) {
+                bytes = Arrays.copyOf(bytes, 0xffff);
+            }
+            offset = size[0];
+            index.put(string, offset);
+            strings.add(bytes);
+            size[0] += 2 + bytes.length;
+        }
+        return offset;
+    }
+
+    /**
+     * @return Bytes of a literal IPv4 or IPv6 address, IPv4 mapped addresses as IPv4, or null if the field is not a
+     * literal address. Names are never resolved.
+     */
+    private static byte[] parseAddress(String address) {
+        if (address.indexOf(':') == -1) {
+            return parseIPv4(address);
+        }
+
+        byte[] result = new byte[16];
+        int gap = address.indexOf("::");
+        if (gap != -1 && address.indexOf("::", gap + 1) != -1) {
+            return null;
+        }
+        String head = gap != -1 ? address.substring(0, gap) : address;
+        String tail = gap != -1 ? address.substring(gap + 2) : "";
+        int headLength = parseIPv6Groups(head, result, 0);
+        int tailLength = tail.isEmpty() ? 0 : parseIPv6Groups(tail, new byte[16], 0);
+        if (headLength < 0 || tailLength < 0 || (gap == -1 ? headLength != 16 : headLength + tailLength > 14)) {
+            return null;
+        } else if (tailLength > 0) {
+            parseIPv6Groups(tail, result, 16 - tailLength);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            if (result[i] != 0) {
+                return result;
+            }
+        }
+        return result[10] == (byte) 0xff && result[11] == (byte) 0xff ? Arrays.copyOfRange(result, 12, 16) : result;
+    }
+
+    /**
+     * Parses colon separated hex groups, the last of which may be a dotted IPv4 address, into the buffer.
+     *
+     * @return Number of bytes parsed, or -1 if the groups are malformed or do not fit.
+     */
+    private static int parseIPv6Groups(String groups, byte[] buffer, int offset) {
+        if (groups.isEmpty()) {
+            return 0;
+        }
+        int length = 0;
+        String[] parts = groups.split(":", -1);
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if (i == parts.length - 1 && part.indexOf('.') != -1) {
+                byte[] v4 = parseIPv4(part);
+                if (v4 == null || offset + length + 4 > buffer.length) {
+                    return -1;
+                }
+                System.arraycopy(v4, 0, buffer, offset + length, 4);
+                return length + 4;
+            } else if (part.isEmpty() || part.length() > 4 || offset + length + 2 > buffer.length) {
+                return -1;
+            }
+            int value = 0;
+            for (int j = 0; j < part.length(); j++) {
+                int digit = Character.digit(part.charAt(j), 16);
+                if (digit == -1) {
+                    return -1;
+                }
+                value = value << 4 | digit;
+            }
+            buffer[offset + length++] = (byte) (value >> 8);
+            buffer[offset + length++] = (byte) value;
+        }
+        return length;
+    }
+
+    private static byte[] parseIPv4(String address) {
+        String[] parts = address.split("\\.", -1);
+        if (parts.length != 4) {
+            return null;
+        }
+        byte[] result = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            String part = parts[i];
+            if (part.isEmpty() || part.length() > 3) {
+                return null;
+            }
+            int value = 0;
+            for (int j = 0; j < part.length(); j++) {
+                char c = part.charAt(j);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (value > 255) {
+                return null;
+            }
+            result[i] = (byte) value;
+        }
+        return result;
+    }
+
+    private static String[] split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Growable primitive arrays of ranges, addresses are stored as one or two longs.
+     */
+    private static class Ranges {
+        private final int mWidth;
+        private long[] mStarts;
+        private long[] mEnds;
+        private int[] mLocations = new int[1024];
+        private int mCount;
+        private boolean mSorted = true;
+
+        Ranges(int width) {
+            mWidth = width;
+            mStarts = new long[1024 * width];
+            mEnds = new long[1024 * width];
+        }
+
+        void add(long[] start, long[] end, int location) {
+            if (mCount == mLocations.length) {
+                mStarts = Arrays.copyOf(mStarts, mStarts.length * 2);
+                mEnds = Arrays.copyOf(mEnds, mEnds.length * 2);
+                mLocations = Arrays.copyOf(mLocations, mLocations.length * 2);
+            }
+            if (mCount > 0 && compare(mCount - 1, start) > 0) {
+                mSorted = false;
+            }
+            System.arraycopy(start, 0, mStarts, mCount * mWidth, mWidth);
+            System.arraycopy(end, 0, mEnds, mCount * mWidth, mWidth);
+            mLocations[mCount++] = location;
+        }
+
+        void sort() {
+            if (mSorted) {
+                return;
+            }
+            // Sources are normally already sorted, so this rarely needs the boxed index
+            Integer[] order = new Integer[mCount];
+            for (int i = 0; i < mCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> compare(a, Arrays.copyOfRange(mStarts, b * mWidth, b * mWidth + mWidth)));
+            long[] starts = new long[mCount * mWidth];
+            long[] ends = new long[mCount * mWidth];
+            int[] locations = new int[mCount];
+            for (int i = 0; i < mCount; i++) {
+                System.arraycopy(mStarts, order[i] * mWidth, starts, i * mWidth, mWidth);
+                System.arraycopy(mEnds, order[i] * mWidth, ends, i * mWidth, mWidth);
+                locations[i] = mLocations[order[i]];
+            }
+            mStarts = starts;
+            mEnds = ends;
+            mLocations = locations;
+            mSorted = true;
+        }
+
+        private int compare(int index, long[] start) {
+            for (int i = 0; i < mWidth; i++) {
+                int result = Long.compareUnsigned(mStarts[index * mWidth + i], start[i]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    }
+
+    static class Location {
+        final String country;
+        final String region;
+        final String city;
+        final float latitude;
+        final float longitude;
+
+        Location(String country, String region, String city, float latitude, float longitude) {
+            this.country = country;
+            this.region = region;
+            this.city = city;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+}
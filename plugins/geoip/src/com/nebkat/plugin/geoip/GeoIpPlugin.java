@@ -31,31 +31,43 @@ import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.http.ConnectionManager;
 import com.nebkat.junglist.bot.plugin.Plugin;
 import com.nebkat.junglist.irc.Irc;
+import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.events.EventListener;
 import com.nebkat.junglist.irc.events.irc.response.UserHostEvent;
 import com.nebkat.junglist.irc.utils.Utils;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class GeoIpPlugin extends Plugin {
+public class GeoIpPlugin extends Plugin<GeoIpPlugin.Config> {
+    private static final String TAG = "GeoIpPlugin";
     private static final String GEOCODE_API_URL = "http://maps.googleapis.com/maps/api/geocode/json?address=%1$s&sensor=false";
     private static final String TIMEZONE_API_URL = "https://maps.googleapis.com/maps/api/timezone/json?location=%1$f,%2$f&timestamp=%3$d&sensor=false";
     private static final String GEOIP_URL = "http://freegeoip.net/json/%1$s";
+    private static final long GEOCODE_CACHE_TTL = 7 * 24 * 60 * 60 * 1000;
+    private static final long GEOIP_CACHE_TTL = 24 * 60 * 60 * 1000;
+    private static final long DEFAULT_RELOAD_INTERVAL = 60 * 1000;
+    private static final String DATABASE_INDEX = "geoip.idx";
+    private static final String TIME_ZONES = "timezones.csv";
 
     private static final Pattern FREENODE_WEB_IP_MATCHER = Pattern.compile("gateway/web/freenode/ip\\.((?:\\d{1,3}\\.){3}\\d{1,3})");
 
     private EventListener mUserHostListener;
+    private volatile GeoIpDatabase mDatabase;
 
     @EventHandler
     @CommandFilter("geo")
@@ -75,7 +87,7 @@ public class GeoIpPlugin extends Plugin {
                 @EventHandler
                 public void onUserHost(UserHostEvent e) {
                     if (!host.equalsIgnoreCase(e.getNick())) {
-                        Irc.message(originalEvent.getSession(), originalEvent.getTarget(), originalEvent.getSource().getNick() + ": Error resolving host for user " + host + " (user not online?)");
+                        getOutput().message(originalEvent.getSession(), originalEvent.getTarget(), originalEvent.getSource().getNick() + ": Error resolving host for user " + host + " (user not online?)");
                         return;
                     }
                     String host = e.getHost();
@@ -107,16 +119,16 @@ public class GeoIpPlugin extends Plugin {
         HttpGet get = new HttpGet(String.format(GEOCODE_API_URL, target.replaceAll(" ", "+")));
         HttpResponse response;
         try {
-            response = ConnectionManager.getHttpClient().execute(get);
+            response = ConnectionManager.getHttpCache().execute(get, GEOCODE_CACHE_TTL);
         } catch (IOException ex) {
             get.abort();
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geocode data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geocode data");
             return;
         }
 
         if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
             get.abort();
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geocode data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geocode data");
             return;
         }
 
@@ -124,23 +136,23 @@ public class GeoIpPlugin extends Plugin {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()))) {
             geocode = new Gson().fromJson(reader, GoogleGeocode.class);
         } catch (IOException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geocode data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geocode data");
             return;
         } catch (JsonParseException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error parsing geocode data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error parsing geocode data");
             return;
         }
 
         if (!geocode.status.equals(GoogleGeocode.STATUS_OK)) {
             switch (geocode.status) {
                 case GoogleGeocode.STATUS_NO_RESULTS:
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No geocode data found for request");
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No geocode data found for request");
                     break;
                 case GoogleGeocode.STATUS_OVER_LIMIT:
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Geocode api over limit");
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Geocode api over limit");
                     break;
                 default:
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geocode data");
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geocode data");
                     break;
             }
             return;
@@ -151,12 +163,12 @@ public class GeoIpPlugin extends Plugin {
             response = ConnectionManager.getHttpClient().execute(get);
         } catch (IOException ex) {
             get.abort();
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching timezone data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching timezone data");
             return;
         }
 
         if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching timezone data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching timezone data");
             return;
         }
 
@@ -164,23 +176,23 @@ public class GeoIpPlugin extends Plugin {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()))) {
             timezone = new Gson().fromJson(reader, GoogleTimezone.class);
         } catch (IOException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching timezone data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching timezone data");
             return;
         } catch (JsonParseException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error parsing timezone data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error parsing timezone data");
             return;
         }
 
         if (!geocode.status.equals(GoogleGeocode.STATUS_OK)) {
             switch (geocode.status) {
                 case GoogleGeocode.STATUS_NO_RESULTS:
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No timezone data found for location");
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No timezone data found for location");
                     break;
                 case GoogleGeocode.STATUS_OVER_LIMIT:
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timezone api over limit");
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timezone api over limit");
                     break;
                 default:
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching timezone data");
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching timezone data");
                     break;
             }
             return;
@@ -188,7 +200,7 @@ public class GeoIpPlugin extends Plugin {
 
         DateFormat date = new SimpleDateFormat("E d MMM HH:mm");
         date.setTimeZone(TimeZone.getTimeZone(timezone.timeZoneId));
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Time for " + geocode.results.get(0).formatted_address + " (" + timezone.timeZoneName + "): " + date.format(new Date()));
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Time for " + geocode.results.get(0).formatted_address + " (" + timezone.timeZoneName + "): " + date.format(new Date()));
     }
 
     public void geoIp(CommandEvent e, String host) {
@@ -199,7 +211,7 @@ public class GeoIpPlugin extends Plugin {
         GeoIp location = getGeoIp(host);
 
         if (location == null) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geolocation data for (invalid?) host " + host);
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching geolocation data for (invalid?) host " + host);
             return;
         }
 
@@ -227,8 +239,8 @@ public class GeoIpPlugin extends Plugin {
         }
 
         // Time
-        if (location.country_code != null && location.region_code != null) {
-            String timeZone = GeoTimeZones.timeZoneByCountryAndRegion(location.country_code, location.region_code);
+        if (location.country_code != null) {
+            String timeZone = GeoTimeZones.timeZoneByCountryAndRegion(location.country_code, location.region_code != null ? location.region_code : location.region_name);
             if (timeZone != null) {
                 DateFormat date = new SimpleDateFormat("E HH:mm z");
                 date.setTimeZone(TimeZone.getTimeZone(timeZone));
@@ -237,14 +249,37 @@ public class GeoIpPlugin extends Plugin {
         }
 
         String result = location.ip + ": {" + Utils.implode(information, ", ") + "}";
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result);
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result);
     }
 
     public GeoIp getGeoIp(String host) {
+        GeoIpDatabase database = mDatabase;
+        if (database != null) {
+            try {
+                InetAddress address = InetAddress.getByName(host);
+                GeoIpDatabase.Location location = database.lookup(address);
+                if (location != null) {
+                    GeoIp geoIp = new GeoIp();
+                    geoIp.ip = address.getHostAddress();
+                    geoIp.country_code = location.country;
+                    geoIp.region_name = location.region;
+                    geoIp.city = location.city;
+                    geoIp.latitude = location.latitude;
+                    geoIp.longitude = location.longitude;
+                    return geoIp;
+                }
+            } catch (UnknownHostException ex) {
+                // The remote service may still know the host
+            }
+        }
+        return mConfig.httpFallback ? getRemoteGeoIp(host) : null;
+    }
+
+    private GeoIp getRemoteGeoIp(String host) {
         HttpGet get = new HttpGet(String.format(GEOIP_URL, host));
         HttpResponse response;
         try {
-            response = ConnectionManager.getHttpClient().execute(get);
+            response = ConnectionManager.getHttpCache().execute(get, GEOIP_CACHE_TTL);
         } catch (IOException ex) {
             get.abort();
             return null;
@@ -270,9 +305,55 @@ public class GeoIpPlugin extends Plugin {
         getBot().getCommandManager().registerCommand(new Command("geo", this, "Finds the location of a user/ip/host", "user/host <user/host>", UserLevel.NORMAL, false, "geoip"));
     }
 
+    @Override
+    public void onEnable() {
+        // A time zone table in the plugin storage replaces the bundled one
+        File timeZones = new File(getStorage(), TIME_ZONES);
+        if (timeZones.isFile()) {
+            try {
+                GeoTimeZones.setDefault(GeoTimeZones.load(timeZones));
+            } catch (IOException ex) {
+                Log.e(TAG, "Could not load time zones " + timeZones, ex);
+            }
+        }
+
+        if (Utils.empty(mConfig.database)) {
+            return;
+        }
+        File source = new File(mConfig.database);
+        if (!source.isAbsolute()) {
+            source = new File(getStorage(), mConfig.database);
+        }
+        File index = new File(getStorage(), DATABASE_INDEX);
+        long interval = mConfig.reloadInterval > 0 ? mConfig.reloadInterval : DEFAULT_RELOAD_INTERVAL;
+
+        // Compiling a changed database can take a while, lookups keep using the previous one until it is swapped in
+        final File databaseSource = source;
+        getScheduler().scheduleWithFixedDelay(() -> {
+            GeoIpDatabase database = mDatabase;
+            if (!databaseSource.isFile() || (database != null && !database.isModified())) {
+                return;
+            }
+            try {
+                mDatabase = GeoIpDatabase.open(databaseSource, index);
+                Log.i(TAG, "Loaded geoip database " + databaseSource);
+            } catch (IOException ex) {
+                Log.e(TAG, "Could not load geoip database " + databaseSource, ex);
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void onDisable() {
         getIrc().getEventHandlerManager().unregisterEvents(mUserHostListener);
+        getScheduler().cancel();
+        mDatabase = null;
+    }
+
+    public class Config {
+        public String database;
+        public boolean httpFallback;
+        public long reloadInterval;
     }
 
     public class GeoIp {
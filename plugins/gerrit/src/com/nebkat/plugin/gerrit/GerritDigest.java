@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.gerrit;
+
+import com.nebkat.junglist.bot.scheduler.Scheduler;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Aggregates gerrit events over a time window into one digest line per event type, project and branch.
+ *
+ * A window opens with the first event and is flushed when it closes, a group holding a single event is announced as
+ * that event. Memory is bounded per window, events past the group limit are only counted.
+ */
+public class GerritDigest {
+    private static final int MAX_GROUPS = 64;
+    private static final int MAX_CHANGES = 256;
+
+    public interface Output {
+        void onDigest(String host, String line);
+    }
+
+    private final long mWindow;
+    private final Function<GerritEvent, String> mFormatter;
+    private final Output mOutput;
+    private final Scheduler.Scope mScheduler;
+
+    private final Map<String, Group> mGroups = new LinkedHashMap<>();
+    private final Map<String, Integer> mOverflow = new LinkedHashMap<>();
+    private Scheduler.Task mFlush;
+    private boolean mClosed;
+
+    /**
+     * @param window Window length in milliseconds.
+     * @param formatter Formats a single event, returning null for events that are not announced.
+     * @param scheduler Scheduler windows are closed on.
+     */
+    public GerritDigest(long window, Function<GerritEvent, String> formatter, Output output, Scheduler.Scope scheduler) {
+        mWindow = window;
+        mFormatter = formatter;
+        mOutput = output;
+        mScheduler = scheduler;
+    }
+
+    public synchronized void add(String host, GerritEvent event) {
+        if (event.change == null) {
+            return;
+        }
+        String key = host + '\n' + event.type + '\n' + event.change.project + '\n' + event.change.branch;
+        Group group = mGroups.get(key);
+        if (group == null) {
+            String line = mFormatter.apply(event);
+            if (line == null) {
+                return;
+            } else if (mGroups.size() >= MAX_GROUPS) {
+                mOverflow.merge(host, 1, Integer::sum);
+                return;
+            }
+            group = new Group(host, event, line);
+            mGroups.put(key, group);
+        }
+        group.add(event);
+
+        if (mFlush == null && !mClosed) {
+            mFlush = mScheduler.schedule(this::flush, mWindow, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void flush() {
+        Map<String, Group> groups;
+        Map<String, Integer> overflow;
+        synchronized (this) {
+            if (mFlush != null) {
+                mFlush.cancel();
+                mFlush = null;
+            }
+            groups = new LinkedHashMap<>(mGroups);
+            overflow = new LinkedHashMap<>(mOverflow);
+            mGroups.clear();
+            mOverflow.clear();
+        }
+        for (Group group : groups.values()) {
+            mOutput.onDigest(group.mHost, group.format());
+        }
+        overflow.forEach((host, count) -> mOutput.onDigest(host, "[Gerrit] " + count + " more " + (count == 1 ? "event" : "events")));
+    }
+
+    /**
+     * Flushes the current window and stops.
+     */
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        flush();
+    }
+
+    private static class Group {
+        private final String mHost;
+        private final String mType;
+        private final String mProject;
+        private final String mBranch;
+        private final String mLine;
+        private final Set<String> mChanges = new HashSet<>();
+        private int mCount;
+        private boolean mChangesOverflow;
+
+        Group(String host, GerritEvent event, String line) {
+            mHost = host;
+            mType = event.type;
+            mProject = event.change.project;
+            mBranch = event.change.branch;
+            mLine = line;
+        }
+
+        void add(GerritEvent event) {
+            mCount++;
+            if (mChanges.size() < MAX_CHANGES) {
+                mChanges.add(event.change.id != null ? event.change.id : event.change.url);
+            } else if (!mChanges.contains(event.change.id != null ? event.change.id : event.change.url)) {
+                mChangesOverflow = true;
+            }
+        }
+
+        String format() {
+            if (mCount == 1) {
+                return mLine;
+            }
+            String changes = mChanges.size() + (mChangesOverflow ? "+" : "") + (mChanges.size() == 1 && !mChangesOverflow ? " change" : " changes");
+            String where = " on " + mProject + " (" + mBranch + ")";
+            switch (mType) {
+                case GerritEvent.TYPE_CHANGE_MERGED:
+                    return "[Gerrit] " + changes + " merged" + where;
+                case GerritEvent.TYPE_CHANGE_ABANDONED:
+                    return "[Gerrit] " + changes + " abandoned" + where;
+                case GerritEvent.TYPE_PATCHSET_ADD:
+                    return "[Gerrit] " + mCount + " patch sets uploaded to " + changes + where;
+                case GerritEvent.TYPE_COMMENT_ADDED:
+                    return "[Gerrit] " + mCount + " comments on " + changes + where;
+                default:
+                    return "[Gerrit] " + mCount + " " + mType + " events for " + changes + where;
+            }
+        }
+    }
+}
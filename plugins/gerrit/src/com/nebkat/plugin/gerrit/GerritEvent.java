@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.gerrit;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class GerritEvent {
+    public static final String TYPE_PATCHSET_ADD = "patchset-added";
+    public static final String TYPE_CHANGE_ABANDONED = "change-abandoned";
+    public static final String TYPE_CHANGE_MERGED = "change-merged";
+    public static final String TYPE_COMMENT_ADDED = "comment-added";
+
+    public String type;
+    public long eventCreatedOn;
+    public Change change;
+    public Patchset patchSet;
+    public Account abandoner;
+    public Account submitter;
+    public Account author;
+    public String comment;
+
+    public static class Change {
+        public String project;
+        public String branch;
+        public String id;
+        public String subject;
+        public Account owner;
+        public String url;
+    }
+
+    public static class Account {
+        public String name;
+        public String email;
+        public String username;
+    }
+
+    public static class Patchset {
+        public int number;
+        public String revision;
+        public Account uploader;
+    }
+
+    /**
+     * Decodes a stream-events line, only the fields above are read and everything else is skipped.
+     */
+    public static GerritEvent parse(String line) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(line));
+        reader.setLenient(true);
+        GerritEvent event = new GerritEvent();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type":
+                    event.type = nextString(reader);
+                    break;
+                case "eventCreatedOn":
+                    event.eventCreatedOn = reader.nextLong();
+                    break;
+                case "change":
+                    event.change = readChange(reader);
+                    break;
+                case "patchSet":
+                    event.patchSet = readPatchset(reader);
+                    break;
+                case "abandoner":
+                    event.abandoner = readAccount(reader);
+                    break;
+                case "submitter":
+                    event.submitter = readAccount(reader);
+                    break;
+                case "author":
+                    event.author = readAccount(reader);
+                    break;
+                case "comment":
+                    event.comment = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return event;
+    }
+
+    private static Change readChange(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        Change change = new Change();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "project":
+                    change.project = nextString(reader);
+                    break;
+                case "branch":
+                    change.branch = nextString(reader);
+                    break;
+                case "id":
+                    change.id = nextString(reader);
+                    break;
+                case "subject":
+                    change.subject = nextString(reader);
+                    break;
+                case "owner":
+                    change.owner = readAccount(reader);
+                    break;
+                case "url":
+                    change.url = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return change;
+    }
+
+    private static Patchset readPatchset(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        Patchset patchset = new Patchset();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "number":
+                    patchset.number = reader.nextInt();
+                    break;
+                case "revision":
+                    patchset.revision = nextString(reader);
+                    break;
+                case "uploader":
+                    patchset.uploader = readAccount(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return patchset;
+    }
+
+    private static Account readAccount(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        Account account = new Account();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name":
+                    account.name = nextString(reader);
+                    break;
+                case "email":
+                    account.email = nextString(reader);
+                    break;
+                case "username":
+                    account.username = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return account;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -19,26 +19,23 @@
 
 package com.nebkat.plugin.gerrit;
 
-import com.google.gson.Gson;
-import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
+import com.nebkat.junglist.bot.OutputQueue;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
-import com.nebkat.junglist.irc.utils.InputThread;
+import com.nebkat.junglist.irc.Log;
 
-import java.io.InputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 public class GerritPlugin extends Plugin<GerritPlugin.Config> {
-    private static final int GERRIT_STREAM_PORT = 29418;
-    private static final String GERRIT_STREAM_COMMAND = "gerrit stream-events";
+    private static final String TAG = "GerritPlugin";
+    private static final List<String> DEFAULT_EVENTS = Collections.singletonList(GerritEvent.TYPE_CHANGE_MERGED);
 
-    private Gson mGson = new Gson();
     private JSch mSSH;
-    private Map<Session, List<String>> mSessions = new HashMap<>();
+    private GerritStreamClient mClient;
+    private GerritDigest mDigest;
 
     @Override
     public void onCreate() {
@@ -48,64 +45,125 @@ public class GerritPlugin extends Plugin<GerritPlugin.Config> {
 
     public void onEnable() {
         try {
+            mSSH.removeAllIdentity();
             mSSH.addIdentity(mConfig.key);
             mSSH.setKnownHosts(mConfig.hosts);
-
-            for (Map.Entry<String, List<String>> gerrit : mConfig.gerrit.entrySet()) {
-                final Session session = mSSH.getSession(mConfig.user, gerrit.getKey(), GERRIT_STREAM_PORT);
-                mSessions.put(session, gerrit.getValue());
-                session.connect();
-
-                ChannelExec channel = (ChannelExec) session.openChannel("exec");
-                channel.setCommand(GERRIT_STREAM_COMMAND);
-                channel.setInputStream(null);
-                channel.connect();
-                InputStream stream = channel.getInputStream();
-
-                new InputThread(stream, new InputThread.Callback() {
-                    @Override
-                    public void onLineRead(String line) {
-                        GerritPlugin.this.onLineRead(session, line);
-                    }
-
-                    @Override
-                    public void onStreamClosed() {
-                    }
-                }).start();
-            }
         } catch (Exception e) {
-            // Ignore
+            Log.e(TAG, "Could not set up ssh identity", e);
+            return;
         }
+
+        if (mConfig.digestWindow > 0) {
+            mDigest = new GerritDigest(mConfig.digestWindow, this::format, (host, line) -> announce(host, Collections.singletonList(line)), getScheduler());
+        }
+        mClient = new GerritStreamClient(mSSH, mConfig.user, mConfig.resumeCommand, mConfig.threads, this::acceptLine, this::onEvents);
+        mConfig.gerrit.keySet().forEach(mClient::addStream);
     }
 
     public void onDisable() {
-        mSessions.keySet().forEach(Session::disconnect);
-        mSessions.clear();
+        if (mClient != null) {
+            mClient.close();
+            mClient = null;
+        }
+        if (mDigest != null) {
+            mDigest.close();
+            mDigest = null;
+        }
+    }
+
+    /**
+     * Cheap check on the raw line so events for other projects and branches are never decoded.
+     */
+    private boolean acceptLine(String line) {
+        if (mConfig.projects == null || mConfig.projects.isEmpty()) {
+            return true;
+        }
+        for (String filter : mConfig.projects) {
+            int colon = filter.indexOf(':');
+            String project = colon != -1 ? filter.substring(0, colon) : filter;
+            if (line.contains("\"project\":\"" + project + "\"") && (colon == -1 || line.contains("\"branch\":\"" + filter.substring(colon + 1) + "\""))) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public void onLineRead(Session session, String line) {
-        GerritEvent event = mGson.fromJson(line, GerritEvent.class);
-        /*if (GerritEvent.TYPE_PATCHSET_ADD.equals(event.type)) {
-            for (String channel : mSessions.get(session)) {
-                Irc.message(getBot().getSession(), channel, "[Gerrit] " + accountName(event.patchSet.uploader) + " uploaded " + (event.patchSet.number > 1 ? "patchset " + event.patchSet.number : "") + "\"" + event.change.subject + "\" by " + accountName(event.change.owner) + " for " + event.change.project + "[" + event.change.branch + "] - " + event.change.url);
+    private boolean accept(GerritEvent event) {
+        if (event.change == null) {
+            return false;
+        }
+        if (mConfig.projects == null || mConfig.projects.isEmpty()) {
+            return true;
+        }
+        for (String filter : mConfig.projects) {
+            int colon = filter.indexOf(':');
+            if (colon == -1 ? filter.equals(event.change.project) :
+                    filter.substring(0, colon).equals(event.change.project) && filter.substring(colon + 1).equals(event.change.branch)) {
+                return true;
             }
-        } else if (GerritEvent.TYPE_CHANGE_ABANDONED.equals(event.type)) {
-            for (String channel : mSessions.get(session)) {
-                Irc.message(getBot().getSession(), channel, "[Gerrit] " + accountName(event.abandoner) + " abandoned \"" + event.change.subject + "\" by " + accountName(event.change.owner) + " for " + event.change.project + "[" + event.change.branch + "] - " + event.change.url);
+        }
+        return false;
+    }
+
+    public void onEvents(String host, List<GerritEvent> events) {
+        GerritDigest digest = mDigest;
+        List<String> lines = new ArrayList<>();
+        for (GerritEvent event : events) {
+            if (!accept(event)) {
+                continue;
             }
-        } else */if (GerritEvent.TYPE_CHANGE_MERGED.equals(event.type)) {
-            for (String channel : mSessions.get(session)) {
-                Irc.message(getBot().getSession(), channel, "[Gerrit] " + accountName(event.submitter) + " merged \"" + event.change.subject + "\" by " + accountName(event.change.owner) + " for " + event.change.project + "[" + event.change.branch + "] - " + event.change.url);
+            if (digest != null) {
+                digest.add(host, event);
+                continue;
             }
+            String line = format(event);
+            if (line != null) {
+                lines.add(line);
+            }
+        }
+        announce(host, lines);
+    }
 
-        }/* else if (GerritEvent.TYPE_COMMENT_ADDED.equals(event.type)) {
-            for (String channel : mSessions.get(session)) {
-                Irc.message(getBot().getSession(), channel, "[Gerrit] " + accountName(event.author) + " commented \"" + event.comment + "\" on \"" + event.change.subject + "\" by " + accountName(event.change.owner) + " for " + event.change.project + "[" + event.change.branch + "] - " + event.change.url);
+    private void announce(String host, List<String> lines) {
+        List<String> channels = mConfig.gerrit.get(host);
+        if (channels == null) {
+            return;
+        }
+        // Announcements for a channel are queued back to back so the output queue can merge them into fewer lines
+        for (String channel : channels) {
+            for (String line : lines) {
+                getOutput().message(getBot().getSession(), channel, line, OutputQueue.Priority.ANNOUNCEMENT);
             }
-        }*/
+        }
+    }
+
+    private String format(GerritEvent event) {
+        if (event.change == null || !getEvents().contains(event.type)) {
+            return null;
+        }
+        String change = "\"" + event.change.subject + "\" by " + accountName(event.change.owner) + " for " + event.change.project + "[" + event.change.branch + "] - " + event.change.url;
+        switch (event.type) {
+            case GerritEvent.TYPE_PATCHSET_ADD:
+                int number = event.patchSet != null ? event.patchSet.number : 0;
+                return "[Gerrit] " + accountName(event.patchSet != null ? event.patchSet.uploader : null) + " uploaded " + (number > 1 ? "patchset " + number + " of " : "") + change;
+            case GerritEvent.TYPE_CHANGE_ABANDONED:
+                return "[Gerrit] " + accountName(event.abandoner) + " abandoned " + change;
+            case GerritEvent.TYPE_CHANGE_MERGED:
+                return "[Gerrit] " + accountName(event.submitter) + " merged " + change;
+            case GerritEvent.TYPE_COMMENT_ADDED:
+                return "[Gerrit] " + accountName(event.author) + " commented \"" + event.comment + "\" on " + change;
+        }
+        return null;
+    }
+
+    private List<String> getEvents() {
+        return mConfig.events != null ? mConfig.events : DEFAULT_EVENTS;
     }
 
     public String accountName(GerritEvent.Account account) {
+        if (account == null) {
+            return "unknown";
+        }
         return account.username != null ? account.username : account.name + " <" + account.email + ">";
     }
 
@@ -114,41 +172,10 @@ public class GerritPlugin extends Plugin<GerritPlugin.Config> {
         public String user;
         public String hosts;
         public String key;
-    }
-
-    public class GerritEvent {
-        public static final String TYPE_PATCHSET_ADD = "patchset-added";
-        public static final String TYPE_CHANGE_ABANDONED = "change-abandoned";
-        public static final String TYPE_CHANGE_MERGED = "change-merged";
-        public static final String TYPE_COMMENT_ADDED = "comment-added";
-
-        public String type;
-        public Change change;
-        public Patchset patchSet;
-        public Account abandoner;
-        public Account submitter;
-        public Account author;
-        public String comment;
-
-        public class Change {
-            public String project;
-            public String branch;
-            public String id;
-            public String subject;
-            public Account owner;
-            public String url;
-        }
-
-        public class Account {
-            public String name;
-            public String email;
-            public String username;
-        }
-
-        public class Patchset {
-            public int number;
-            public String revision;
-            public Account uploader;
-        }
+        public List<String> projects;
+        public String resumeCommand;
+        public int threads;
+        public List<String> events;
+        public long digestWindow;
     }
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.gerrit;
+
+import com.google.gson.stream.MalformedJsonException;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.nebkat.junglist.irc.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gerrit stream-events client multiplexing any number of streams on a small shared thread pool.
+ *
+ * Streams are polled without blocking and lines are decoded as they complete. Events read in one poll are handed to
+ * the listener together. Dropped streams reconnect with exponential backoff, if a resume command is configured it is
+ * used to replay the events missed while disconnected.
+ *
+ * Hosts are {@code host[:port]} for SSH, or {@code tcp://host:port} for a plain socket which is useful to test against
+ * a local fake stream server.
+ */
+public class GerritStreamClient {
+    private static final String TAG = "GerritStreamClient";
+
+    public static final int DEFAULT_PORT = 29418;
+    public static final String DEFAULT_COMMAND = "gerrit stream-events";
+    private static final String TCP_PREFIX = "tcp://";
+
+    private static final long POLL_INTERVAL = 100;
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int SERVER_ALIVE_INTERVAL = 30000;
+    private static final long MIN_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 5 * 60 * 1000;
+    private static final long STABLE_CONNECTION = 60 * 1000;
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+    private static final int MAX_READS_PER_POLL = 64;
+
+    public interface Listener {
+        /**
+         * Called with the events read from a host in one poll, in stream order.
+         */
+        void onEvents(String host, List<GerritEvent> events);
+    }
+
+    /**
+     * Decides whether a line is worth decoding, before it is decoded.
+     */
+    public interface LineFilter {
+        boolean accept(String line);
+    }
+
+    private final JSch mSSH;
+    private final String mUser;
+    private final String mResumeCommand;
+    private final LineFilter mFilter;
+    private final Listener mListener;
+    private final ScheduledExecutorService mExecutor;
+    private final List<Stream> mStreams = new CopyOnWriteArrayList<>();
+    private final byte[] mReadBuffer = new byte[8192];
+
+    /**
+     * @param ssh SSH client with the identity and known hosts set up.
+     * @param user SSH user.
+     * @param resumeCommand Command replaying events after a time in seconds, formatted with that time, or null.
+     * @param threads Threads shared between all streams.
+     * @param filter Filter applied before decoding, or null.
+     */
+    public GerritStreamClient(JSch ssh, String user, String resumeCommand, int threads, LineFilter filter, Listener listener) {
+        mSSH = ssh;
+        mUser = user;
+        mResumeCommand = resumeCommand;
+        mFilter = filter;
+        mListener = listener;
+
+        AtomicInteger count = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(Math.max(threads, 2), (runnable) -> {
+            Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mExecutor = executor;
+        mExecutor.scheduleWithFixedDelay(this::poll, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void addStream(String host) {
+        mStreams.add(new Stream(host));
+    }
+
+    public void close() {
+        mExecutor.shutdownNow();
+        for (Stream stream : mStreams) {
+            stream.disconnect();
+        }
+        mStreams.clear();
+    }
+
+    private void poll() {
+        long now = System.currentTimeMillis();
+        for (Stream stream : mStreams) {
+            try {
+                synchronized (stream) {
+                    if (stream.mConnection == null) {
+                        if (!stream.mConnecting && now >= stream.mNextAttempt) {
+                            stream.mConnecting = true;
+                            mExecutor.execute(stream::connect);
+                        }
+                        continue;
+                    }
+                    List<GerritEvent> events = stream.read();
+                    if (!events.isEmpty()) {
+                        mListener.onEvents(stream.mHost, events);
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading gerrit stream " + stream.mHost, e);
+            }
+        }
+    }
+
+    private class Stream {
+        private final String mHost;
+        private Connection mConnection;
+        private boolean mConnecting;
+        private long mNextAttempt;
+        private long mBackoff = MIN_BACKOFF;
+        private long mConnectedAt;
+        private long mLastEvent;
+        private final Set<String> mLastEventKeys = new HashSet<>();
+        private boolean mReplaying;
+        private long mReplayFrom;
+        private final ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+        private boolean mDiscarding;
+
+        Stream(String host) {
+            mHost = host;
+        }
+
+        void connect() {
+            long resumeFrom;
+            synchronized (this) {
+                resumeFrom = mResumeCommand != null ? mLastEvent : 0;
+            }
+            Connection connection = null;
+            try {
+                String command = resumeFrom > 0 ? String.format(mResumeCommand, resumeFrom) : DEFAULT_COMMAND;
+                connection = mHost.startsWith(TCP_PREFIX) ? new SocketConnection(mHost.substring(TCP_PREFIX.length()), command) : new SSHConnection(mHost, command);
+            } catch (IOException | JSchException | RuntimeException e) {
+                Log.w(TAG, "Could not connect to gerrit stream " + mHost + ", retrying in " + mBackoff / 1000 + "s", e);
+            } finally {
+                // Always reached, a stream left connecting would never be retried
+                synchronized (this) {
+                    mConnecting = false;
+                    if (connection == null) {
+                        scheduleReconnect();
+                    } else if (mExecutor.isShutdown()) {
+                        connection.close();
+                    } else {
+                        mConnection = connection;
+                        mConnectedAt = System.currentTimeMillis();
+                        mReplaying = resumeFrom > 0;
+                        mReplayFrom = resumeFrom;
+                        mLine.reset();
+                        mDiscarding = false;
+                    }
+                }
+            }
+        }
+
+        void disconnect() {
+            synchronized (this) {
+                if (mConnection != null) {
+                    mConnection.close();
+                    mConnection = null;
+                }
+            }
+        }
+
+        private void scheduleReconnect() {
+            mNextAttempt = System.currentTimeMillis() + mBackoff;
+            mBackoff = Math.min(mBackoff * 2, MAX_BACKOFF);
+        }
+
+        List<GerritEvent> read() {
+            List<GerritEvent> events = new ArrayList<>();
+            int read = 0;
+            int reads = 0;
+            try {
+                // Bounded so a busy stream cannot starve the others
+                while (reads++ < MAX_READS_PER_POLL && (read = mConnection.read(mReadBuffer)) > 0) {
+                    for (int i = 0; i < read; i++) {
+                        byte b = mReadBuffer[i];
+                        if (b == '\n') {
+                            if (!mDiscarding) {
+                                line(new String(mLine.toByteArray(), StandardCharsets.UTF_8), events);
+                            }
+                            mLine.reset();
+                            mDiscarding = false;
+                        } else if (!mDiscarding) {
+                            mLine.write(b);
+                            if (mLine.size() > MAX_LINE_LENGTH) {
+                                mLine.reset();
+                                mDiscarding = true;
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read == -1) {
+                Log.w(TAG, "Gerrit stream " + mHost + " closed, reconnecting in " + mBackoff / 1000 + "s");
+                mConnection.close();
+                mConnection = null;
+                if (System.currentTimeMillis() - mConnectedAt > STABLE_CONNECTION) {
+                    mBackoff = MIN_BACKOFF;
+                }
+                scheduleReconnect();
+            }
+            return events;
+        }
+
+        private void line(String line, List<GerritEvent> events) {
+            if (line.trim().isEmpty() || (mFilter != null && !mFilter.accept(line))) {
+                return;
+            }
+            GerritEvent event;
+            try {
+                event = GerritEvent.parse(line);
+            } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+                Log.w(TAG, "Malformed gerrit event: " + line);
+                return;
+            } catch (IOException e) {
+                return;
+            }
+            String key = key(event);
+            if (mReplaying && event.eventCreatedOn > 0) {
+                if (event.eventCreatedOn >= mConnectedAt / 1000) {
+                    // Caught up with live events, which may arrive in any order
+                    mReplaying = false;
+                } else if (event.eventCreatedOn < mReplayFrom || (event.eventCreatedOn == mLastEvent && mLastEventKeys.contains(key))) {
+                    // Replayed event which was already seen before the stream dropped
+                    return;
+                }
+            }
+            if (event.eventCreatedOn > mLastEvent) {
+                mLastEvent = event.eventCreatedOn;
+                mLastEventKeys.clear();
+            }
+            if (event.eventCreatedOn == mLastEvent) {
+                mLastEventKeys.add(key);
+            }
+            events.add(event);
+        }
+
+        private String key(GerritEvent event) {
+            return event.type + " " + (event.change != null ? event.change.id : null) + " " +
+                    (event.patchSet != null ? event.patchSet.number : 0) + " " + event.eventCreatedOn;
+        }
+    }
+
+    private interface Connection {
+        /**
+         * @return Bytes read, 0 if none are available yet or -1 at the end of the stream.
+         */
+        int read(byte[] buffer) throws IOException;
+
+        void close();
+    }
+
+    private class SSHConnection implements Connection {
+        private final Session mSession;
+        private final ChannelExec mChannel;
+        private final InputStream mInput;
+
+        SSHConnection(String host, String command) throws JSchException, IOException {
+            int port = DEFAULT_PORT;
+            int colon = host.lastIndexOf(':');
+            if (colon != -1) {
+                port = Integer.parseInt(host.substring(colon + 1));
+                host = host.substring(0, colon);
+            }
+            mSession = mSSH.getSession(mUser, host, port);
+            mSession.setServerAliveInterval(SERVER_ALIVE_INTERVAL);
+            mSession.connect(CONNECT_TIMEOUT);
+            try {
+                mChannel = (ChannelExec) mSession.openChannel("exec");
+                mChannel.setCommand(command);
+                mChannel.setInputStream(null);
+                mInput = mChannel.getInputStream();
+                mChannel.connect(CONNECT_TIMEOUT);
+            } catch (JSchException | IOException e) {
+                mSession.disconnect();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer) throws IOException {
+            int available = mInput.available();
+            if (available > 0) {
+                return mInput.read(buffer, 0, Math.min(available, buffer.length));
+            }
+            return mChannel.isClosed() || !mSession.isConnected() ? -1 : 0;
+        }
+
+        @Override
+        public void close() {
+            mChannel.disconnect();
+            mSession.disconnect();
+        }
+    }
+
+    private static class SocketConnection implements Connection {
+        private final SocketChannel mChannel;
+
+        SocketConnection(String address, String command) throws IOException {
+            int colon = address.lastIndexOf(':');
+            if (colon == -1) {
+                throw new IOException("Missing port in " + address);
+            }
+            mChannel = SocketChannel.open();
+            try {
+                mChannel.socket().connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))), CONNECT_TIMEOUT);
+                // The command is sent as the first line so a fake server can tell resumes apart
+                mChannel.write(ByteBuffer.wrap((command + "\n").getBytes(StandardCharsets.UTF_8)));
+                mChannel.configureBlocking(false);
+            } catch (IOException | RuntimeException e) {
+                mChannel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer) throws IOException {
+            return mChannel.read(ByteBuffer.wrap(buffer));
+        }
+
+        @Override
+        public void close() {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
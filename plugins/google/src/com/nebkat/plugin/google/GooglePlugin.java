@@ -46,6 +46,7 @@ public class GooglePlugin extends Plugin {
     private static final String GOOGLE = "http://ajax.googleapis.com/ajax/services/search/web?v=1.0&q=%1$s";
     private static final String TRANSLATE = "https://translate.google.com/translate_a/t?client=t&hl=en&multires=1&sc=1&sl=%1$s&ssel=0&tl=%2$s&tsel=0&uptl=en&text=%3$s";
     private static final String TTS = "http://translate.google.com/translate_tts?ie=UTF-8&q=%1$s&tl=%2$s";
+    private static final long SEARCH_CACHE_TTL = 60 * 60 * 1000;
 
     private final Gson mGson = new Gson();
 
@@ -63,7 +64,7 @@ public class GooglePlugin extends Plugin {
 
             // Execute the request
             HttpContext context = new BasicHttpContext();
-            HttpResponse response = ConnectionManager.getHttpClient().execute(get, context);
+            HttpResponse response = ConnectionManager.getHttpCache().execute(get, context, SEARCH_CACHE_TTL);
 
             if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
                 get.abort();
@@ -74,21 +75,21 @@ public class GooglePlugin extends Plugin {
             GoogleSearch search = mGson.fromJson(reader, GoogleSearch.class);
 
             if (!search.responseStatus.equals("200")) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error searching");
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error searching");
                 return;
             }
 
             if (search.responseData.results.size() <= 0) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No results found for that query");
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No results found for that query");
                 return;
             }
 
             String title = search.responseData.results.get(0).titleNoFormatting;
             String link = search.responseData.results.get(0).unescapedUrl;
 
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + Irc.TEXT_BOLD + title + Irc.TEXT_RESET + ": " + link);
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + Irc.TEXT_BOLD + title + Irc.TEXT_RESET + ": " + link);
         } catch (Exception ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error searching");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error searching");
             ex.printStackTrace();
         }
     }
@@ -102,7 +103,7 @@ public class GooglePlugin extends Plugin {
         }
         String lang = e.getParams()[0];
         String message = e.getRawParams().substring(lang.length()).trim().replace(" ", "%20");
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + String.format(TTS, message, lang));
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + String.format(TTS, message, lang));
     }
 
     @EventHandler
@@ -130,9 +131,9 @@ public class GooglePlugin extends Plugin {
             BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
             LinkedHashMap translate = mGson.fromJson(reader, LinkedHashMap.class);
 
-            //Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + BBQIRC.TEXT_BOLD + title + BBQIRC.TEXT_RESET + ": " + link);
+            //getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + BBQIRC.TEXT_BOLD + title + BBQIRC.TEXT_RESET + ": " + link);
         } catch (Exception ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error translating");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error translating");
             Log.e("GooglePlugin", ex);
         }
     }
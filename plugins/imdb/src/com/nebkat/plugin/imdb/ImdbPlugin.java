@@ -31,7 +31,6 @@ import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.http.ConnectionManager;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 
 import java.io.BufferedReader;
@@ -44,6 +43,7 @@ import java.util.regex.Pattern;
 public class ImdbPlugin extends Plugin {
 
     private static final String IMDB_API_URL = "http://imdbapi.org/?title=%1$s&type=json&yg=%2$d&year=%3$d";
+    private static final long CACHE_TTL = 24 * 60 * 60 * 1000;
     private static final Pattern YEAR_MATCHER = Pattern.compile("\\(((19|20)\\d{2})\\)");
 
     @EventHandler
@@ -63,16 +63,16 @@ public class ImdbPlugin extends Plugin {
         HttpGet get = new HttpGet(String.format(IMDB_API_URL, e.getRawParams().replaceAll(" ", "%20"), year > -1 ? 1 : 0, year));
         HttpResponse response;
         try {
-            response = ConnectionManager.getHttpClient().execute(get);
+            response = ConnectionManager.getHttpCache().execute(get, CACHE_TTL);
         } catch (IOException ex) {
             get.abort();
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching movie data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching movie data");
             return;
         }
 
         if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
             get.abort();
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching movie data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching movie data");
             return;
         }
 
@@ -81,19 +81,19 @@ public class ImdbPlugin extends Plugin {
             List<Movie> list = new Gson().fromJson(reader, new TypeToken<List<Movie>>(){}.getType());
             movie = list.get(0);
         } catch (IOException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching movie data");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching movie data");
             return;
         } catch (JsonParseException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Movie not found");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Movie not found");
             return;
         }
 
         if (movie == null) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Movie not found");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Movie not found");
             return;
         }
 
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + movie.imdb_url + ": " + movie.title + " (" + movie.year + ")" + (movie.directors != null && movie.directors.size() > 0 ? (" by " + movie.directors.get(0)) : "") + " rated " + movie.rating + "/10");
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + movie.imdb_url + ": " + movie.title + " (" + movie.year + ")" + (movie.directors != null && movie.directors.size() > 0 ? (" by " + movie.directors.get(0)) : "") + " rated " + movie.rating + "/10");
     }
 
     @Override
@@ -19,48 +19,195 @@
 
 package com.nebkat.plugin.js;
 
+import jdk.nashorn.api.scripting.ClassFilter;
 import jdk.nashorn.api.scripting.NashornScriptEngine;
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import com.nebkat.junglist.bot.command.Command;
 import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
+import com.nebkat.junglist.bot.scheduler.Scheduler;
 import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.utils.Utils;
 
 import javax.script.Bindings;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
-import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class JSPlugin extends Plugin<JSPlugin.Config> {
     private static final String TAG = "JSPlugin";
 
-    private NashornScriptEngine mEngine;
+    private static final int DEFAULT_ENGINES = 2;
+    private static final int DEFAULT_CACHE_SIZE = 64;
+    private static final long DEFAULT_TIMEOUT = 5000;
+    private static final int DEFAULT_MAX_OUTPUT = 400;
+    private static final int QUEUE_SIZE = 16;
+    // Time a worker gets to react to being interrupted before it is retired
+    private static final long STOP_GRACE = 1000;
+    private static final int MAX_RETIRED = 4;
+    // Global checked by instrumented scripts at the start of every function and loop iteration
+    private static final String GUARD = "__interrupt";
+    // Run before any other script, code built at run time is instrumented too and the guard cannot be replaced
+    private static final String LOCKDOWN =
+            "(function (global, guard) {\n" +
+            "    var evaluate = global.eval;\n" +
+            "    var construct = Function;\n" +
+            "    var applyConstruct = Function.prototype.apply.bind(construct);\n" +
+            "    var toArray = Function.prototype.call.bind(Array.prototype.slice);\n" +
+            "    var safeEval = function (source) {\n" +
+            "        return typeof source === 'string' ? evaluate(guard.instrument(source)) : source;\n" +
+            "    };\n" +
+            "    var safeFunction = function () {\n" +
+            "        var args = toArray(arguments);\n" +
+            "        if (args.length > 0) {\n" +
+            "            args[args.length - 1] = guard.instrument('' + args[args.length - 1]);\n" +
+            "        }\n" +
+            "        return applyConstruct(null, args);\n" +
+            "    };\n" +
+            "    var refuse = function () {\n" +
+            "        throw new Error('Loading scripts is not available');\n" +
+            "    };\n" +
+            "    var lock = function (object, name, value) {\n" +
+            "        Object.defineProperty(object, name, {value: value, writable: false, configurable: false});\n" +
+            "    };\n" +
+            "    safeFunction.prototype = construct.prototype;\n" +
+            "    lock(global, 'eval', safeEval);\n" +
+            "    lock(global, 'Function', safeFunction);\n" +
+            "    lock(construct.prototype, 'constructor', safeFunction);\n" +
+            "    lock(global, 'load', refuse);\n" +
+            "    lock(global, 'loadWithNewGlobal', refuse);\n" +
+            "    lock(global, '" + GUARD + "', guard);\n" +
+            "})(this, " + GUARD + ");";
+
+    private ThreadPoolExecutor mExecutor;
+    private final Set<Evaluation> mRunning = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger mRetired = new AtomicInteger();
+    private final ThreadLocal<Worker> mWorkers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
 
     @EventHandler
     @CommandFilter("js")
     public void onJSCommand(CommandEvent e) {
-        mEngine.put("event", e);
+        ThreadPoolExecutor executor = mExecutor;
+        if (executor == null) {
+            return;
+        }
+        Evaluation evaluation = new Evaluation(e);
         try {
-            Object result = mEngine.eval(e.getRawParams());
-            Irc.message(e.getSession(), e.getTarget(), result != null ? result.toString() : "null");
-        } catch (Exception ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error evaluating expression: " + ex.getMessage());
+            executor.execute(evaluation);
+        } catch (RejectedExecutionException ex) {
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Too many expressions being evaluated, try again later");
+            return;
+        }
+        long timeout = mConfig.timeout > 0 ? mConfig.timeout : DEFAULT_TIMEOUT;
+        evaluation.mTimeout = getScheduler().schedule(() -> timeout(evaluation), timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void timeout(Evaluation evaluation) {
+        if (!evaluation.finish()) {
+            return;
+        }
+        CommandEvent e = evaluation.mEvent;
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Evaluation timed out");
+        Thread thread;
+        synchronized (evaluation) {
+            thread = evaluation.mThread;
+            if (thread == null) {
+                // Still queued
+                ThreadPoolExecutor executor = mExecutor;
+                if (executor != null) {
+                    executor.remove(evaluation);
+                }
+                return;
+            }
+            thread.interrupt();
         }
+        getScheduler().schedule(() -> retire(evaluation, thread), STOP_GRACE, TimeUnit.MILLISECONDS);
     }
 
-    private void loadPlugins(File directory) {
+    /**
+     * Gives up on an evaluation stuck outside of script code, such as in a blocking call that ignores interrupts.
+     * Threads cannot be stopped safely, so the stuck one is left to finish at the lowest priority while an extra
+     * worker with a fresh engine takes its place.
+     */
+    private void retire(Evaluation evaluation, Thread thread) {
+        ThreadPoolExecutor executor;
+        synchronized (evaluation) {
+            executor = mExecutor;
+            if (evaluation.mThread != thread || evaluation.mRetiredFrom != null || executor == null) {
+                return;
+            }
+            if (mRetired.incrementAndGet() > MAX_RETIRED) {
+                mRetired.decrementAndGet();
+                Log.e(TAG, "Evaluation is stuck and too many workers are retired already: " + evaluation.mEvent.getRawParams());
+                return;
+            }
+            evaluation.mRetiredFrom = executor;
+        }
+        Log.w(TAG, "Retiring stuck evaluation: " + evaluation.mEvent.getRawParams());
+        thread.setPriority(Thread.MIN_PRIORITY);
+        resize(executor, 1);
+    }
+
+    private static void resize(ThreadPoolExecutor executor, int delta) {
+        synchronized (executor) {
+            // The maximum may never be below the core size
+            if (delta > 0) {
+                executor.setMaximumPoolSize(executor.getMaximumPoolSize() + delta);
+                executor.setCorePoolSize(executor.getCorePoolSize() + delta);
+            } else {
+                executor.setCorePoolSize(executor.getCorePoolSize() + delta);
+                executor.setMaximumPoolSize(executor.getMaximumPoolSize() + delta);
+            }
+        }
+    }
+
+    private String format(String printed, Object result, boolean truncated) {
+        String output = printed.trim();
+        if (output.isEmpty() || result != null) {
+            output += (output.isEmpty() ? "" : " ") + result;
+        }
+        // Never let a script put raw lines on the connection
+        output = output.replaceAll("[\r\n]+", " ");
+        int maxOutput = mConfig.maxOutput > 0 ? mConfig.maxOutput : DEFAULT_MAX_OUTPUT;
+        if (truncated || output.length() > maxOutput) {
+            output = output.substring(0, Math.min(output.length(), maxOutput)) + "...";
+        }
+        return output;
+    }
+
+    private void loadPlugins(NashornScriptEngine engine, File directory) {
         if (directory == null || !directory.isDirectory()) {
             return;
         }
 
         Utils.forEach(directory.listFiles(file -> file.isFile() && file.getName().toLowerCase().endsWith(".js")), (file) -> {
             try {
-                mEngine.eval(new FileReader(file));
+                String source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                engine.eval(ScriptInstrumenter.instrument(source, GUARD));
             } catch (Exception e) {
                 Log.e(TAG, "Error loading plugin", e);
             }
@@ -69,22 +216,232 @@ public class JSPlugin extends Plugin<JSPlugin.Config> {
 
     @Override
     public void onCreate() {
-        mEngine = (NashornScriptEngine) new ScriptEngineManager().getEngineByName("nashorn");
+        getBot().getCommandManager().registerCommand(new Command("js", this, "Evaluates a javascript expression", "<expression>", UserLevel.OWNER, false, "javascript"));
+        saveConfig();
+    }
+
+    @Override
+    public void onEnable() {
+        int engines = mConfig.engines > 0 ? mConfig.engines : DEFAULT_ENGINES;
+        AtomicInteger count = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(engines, engines, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), (runnable) -> {
+            Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
-        Bindings bindings = mEngine.getBindings(ScriptContext.ENGINE_SCOPE);
-        bindings.put("bot", getBot());
-        bindings.put("irc", getIrc());
-        bindings.put("plugin", this);
+    @Override
+    public void onDisable() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            try {
+                if (!mExecutor.awaitTermination(STOP_GRACE, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, mRunning.size() + " evaluations did not stop, leaving them at the lowest priority");
+                    mRunning.forEach((evaluation) -> {
+                        Thread thread = evaluation.mThread;
+                        if (thread != null) {
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                        }
+                    });
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mExecutor = null;
+        }
+    }
 
-        loadPlugins(new File(getConfig().plugins));
+    /**
+     * Engine owned by a single worker thread, along with the scripts it compiled.
+     */
+    private class Worker {
+        private final NashornScriptEngine mEngine;
+        private final Map<String, CompiledScript> mScripts;
 
-        getBot().getCommandManager().registerCommand(new Command("js", this, "Evaluates a javascript expression", "<expression>", UserLevel.OWNER, false, "javascript"));
-        saveConfig();
+        Worker() {
+            List<String> classes = mConfig.classes;
+            mEngine = (NashornScriptEngine) new NashornScriptEngineFactory().getScriptEngine((ClassFilter) (name) -> isExposed(classes, name));
+
+            Bindings bindings = mEngine.getBindings(ScriptContext.ENGINE_SCOPE);
+            bindings.put("bot", getBot());
+            bindings.put("irc", getIrc());
+            bindings.put("plugin", JSPlugin.this);
+            bindings.put(GUARD, new Interrupt());
+            try {
+                mEngine.eval(LOCKDOWN);
+            } catch (ScriptException e) {
+                throw new IllegalStateException("Could not set up script engine", e);
+            }
+
+            loadPlugins(mEngine, new File(getConfig().plugins));
+
+            int cacheSize = mConfig.cacheSize > 0 ? mConfig.cacheSize : DEFAULT_CACHE_SIZE;
+            mScripts = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+
+        Object eval(CommandEvent e, Writer writer) throws ScriptException {
+            String source = e.getRawParams();
+            CompiledScript script = mScripts.get(source);
+            if (script == null) {
+                script = mEngine.compile(ScriptInstrumenter.instrument(source, GUARD));
+                mScripts.put(source, script);
+            }
+            mEngine.put("event", e);
+            mEngine.getContext().setWriter(writer);
+            return script.eval();
+        }
     }
 
+    private class Evaluation implements Runnable {
+        private final CommandEvent mEvent;
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+        private volatile Thread mThread;
+        private volatile Scheduler.Task mTimeout;
+        // Executor that got an extra worker in place of this evaluation's, guarded by this
+        private ThreadPoolExecutor mRetiredFrom;
+
+        Evaluation(CommandEvent event) {
+            mEvent = event;
+        }
+
+        /**
+         * @return True if the evaluation was not finished before, only the caller that finishes it replies.
+         */
+        boolean finish() {
+            return mFinished.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (mFinished.get()) {
+                    return;
+                }
+                mThread = Thread.currentThread();
+            }
+            mRunning.add(this);
+            // Left over from an evaluation that was interrupted just as it completed
+            Thread.interrupted();
+            String reply;
+            int maxOutput = mConfig.maxOutput > 0 ? mConfig.maxOutput : DEFAULT_MAX_OUTPUT;
+            LimitedWriter writer = new LimitedWriter(maxOutput);
+            try {
+                Object result = mWorkers.get().eval(mEvent, writer);
+                reply = format(writer.toString(), result, writer.isTruncated());
+            } catch (Exception ex) {
+                reply = mEvent.getSource().getNick() + ": Error evaluating expression: " + String.valueOf(ex.getMessage()).replaceAll("[\r\n]+", " ");
+            } finally {
+                ThreadPoolExecutor retiredFrom;
+                synchronized (this) {
+                    mThread = null;
+                    retiredFrom = mRetiredFrom;
+                }
+                mRunning.remove(this);
+                if (retiredFrom != null) {
+                    // The engine may have been left in any state, the thread gets a fresh one if it is kept
+                    mWorkers.remove();
+                    Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+                    mRetired.decrementAndGet();
+                    resize(retiredFrom, -1);
+                }
+            }
+            Scheduler.Task timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (finish()) {
+                getOutput().message(mEvent.getSession(), mEvent.getTarget(), reply);
+            }
+        }
+    }
+
+    /**
+     * Ends an evaluation whose thread was interrupted. The flag is left set so scripts that catch the exception are
+     * stopped again at their next check.
+     */
+    public static class Interrupt {
+        public boolean check() {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Evaluation interrupted");
+            }
+            return true;
+        }
 
+        /**
+         * Instruments code built at run time, for eval and the Function constructor.
+         */
+        public String instrument(String source) {
+            return ScriptInstrumenter.instrument(source, GUARD);
+        }
+    }
+
+    /**
+     * @param classes Class names, {@code package.*} for a whole package or {@code *} for every class.
+     */
+    private static boolean isExposed(List<String> classes, String name) {
+        if (classes == null) {
+            return false;
+        }
+        for (String pattern : classes) {
+            if (pattern.equals("*") || pattern.equals(name) ||
+                    (pattern.endsWith(".*") && name.startsWith(pattern.substring(0, pattern.length() - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects printed output, dropping anything past a limit.
+     */
+    private static class LimitedWriter extends Writer {
+        private final StringBuilder mBuilder = new StringBuilder();
+        private final int mLimit;
+        private boolean mTruncated;
+
+        LimitedWriter(int limit) {
+            mLimit = limit;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            int remaining = mLimit - mBuilder.length();
+            if (length > remaining) {
+                mTruncated = true;
+                length = Math.max(0, remaining);
+            }
+            mBuilder.append(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+
+        boolean isTruncated() {
+            return mTruncated;
+        }
+
+        @Override
+        public String toString() {
+            return mBuilder.toString();
+        }
+    }
 
     public class Config {
         public String plugins;
+        public int engines;
+        public int cacheSize;
+        public long timeout;
+        public int maxOutput;
+        // Classes scripts may use, see isExposed
+        public List<String> classes;
     }
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.js;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Rewrites scripts so they check for interruption at the start of every function and on every loop iteration.
+ *
+ * Loop conditions become {@code guard.check() && (condition)} and function bodies start with {@code guard.check();},
+ * the guard being a global whose check throws once the thread is interrupted and is true otherwise. The script's own
+ * uses of the guard name are renamed, so it cannot shadow or replace the guard, and {@code with} statements are
+ * refused as they could. Insertions never add lines, so line numbers in errors stay the same. Strings, comments and
+ * regular expression literals are skipped.
+ */
+class ScriptInstrumenter {
+    // Keywords after which a slash starts a regular expression rather than a division
+    private static final Set<String> REGEX_PREFIXES = new HashSet<>(Arrays.asList(
+            "return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do", "else"));
+
+    private final String mSource;
+    private final String mGuard;
+    private final String mCheck;
+    private final List<Token> mTokens = new ArrayList<>();
+    private final TreeMap<Integer, StringBuilder> mInsertions = new TreeMap<>();
+
+    private ScriptInstrumenter(String source, String guard) {
+        mSource = source;
+        mGuard = guard;
+        mCheck = guard + ".check()";
+    }
+
+    /**
+     * @param guard Name of the global whose {@code check()} throws if the thread was interrupted, and is true otherwise.
+     * @throws IllegalArgumentException If the script uses a {@code with} statement.
+     */
+    static String instrument(String source, String guard) {
+        ScriptInstrumenter instrumenter = new ScriptInstrumenter(source, guard);
+        instrumenter.tokenize();
+        instrumenter.rewrite();
+        return instrumenter.apply();
+    }
+
+    private void tokenize() {
+        int length = mSource.length();
+        int i = 0;
+        while (i < length) {
+            char c = mSource.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (mSource.startsWith("//", i)) {
+                while (i < length && mSource.charAt(i) != '\n' && mSource.charAt(i) != '\r') {
+                    i++;
+                }
+            } else if (mSource.startsWith("/*", i)) {
+                int end = mSource.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+            } else if (c == '"' || c == '\'' || c == '`') {
+                int start = i++;
+                while (i < length && mSource.charAt(i) != c) {
+                    i += mSource.charAt(i) == '\\' ? 2 : 1;
+                }
+                i = Math.min(length, i + 1);
+                mTokens.add(new Token(Token.LITERAL, start, i));
+            } else if (c == '/' && regexAllowed()) {
+                int start = i++;
+                boolean inClass = false;
+                while (i < length && (inClass || mSource.charAt(i) != '/') && mSource.charAt(i) != '\n') {
+                    char r = mSource.charAt(i);
+                    if (r == '\\') {
+                        i++;
+                    } else if (r == '[') {
+                        inClass = true;
+                    } else if (r == ']') {
+                        inClass = false;
+                    }
+                    i++;
+                }
+                i = Math.min(length, i + 1);
+                while (i < length && Character.isJavaIdentifierPart(mSource.charAt(i))) {
+                    i++;
+                }
+                mTokens.add(new Token(Token.LITERAL, start, i));
+            } else if (Character.isJavaIdentifierStart(c) || Character.isDigit(c)) {
+                int start = i++;
+                while (i < length && (Character.isJavaIdentifierPart(mSource.charAt(i)) || mSource.charAt(i) == '.' && Character.isDigit(c))) {
+                    i++;
+                }
+                mTokens.add(new Token(Character.isDigit(c) ? Token.LITERAL : Token.WORD, start, i));
+            } else {
+                mTokens.add(new Token(Token.PUNCTUATOR, i, ++i));
+            }
+        }
+    }
+
+    private boolean regexAllowed() {
+        if (mTokens.isEmpty()) {
+            return true;
+        }
+        Token previous = mTokens.get(mTokens.size() - 1);
+        if (previous.mType == Token.WORD) {
+            return REGEX_PREFIXES.contains(text(previous));
+        }
+        if (previous.mType == Token.LITERAL) {
+            return false;
+        }
+        char c = mSource.charAt(previous.mStart);
+        return c != ')' && c != ']';
+    }
+
+    private void rewrite() {
+        for (int i = 0; i < mTokens.size(); i++) {
+            Token token = mTokens.get(i);
+            if (token.mType != Token.WORD) {
+                continue;
+            }
+            String word = text(token);
+            if (word.equals(mGuard)) {
+                insert(token.mEnd, "$");
+                continue;
+            }
+            if (i > 0 && is(i - 1, ".")) {
+                continue;
+            }
+            if (word.equals("with") && is(i + 1, "(")) {
+                throw new IllegalArgumentException("with statements are not supported");
+            } else if (word.equals("function")) {
+                int open = is(i + 1, "(") ? i + 1 : i + 2;
+                int close = is(open, "(") ? matching(open) : -1;
+                if (close != -1 && is(close + 1, "{")) {
+                    insert(mTokens.get(close + 1).mEnd, mCheck + ";");
+                }
+            } else if (word.equals("while") && is(i + 1, "(")) {
+                int close = matching(i + 1);
+                if (close != -1) {
+                    wrap(i + 1, close);
+                }
+            } else if (word.equals("for")) {
+                int open = is(i + 1, "each") ? i + 2 : i + 1;
+                int close = is(open, "(") ? matching(open) : -1;
+                if (close != -1) {
+                    rewriteFor(open, close);
+                }
+            }
+        }
+    }
+
+    private void rewriteFor(int open, int close) {
+        int first = -1;
+        int second = -1;
+        int depth = 0;
+        for (int i = open + 1; i < close; i++) {
+            if (is(i, "(") || is(i, "[") || is(i, "{")) {
+                depth++;
+            } else if (is(i, ")") || is(i, "]") || is(i, "}")) {
+                depth--;
+            } else if (depth == 0 && is(i, ";")) {
+                if (first == -1) {
+                    first = i;
+                } else {
+                    second = i;
+                    break;
+                }
+            }
+        }
+        if (second != -1) {
+            if (second == first + 1) {
+                insert(mTokens.get(first).mEnd, mCheck);
+            } else {
+                wrap(first, second);
+            }
+        } else if (is(close + 1, "{")) {
+            // for-in loops have no condition, they are checked at the start of the body instead
+            insert(mTokens.get(close + 1).mEnd, mCheck + ";");
+        }
+    }
+
+    /**
+     * Prefixes the expression between two tokens with the check.
+     */
+    private void wrap(int before, int after) {
+        insert(mTokens.get(before).mEnd, mCheck + " && (");
+        insert(mTokens.get(after).mStart, ")");
+    }
+
+    /**
+     * @return Index of the bracket closing the one at the given index, or -1.
+     */
+    private int matching(int open) {
+        int depth = 0;
+        for (int i = open; i < mTokens.size(); i++) {
+            if (is(i, "(") || is(i, "[") || is(i, "{")) {
+                depth++;
+            } else if ((is(i, ")") || is(i, "]") || is(i, "}")) && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean is(int index, String text) {
+        if (index < 0 || index >= mTokens.size()) {
+            return false;
+        }
+        Token token = mTokens.get(index);
+        return token.mType != Token.LITERAL && token.mEnd - token.mStart == text.length() && mSource.startsWith(text, token.mStart);
+    }
+
+    private String text(Token token) {
+        return mSource.substring(token.mStart, token.mEnd);
+    }
+
+    private void insert(int position, String text) {
+        mInsertions.computeIfAbsent(position, (p) -> new StringBuilder()).append(text);
+    }
+
+    private String apply() {
+        StringBuilder result = new StringBuilder(mSource.length() + mInsertions.size() * mCheck.length());
+        int position = 0;
+        for (Map.Entry<Integer, StringBuilder> insertion : mInsertions.entrySet()) {
+            result.append(mSource, position, insertion.getKey()).append(insertion.getValue());
+            position = insertion.getKey();
+        }
+        return result.append(mSource, position, mSource.length()).toString();
+    }
+
+    private static class Token {
+        static final int WORD = 0;
+        static final int PUNCTUATOR = 1;
+        static final int LITERAL = 2;
+
+        final int mType;
+        final int mStart;
+        final int mEnd;
+
+        Token(int type, int start, int end) {
+            mType = type;
+            mStart = start;
+            mEnd = end;
+        }
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.plugin.log;
+
+import com.nebkat.junglist.irc.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Searchable index over the channel messages of one server.
+ *
+ * Messages are grouped into one segment per day. Each segment keeps an inverted index from terms, nicks and channels
+ * to message ids, so queries only touch the postings of the keys they ask for and the messages they return. The live
+ * segment is kept in memory and persisted periodically, closed segments only keep their term dictionary in memory.
+ * The index can always be rebuilt from the raw log files.
+ */
+class LogIndex {
+    private static final String TAG = "LogIndex";
+
+    private static final int MAGIC = 0x4c4f4749;
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int PERSIST_INTERVAL = 1000;
+
+    private static final String NICK_PREFIX = "\u0001";
+    private static final String CHANNEL_PREFIX = "\u0002";
+
+    private final File mDirectory;
+    private final File mLogDirectory;
+    private final String mServer;
+
+    private final List<FileSegment> mSegments = new ArrayList<>();
+    private MemorySegment mLive;
+    private int mUnpersisted;
+
+    // Newest line read back from the raw logs, lines queued before the catch up are skipped when they arrive
+    private long mIngestedTime;
+    private final Set<String> mIngestedLines = new HashSet<>();
+
+    LogIndex(File directory, File logDirectory, String server) throws IOException {
+        mDirectory = directory;
+        mLogDirectory = logDirectory;
+        mServer = server;
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+        load();
+    }
+
+    private void load() throws IOException {
+        openSegments();
+
+        // Catch up with lines that were logged but not indexed before the last shutdown
+        long checkpoint = 0;
+        String from = null;
+        if (mLive != null) {
+            checkpoint = mLive.mLastTime;
+            from = mLive.mDate;
+        }
+        ingestLogs(from, checkpoint);
+    }
+
+    private void openSegments() throws IOException {
+        mSegments.clear();
+        mLive = null;
+        mUnpersisted = 0;
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                mSegments.add(new FileSegment(file));
+            } catch (IOException e) {
+                Log.e(TAG, "Dropping unreadable index segment " + file.getName(), e);
+                file.delete();
+            }
+        }
+        if (!mSegments.isEmpty()) {
+            mLive = new MemorySegment(mSegments.remove(mSegments.size() - 1));
+        }
+    }
+
+    /**
+     * Indexes a raw protocol line, only channel messages are indexed.
+     */
+    synchronized void add(long time, String data) throws IOException {
+        if (time < mIngestedTime || (time == mIngestedTime && mIngestedLines.contains(data))) {
+            return;
+        }
+        index(time, data);
+    }
+
+    /**
+     * Indexes the lines logged from a time on that were not indexed yet, after lines were skipped.
+     */
+    synchronized void catchUp(long from) throws IOException {
+        ingestLogs(date(from), from - 1);
+    }
+
+    private void index(long time, String data) throws IOException {
+        // Lines are indexed in order, everything older than the newest indexed line is already in the index
+        if (time > mIngestedTime) {
+            mIngestedTime = time;
+            mIngestedLines.clear();
+        }
+        if (time == mIngestedTime) {
+            mIngestedLines.add(data);
+        }
+
+        Message message = Message.parse(time, data);
+        if (message == null) {
+            return;
+        }
+        String date = date(time);
+        if (mLive != null && !mLive.mDate.equals(date)) {
+            mSegments.add(persist(mLive));
+            mLive = null;
+        }
+        if (mLive == null) {
+            mLive = new MemorySegment(date);
+        }
+        mLive.add(message);
+
+        if (++mUnpersisted >= PERSIST_INTERVAL) {
+            persist(mLive);
+        }
+    }
+
+    synchronized void flush() throws IOException {
+        if (mLive != null && mUnpersisted > 0) {
+            persist(mLive);
+        }
+    }
+
+    /**
+     * Indexes every raw log file of the server again and replaces the index with the result. The new index is built
+     * in a separate directory, searches keep using the current one until it is swapped in.
+     */
+    void rebuild() throws IOException {
+        File directory = new File(mDirectory, "rebuild");
+        deleteSegments(directory);
+        LogIndex rebuilt = new LogIndex(directory, mLogDirectory, mServer);
+        rebuilt.flush();
+
+        synchronized (this) {
+            deleteSegments(mDirectory);
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+            for (File file : files) {
+                Files.move(file.toPath(), new File(mDirectory, file.getName()).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            openSegments();
+            mIngestedTime = rebuilt.mIngestedTime;
+            mIngestedLines.clear();
+            mIngestedLines.addAll(rebuilt.mIngestedLines);
+        }
+        if (!directory.delete()) {
+            Log.w(TAG, "Could not delete " + directory);
+        }
+    }
+
+    private static void deleteSegments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION) || name.endsWith(SEGMENT_EXTENSION + ".tmp"));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Finds the most recent messages in a channel, newest first.
+     *
+     * @param channel Channel to search.
+     * @param nick Nick that sent the message, or null for any.
+     * @param text Text the message must contain, or null for any.
+     * @param limit Maximum number of results.
+     */
+    synchronized List<Message> search(String channel, String nick, String text, int limit) throws IOException {
+        List<String> keys = new ArrayList<>();
+        keys.add(CHANNEL_PREFIX + channel.toLowerCase());
+        if (nick != null) {
+            keys.add(NICK_PREFIX + nick.toLowerCase());
+        }
+        if (text != null) {
+            keys.addAll(tokenize(text));
+        }
+        String needle = text != null ? text.toLowerCase() : null;
+
+        List<Message> results = new ArrayList<>();
+        List<Segment> segments = new ArrayList<>(mSegments);
+        if (mLive != null) {
+            segments.add(mLive);
+        }
+        for (int i = segments.size() - 1; i >= 0 && results.size() < limit; i--) {
+            Segment segment = segments.get(i);
+            int[] ids = null;
+            for (String key : keys) {
+                int[] postings = segment.postings(key);
+                ids = ids == null ? postings : intersect(ids, postings);
+                if (ids.length == 0) {
+                    break;
+                }
+            }
+            for (int j = ids.length - 1; j >= 0 && results.size() < limit; j--) {
+                Message message = segment.message(ids[j]);
+                if (needle == null || message.mText.toLowerCase().contains(needle)) {
+                    results.add(message);
+                }
+            }
+        }
+        return results;
+    }
+
+    private void ingestLogs(String from, long checkpoint) throws IOException {
+        // Rotated files are named <server>.<date>[.n][.gz], n counting up through the day, the live file comes last
+        List<File> ordered = new ArrayList<>();
+        String prefix = mServer + ".";
+        File[] logs = mLogDirectory.listFiles((dir, name) -> name.startsWith(prefix));
+        if (logs != null) {
+            for (File log : logs) {
+                String suffix = log.getName().substring(prefix.length());
+                if (suffix.length() >= 10 && rotation(suffix) >= 0 && (from == null || suffix.substring(0, 10).compareTo(from) >= 0)) {
+                    ordered.add(log);
+                }
+            }
+        }
+        ordered.sort((a, b) -> {
+            String first = a.getName().substring(prefix.length());
+            String second = b.getName().substring(prefix.length());
+            int compare = first.substring(0, 10).compareTo(second.substring(0, 10));
+            return compare != 0 ? compare : Integer.compare(rotation(first), rotation(second));
+        });
+        File live = new File(mLogDirectory, mServer);
+
+        if (live.exists()) {
+            ordered.add(live);
+        }
+        for (File file : ordered) {
+            try (InputStream in = file.getName().endsWith(".gz") ? new GZIPInputStream(new FileInputStream(file)) : new FileInputStream(file);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space <= 0) {
+                        continue;
+                    }
+                    long time;
+                    try {
+                        time = Long.parseLong(line.substring(0, space));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (time > checkpoint) {
+                        add(time, line.substring(space + 1));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Rotation number of a rotated file suffix, 0 for the first file of a day, or -1 if it is not one.
+     */
+    private static int rotation(String suffix) {
+        String rest = suffix.substring(10);
+        if (rest.endsWith(".gz")) {
+            rest = rest.substring(0, rest.length() - 3);
+        }
+        if (rest.isEmpty()) {
+            return 0;
+        }
+        try {
+            return rest.startsWith(".") ? Integer.parseInt(rest.substring(1)) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private FileSegment persist(MemorySegment segment) throws IOException {
+        File file = new File(mDirectory, segment.mDate + SEGMENT_EXTENSION);
+        File temp = new File(mDirectory, segment.mDate + SEGMENT_EXTENSION + ".tmp");
+        segment.write(temp);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mUnpersisted = 0;
+        return new FileSegment(file);
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start == -1) {
+                start = i;
+            } else if (!word && start != -1) {
+                if (i - start >= MIN_TERM_LENGTH) {
+                    String term = text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase();
+                    if (!terms.contains(term)) {
+                        terms.add(term);
+                    }
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[k++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, k);
+    }
+
+    private static String date(long time) {
+        return new SimpleDateFormat("yyyy-MM-dd").format(new Date(time));
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    static class Message {
+        final long mTime;
+        final String mChannel;
+        final String mNick;
+        final String mText;
+
+        private Message(long time, String channel, String nick, String text) {
+            mTime = time;
+            mChannel = channel;
+            mNick = nick;
+            mText = text;
+        }
+
+        /**
+         * Parses a raw ":nick!user@host PRIVMSG #channel :text" line.
+         *
+         * @return Parsed message, or null if the line is not a channel message.
+         */
+        static Message parse(long time, String data) {
+            if (!data.startsWith(":")) {
+                return null;
+            }
+            int prefixEnd = data.indexOf(' ');
+            if (prefixEnd == -1 || !data.startsWith("PRIVMSG ", prefixEnd + 1)) {
+                return null;
+            }
+            int targetStart = prefixEnd + 9;
+            int targetEnd = data.indexOf(' ', targetStart);
+            if (targetEnd == -1 || targetStart >= data.length() || (data.charAt(targetStart) != '#' && data.charAt(targetStart) != '&')) {
+                return null;
+            }
+            int nickEnd = data.indexOf('!');
+            String nick = data.substring(1, nickEnd != -1 && nickEnd < prefixEnd ? nickEnd : prefixEnd);
+            String text = data.substring(data.startsWith(" :", targetEnd) ? targetEnd + 2 : targetEnd + 1);
+            return new Message(time, data.substring(targetStart, targetEnd), nick, text);
+        }
+    }
+
+    private static abstract class Segment {
+        final String mDate;
+
+        private Segment(String date) {
+            mDate = date;
+        }
+
+        abstract int[] postings(String key) throws IOException;
+
+        abstract Message message(int id) throws IOException;
+    }
+
+    private static class MemorySegment extends Segment {
+        private final List<Message> mMessages = new ArrayList<>();
+        private final Map<String, int[]> mPostings = new HashMap<>();
+        private final Map<String, Integer> mPostingCounts = new HashMap<>();
+        private long mLastTime;
+
+        private MemorySegment(String date) {
+            super(date);
+        }
+
+        private MemorySegment(FileSegment segment) throws IOException {
+            super(segment.mDate);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.mFile)))) {
+                for (int i = 0; i < segment.mMessageOffsets.length; i++) {
+                    add(new Message(in.readLong(), in.readUTF(), in.readUTF(), in.readUTF()));
+                }
+            }
+        }
+
+        private void add(Message message) {
+            int id = mMessages.size();
+            mMessages.add(message);
+            mLastTime = Math.max(mLastTime, message.mTime);
+
+            addPosting(CHANNEL_PREFIX + message.mChannel.toLowerCase(), id);
+            addPosting(NICK_PREFIX + message.mNick.toLowerCase(), id);
+            for (String term : tokenize(message.mText)) {
+                addPosting(term, id);
+            }
+        }
+
+        private void addPosting(String key, int id) {
+            int[] postings = mPostings.get(key);
+            int count = mPostingCounts.getOrDefault(key, 0);
+            if (postings == null) {
+                postings = new int[4];
+            } else if (count == postings.length) {
+                postings = Arrays.copyOf(postings, count * 2);
+            }
+            postings[count] = id;
+            mPostings.put(key, postings);
+            mPostingCounts.put(key, count + 1);
+        }
+
+        @Override
+        int[] postings(String key) {
+            int[] postings = mPostings.get(key);
+            return postings != null ? Arrays.copyOf(postings, mPostingCounts.get(key)) : new int[0];
+        }
+
+        @Override
+        Message message(int id) {
+            return mMessages.get(id);
+        }
+
+        private void write(File file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                long[] messageOffsets = new long[mMessages.size()];
+                for (int i = 0; i < mMessages.size(); i++) {
+                    Message message = mMessages.get(i);
+                    messageOffsets[i] = out.size();
+                    out.writeLong(message.mTime);
+                    out.writeUTF(message.mChannel);
+                    out.writeUTF(message.mNick);
+                    out.writeUTF(message.mText);
+                }
+
+                TreeMap<String, int[]> sorted = new TreeMap<>(mPostings);
+                long[] postingOffsets = new long[sorted.size()];
+                int i = 0;
+                for (Map.Entry<String, int[]> entry : sorted.entrySet()) {
+                    postingOffsets[i++] = out.size();
+                    int previous = 0;
+                    int count = mPostingCounts.get(entry.getKey());
+                    for (int j = 0; j < count; j++) {
+                        writeVarInt(out, entry.getValue()[j] - previous);
+                        previous = entry.getValue()[j];
+                    }
+                }
+
+                long dictionaryOffset = out.size();
+                out.writeInt(sorted.size());
+                i = 0;
+                for (String key : sorted.keySet()) {
+                    out.writeUTF(key);
+                    out.writeLong(postingOffsets[i++]);
+                    out.writeInt(mPostingCounts.get(key));
+                }
+                out.writeInt(messageOffsets.length);
+                for (long offset : messageOffsets) {
+                    out.writeLong(offset);
+                }
+
+                out.writeLong(dictionaryOffset);
+                out.writeInt(MAGIC);
+            }
+        }
+    }
+
+    private static class FileSegment extends Segment {
+        private final File mFile;
+        private final String[] mKeys;
+        private final long[] mPostingOffsets;
+        private final int[] mPostingCounts;
+        private final long[] mMessageOffsets;
+
+        private FileSegment(File file) throws IOException {
+            super(file.getName().substring(0, file.getName().length() - SEGMENT_EXTENSION.length()));
+            mFile = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.seek(raf.length() - 12);
+                long dictionaryOffset = raf.readLong();
+                if (raf.readInt() != MAGIC) {
+                    throw new IOException("Invalid index segment");
+                }
+                raf.seek(dictionaryOffset);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD())));
+                int keys = in.readInt();
+                mKeys = new String[keys];
+                mPostingOffsets = new long[keys];
+                mPostingCounts = new int[keys];
+                for (int i = 0; i < keys; i++) {
+                    mKeys[i] = in.readUTF();
+                    mPostingOffsets[i] = in.readLong();
+                    mPostingCounts[i] = in.readInt();
+                }
+                mMessageOffsets = new long[in.readInt()];
+                for (int i = 0; i < mMessageOffsets.length; i++) {
+                    mMessageOffsets[i] = in.readLong();
+                }
+            }
+        }
+
+        @Override
+        int[] postings(String key) throws IOException {
+            int index = Arrays.binarySearch(mKeys, key);
+            if (index < 0) {
+                return new int[0];
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(mFile, "r")) {
+                raf.seek(mPostingOffsets[index]);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD())));
+                int[] postings = new int[mPostingCounts[index]];
+                int previous = 0;
+                for (int i = 0; i < postings.length; i++) {
+                    previous += readVarInt(in);
+                    postings[i] = previous;
+                }
+                return postings;
+            }
+        }
+
+        @Override
+        Message message(int id) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(mFile, "r")) {
+                raf.seek(mMessageOffsets[id]);
+                return new Message(raf.readLong(), raf.readUTF(), raf.readUTF(), raf.readUTF());
+            }
+        }
+    }
+}
@@ -19,56 +19,247 @@
 
 package com.nebkat.junglist.bot.plugin.log;
 
+import com.nebkat.junglist.bot.command.Command;
+import com.nebkat.junglist.bot.command.CommandEvent;
+import com.nebkat.junglist.bot.command.CommandFilter;
+import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
+import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.events.irc.IRCEvent;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
-import java.util.HashMap;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class LogPlugin extends Plugin {
-    private static final int FLUSH_INTERVAL = 20;
+public class LogPlugin extends Plugin<LogPlugin.Config> {
+    private static final String TAG = "LogPlugin";
 
-    private Map<String, Writer> mWriters = new HashMap<>();
-    private int mFlushCount = FLUSH_INTERVAL;
+    private static final int MAX_RESULTS = 3;
+    private static final int INDEX_QUEUE_SIZE = 8192;
+    private static final long CATCH_UP_FLUSH_TIMEOUT = 5000;
+
+    private LogWriter mWriter;
+    private ThreadPoolExecutor mIndexer;
+    private final Map<String, LogIndex> mIndexes = new ConcurrentHashMap<>();
+    // Time of the first line not indexed by server, while the indexer is behind
+    private final Map<String, Long> mBehind = new ConcurrentHashMap<>();
+    private final AtomicLong mSkipped = new AtomicLong();
 
     @EventHandler
     public void onEvent(IRCEvent e) {
+        if (mWriter != null) {
+            mWriter.write(e.getSession().getServer(), e.getTime(), e.getTime() + " " + e.getData() + "\n");
+        }
+        if (mIndexer != null) {
+            index(mIndexer, e.getSession().getServer(), e.getTime(), e.getData());
+        }
+    }
+
+    private void index(ThreadPoolExecutor indexer, String server, long time, String data) {
+        Long behind = mBehind.get(server);
+        if (behind != null) {
+            mSkipped.incrementAndGet();
+            // Skipped lines are read back from the log files once the queue has drained enough
+            if (indexer.getQueue().remainingCapacity() > INDEX_QUEUE_SIZE / 2) {
+                mBehind.remove(server);
+                try {
+                    indexer.execute(() -> catchUp(server, behind));
+                } catch (RejectedExecutionException ex) {
+                    mBehind.put(server, behind);
+                }
+            }
+            return;
+        }
         try {
-            if (!mWriters.containsKey(e.getSession().getServer())) {
-                File out = new File(getStorage(), e.getSession().getServer());
-                if (!out.exists() && !out.createNewFile()) {
-                    return;
+            indexer.execute(() -> {
+                try {
+                    getIndex(server).add(time, data);
+                } catch (IOException ex) {
+                    Log.e(TAG, "Could not index log line", ex);
                 }
-                mWriters.put(e.getSession().getServer(), new FileWriter(out, true));
+            });
+        } catch (RejectedExecutionException ex) {
+            // Indexing stops here rather than leaving holes, later lines are skipped until the indexer catches up
+            Log.w(TAG, "Log indexer is falling behind, skipping lines until it catches up");
+            mBehind.put(server, time);
+            mSkipped.incrementAndGet();
+        }
+    }
+
+    private void catchUp(String server, long from) {
+        try {
+            LogWriter writer = mWriter;
+            if (writer != null && !writer.flush(CATCH_UP_FLUSH_TIMEOUT)) {
+                Log.w(TAG, "Log writer did not flush in time, recent lines may be missing from the index");
             }
-            mWriters.get(e.getSession().getServer()).write(e.getTime() + " " + e.getData() + "\n");
-            mFlushCount--;
-            if (mFlushCount <= 0) {
-                mFlushCount = FLUSH_INTERVAL;
-                for (Writer writer : mWriters.values()) {
-                    writer.flush();
+            getIndex(server).catchUp(from);
+            Log.i(TAG, "Log indexer caught up after skipping " + mSkipped.getAndSet(0) + " lines");
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not catch up log index", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @EventHandler
+    @CommandFilter("grep")
+    public void onGrepCommand(CommandEvent e) {
+        if (e.getParams().length < 1) {
+            e.showUsage(getBot());
+            return;
+        }
+        search(e, null, e.getRawParams());
+    }
+
+    @EventHandler
+    @CommandFilter("lastsaid")
+    public void onLastSaidCommand(CommandEvent e) {
+        if (e.getParams().length < 1) {
+            e.showUsage(getBot());
+            return;
+        }
+        search(e, e.getParams()[0], e.getParams().length > 1 ? e.getRawParamsAfter(1) : null);
+    }
+
+    @EventHandler
+    @CommandFilter("logindex")
+    public void onLogIndexCommand(CommandEvent e) {
+        if (e.getParams().length < 1 || !e.getParams()[0].equals("rebuild") || mIndexer == null) {
+            e.showUsage(getBot());
+            return;
+        }
+        String server = e.getSession().getServer();
+        try {
+            mIndexer.execute(() -> {
+                try {
+                    getIndex(server).rebuild();
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": log index rebuilt");
+                } catch (IOException ex) {
+                    Log.e(TAG, "Could not rebuild log index", ex);
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": could not rebuild log index");
                 }
+            });
+        } catch (RejectedExecutionException ex) {
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": log indexer is busy, try again later");
+        }
+    }
+
+    private void search(CommandEvent e, String nick, String text) {
+        LogIndex index = mIndexes.get(e.getSession().getServer());
+        if (index == null) {
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": log index is not ready");
+            return;
+        }
+        if (text != null && LogIndex.tokenize(text).isEmpty()) {
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": search text too short");
+            return;
+        }
+
+        List<LogIndex.Message> messages;
+        try {
+            messages = index.search(e.getTarget().getName(), nick, text, MAX_RESULTS);
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not search log index", ex);
+            return;
+        }
+        if (messages.isEmpty()) {
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": no matches found");
+            return;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        for (LogIndex.Message message : messages) {
+            String line = message.mText.startsWith("\u0001ACTION ") ?
+                    "* " + message.mNick + " " + message.mText.substring(8).replace("\u0001", "") :
+                    "<" + message.mNick + "> " + message.mText;
+            getOutput().message(e.getSession(), e.getTarget(), "[" + format.format(new Date(message.mTime)) + "] " + line);
+        }
+    }
+
+    private LogIndex getIndex(String server) throws IOException {
+        LogIndex index = mIndexes.get(server);
+        if (index == null) {
+            index = new LogIndex(new File(getStorage(), "index" + File.separator + server), getStorage(), server);
+            mIndexes.put(server, index);
+        }
+        return index;
+    }
+
+    @Override
+    public void onCreate() {
+        getBot().getCommandManager().registerCommand(new Command("grep", this, "Searches the channel log", "<text>", UserLevel.NORMAL, false));
+        getBot().getCommandManager().registerCommand(new Command("lastsaid", this, "Shows the last thing a nick said in the channel", "<nick> [<text>]", UserLevel.NORMAL, false));
+        getBot().getCommandManager().registerCommand(new Command("logindex", this, "Manages the channel log index", "rebuild", UserLevel.OWNER, false));
+    }
+
+    @Override
+    public void onEnable() {
+        mWriter = new LogWriter(getStorage(), mConfig.capacity, mConfig.bufferSize, mConfig.flushInterval,
+                mConfig.rotateSize, mConfig.rotateDaily, mConfig.compress);
+        if (mConfig.index) {
+            // Indexing keeps its own order on a single thread
+            mIndexer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(INDEX_QUEUE_SIZE),
+                    (runnable) -> {
+                        Thread thread = new Thread(runnable, "LogIndexer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            if (getBot().getSession() != null) {
+                String server = getBot().getSession().getServer();
+                mIndexer.execute(() -> {
+                    try {
+                        getIndex(server);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not open log index", e);
+                    }
+                });
             }
-        } catch (Exception ex) {
-            // Ignore
         }
     }
 
     @Override
     public void onDisable() {
-        for (Writer writer : mWriters.values()) {
+        if (mWriter != null) {
+            mWriter.close();
+            mWriter = null;
+        }
+        if (mIndexer != null) {
+            mIndexer.shutdown();
             try {
-                writer.flush();
-                writer.close();
-            } catch (IOException e) {
-                // Ignore
+                mIndexer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mIndexer = null;
+            for (LogIndex index : mIndexes.values()) {
+                try {
+                    index.flush();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not flush log index", e);
+                }
             }
+            mIndexes.clear();
+            mBehind.clear();
+            mSkipped.set(0);
         }
-        mWriters.clear();
+    }
+
+    public class Config {
+        public int capacity;
+        public int bufferSize;
+        public long flushInterval;
+        public long rotateSize;
+        public boolean rotateDaily;
+        public boolean compress;
+        public boolean index;
     }
 }
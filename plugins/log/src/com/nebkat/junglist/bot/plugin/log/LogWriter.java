@@ -0,0 +1,413 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.plugin.log;
+
+import com.nebkat.junglist.irc.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Asynchronous log writer.
+ *
+ * Lines are handed over through a lock-free ring buffer and written in batches by a single background thread, so
+ * callers never touch the disk. When the ring is full lines are dropped and counted instead of blocking the caller.
+ * Files are rotated daily or by size and closed segments are optionally gzipped.
+ */
+class LogWriter {
+    private static final String TAG = "LogWriter";
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    private final File mDirectory;
+    private final int mBufferSize;
+    private final long mFlushInterval;
+    private final long mRotateSize;
+    private final boolean mRotateDaily;
+    private final boolean mCompress;
+
+    private final Ring mRing;
+    private final Map<String, Segment> mSegments = new HashMap<>();
+    private final ExecutorService mCompressor;
+    private final Thread mThread;
+    private volatile boolean mRunning = true;
+
+    private final AtomicLong mWritten = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mRotated = new AtomicLong();
+    private long mReportedDropped;
+
+    private final AtomicLong mFlushRequests = new AtomicLong();
+    private volatile long mFlushed;
+
+    LogWriter(File directory, int capacity, int bufferSize, long flushInterval, long rotateSize, boolean rotateDaily, boolean compress) {
+        mDirectory = directory;
+        mBufferSize = Math.max(1024, bufferSize);
+        mFlushInterval = flushInterval;
+        mRotateSize = rotateSize;
+        mRotateDaily = rotateDaily;
+        mCompress = compress;
+        mRing = new Ring(capacity);
+
+        mCompressor = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "LogWriter-Compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mThread = new Thread(this::run, "LogWriter");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Queues a line for writing, never blocks.
+     *
+     * @return False if the ring buffer was full and the line was dropped.
+     */
+    boolean write(String name, long time, String line) {
+        if (!mRunning || !mRing.offer(new Entry(name, time, line))) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops the writer after draining and flushing every queued line and waits for pending compressions.
+     */
+    void close() {
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mCompressor.shutdown();
+        try {
+            if (!mCompressor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Log compression did not finish, rotated logs may be left uncompressed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until every line queued before the call is written to disk.
+     *
+     * @return False if the lines were not written within the timeout.
+     */
+    boolean flush(long timeout) throws InterruptedException {
+        long request = mFlushRequests.incrementAndGet();
+        LockSupport.unpark(mThread);
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            while (mFlushed < request) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !mThread.isAlive()) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    long getWritten() {
+        return mWritten.get();
+    }
+
+    long getDropped() {
+        return mDropped.get();
+    }
+
+    long getRotated() {
+        return mRotated.get();
+    }
+
+    private void run() {
+        while (mRunning || !mRing.isEmpty()) {
+            long request = mFlushRequests.get();
+            int drained = 0;
+            Entry entry;
+            while (drained < BATCH_SIZE && (entry = mRing.poll()) != null) {
+                try {
+                    getSegment(entry.mName).write(entry);
+                    mWritten.incrementAndGet();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not write log line", e);
+                    closeSegment(entry.mName);
+                }
+                drained++;
+            }
+
+            // The ring was emptied, so every line queued before the request was written
+            boolean flushAll = request > mFlushed && drained < BATCH_SIZE;
+            long now = System.currentTimeMillis();
+            for (Segment segment : mSegments.values()) {
+                if (flushAll || now - segment.mFlushTime >= mFlushInterval) {
+                    try {
+                        segment.flush(now);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not flush log " + segment.mName, e);
+                    }
+                }
+            }
+            if (flushAll) {
+                synchronized (this) {
+                    mFlushed = request;
+                    notifyAll();
+                }
+            }
+            reportDropped();
+
+            if (drained == 0 && mRunning) {
+                LockSupport.parkNanos(IDLE_PARK);
+            }
+        }
+        for (Segment segment : mSegments.values()) {
+            segment.close();
+        }
+        mSegments.clear();
+    }
+
+    private void reportDropped() {
+        long dropped = mDropped.get();
+        if (dropped != mReportedDropped) {
+            Log.w(TAG, "Dropped " + (dropped - mReportedDropped) + " log lines, the disk is not keeping up");
+            mReportedDropped = dropped;
+        }
+    }
+
+    private Segment getSegment(String name) throws IOException {
+        Segment segment = mSegments.get(name);
+        if (segment == null) {
+            segment = new Segment(name);
+            mSegments.put(name, segment);
+        }
+        return segment;
+    }
+
+    private void closeSegment(String name) {
+        Segment segment = mSegments.remove(name);
+        if (segment != null) {
+            segment.close();
+        }
+    }
+
+    private void compress(File file) {
+        // Written aside and renamed when complete, so an interrupted compression never leaves a truncated .gz
+        File compressed = new File(file.getPath() + ".gz");
+        File temp = new File(file.getPath() + ".gz.tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(temp))) {
+                Files.copy(file.toPath(), out);
+            }
+            Files.move(temp.toPath(), compressed.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not compress " + file.getName(), e);
+            temp.delete();
+            return;
+        }
+        if (!file.delete()) {
+            Log.w(TAG, "Could not delete " + file.getName());
+        }
+    }
+
+    private static String date(long time) {
+        return new SimpleDateFormat("yyyy-MM-dd").format(new Date(time));
+    }
+
+    private class Segment {
+        private final String mName;
+        private final File mFile;
+        private final ByteBuffer mBuffer;
+        private FileChannel mChannel;
+        private long mSize;
+        private String mDate;
+        private long mFlushTime = System.currentTimeMillis();
+
+        private Segment(String name) throws IOException {
+            mName = name;
+            mFile = new File(mDirectory, name);
+            mBuffer = ByteBuffer.allocateDirect(mBufferSize);
+            open();
+        }
+
+        private void open() throws IOException {
+            mChannel = FileChannel.open(mFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            mSize = mChannel.size();
+            mDate = date(mSize > 0 ? mFile.lastModified() : System.currentTimeMillis());
+        }
+
+        private void write(Entry entry) throws IOException {
+            if (mSize > 0 && ((mRotateSize > 0 && mSize >= mRotateSize) || (mRotateDaily && !mDate.equals(date(entry.mTime))))) {
+                rotate();
+            }
+            if (mSize == 0) {
+                mDate = date(entry.mTime);
+            }
+
+            byte[] bytes = entry.mLine.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > mBuffer.remaining()) {
+                flush(System.currentTimeMillis());
+            }
+            if (bytes.length > mBuffer.capacity()) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    mChannel.write(buffer);
+                }
+            } else {
+                mBuffer.put(bytes);
+            }
+            mSize += bytes.length;
+        }
+
+        private void flush(long now) throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+            mFlushTime = now;
+        }
+
+        private void rotate() throws IOException {
+            flush(System.currentTimeMillis());
+            mChannel.close();
+
+            File rotated = new File(mDirectory, mName + "." + mDate);
+            for (int i = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); i++) {
+                rotated = new File(mDirectory, mName + "." + mDate + "." + i);
+            }
+            if (mFile.renameTo(rotated)) {
+                mRotated.incrementAndGet();
+                if (mCompress) {
+                    final File closed = rotated;
+                    mCompressor.execute(() -> compress(closed));
+                }
+            } else {
+                Log.w(TAG, "Could not rotate " + mFile.getName());
+            }
+            open();
+        }
+
+        private void close() {
+            try {
+                flush(System.currentTimeMillis());
+                mChannel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not close log " + mName, e);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String mName;
+        private final long mTime;
+        private final String mLine;
+
+        private Entry(String name, long time, String line) {
+            mName = name;
+            mTime = time;
+            mLine = line;
+        }
+    }
+
+    /**
+     * Bounded multi-producer single-consumer ring buffer. Each slot carries a sequence number that tells producers
+     * and the consumer whose turn it is, so neither side takes a lock.
+     */
+    private static class Ring {
+        private final AtomicReferenceArray<Entry> mSlots;
+        private final AtomicLongArray mSequences;
+        private final int mMask;
+        private final AtomicLong mTail = new AtomicLong();
+        private volatile long mHead;
+
+        private Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            mSlots = new AtomicReferenceArray<>(size);
+            mSequences = new AtomicLongArray(size);
+            mMask = size - 1;
+            for (int i = 0; i < size; i++) {
+                mSequences.set(i, i);
+            }
+        }
+
+        private boolean offer(Entry entry) {
+            long tail = mTail.get();
+            while (true) {
+                int index = (int) (tail & mMask);
+                long difference = mSequences.get(index) - tail;
+                if (difference == 0) {
+                    if (mTail.compareAndSet(tail, tail + 1)) {
+                        mSlots.set(index, entry);
+                        mSequences.set(index, tail + 1);
+                        return true;
+                    }
+                } else if (difference < 0) {
+                    return false;
+                }
+                tail = mTail.get();
+            }
+        }
+
+        private Entry poll() {
+            long head = mHead;
+            int index = (int) (head & mMask);
+            if (mSequences.get(index) != head + 1) {
+                return null;
+            }
+            Entry entry = mSlots.get(index);
+            mSlots.set(index, null);
+            mSequences.set(index, head + mMask + 1);
+            mHead = head + 1;
+            return entry;
+        }
+
+        private boolean isEmpty() {
+            return mSequences.get((int) (mHead & mMask)) != mHead + 1;
+        }
+    }
+}
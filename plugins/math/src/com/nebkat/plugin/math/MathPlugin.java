@@ -25,7 +25,6 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 
 import java.text.DecimalFormat;
@@ -45,11 +44,11 @@ public class MathPlugin extends Plugin {
         try {
             result = mDoubleEvaluator.evaluate(e.getRawParams());
         } catch (IllegalArgumentException iae) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error evaluating expression.");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error evaluating expression.");
             return;
         }
 
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + mDecimalFormatter.format(result));
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + mDecimalFormatter.format(result));
     }
 
     @EventHandler
@@ -65,13 +64,13 @@ public class MathPlugin extends Plugin {
                 }
             }
         } catch (NumberFormatException nfe) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": <max> and <min> must be valid integers");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": <max> and <min> must be valid integers");
             return;
         }
 
         int random = (int)(Math.random() * ((max - min) + 1)) + min;
 
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + random);
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + random);
     }
 
     @EventHandler
@@ -89,7 +88,7 @@ public class MathPlugin extends Plugin {
             b = Double.parseDouble(e.getParams()[1]);
             c = Double.parseDouble(e.getParams()[2]);
         } catch (NumberFormatException nfe) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": <a> <b> <c> must be valid numbers");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": <a> <b> <c> must be valid numbers");
             return;
         }
 
@@ -104,11 +103,11 @@ public class MathPlugin extends Plugin {
         if (!complex) {
             double root1 = (-b + sqroot) / 2.0 * a;
             double root2 = (-b - sqroot) / 2.0 * a;
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": x=" + mDecimalFormatter.format(root1) + ", x=" + mDecimalFormatter.format(root2));
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": x=" + mDecimalFormatter.format(root1) + ", x=" + mDecimalFormatter.format(root2));
         } else {
             double root = sqroot / 2.0 * a;
             double constant = -b / 2.0 * a;
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": x=" + mDecimalFormatter.format(constant) + "+" + mDecimalFormatter.format(root) + "i, x=" + mDecimalFormatter.format(constant) + "-" + mDecimalFormatter.format(root) + "i");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": x=" + mDecimalFormatter.format(constant) + "+" + mDecimalFormatter.format(root) + "i, x=" + mDecimalFormatter.format(constant) + "-" + mDecimalFormatter.format(root) + "i");
         }
     }
 
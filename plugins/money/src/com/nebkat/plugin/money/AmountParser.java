@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.money;
+
+/**
+ * Parses amount expressions such as {@code 2.5k}, {@code (120 + 80) / 4} or {@code 3*19.99}.
+ *
+ * Supports addition, subtraction, multiplication, division, parentheses and the k, m and b magnitude suffixes.
+ */
+class AmountParser {
+    private final String mInput;
+    private int mPosition;
+
+    private AmountParser(String input) {
+        mInput = input;
+    }
+
+    /**
+     * @return Value of the expression.
+     * @throws NumberFormatException If the expression is invalid or its value is not finite.
+     */
+    static double parse(String input) throws NumberFormatException {
+        AmountParser parser = new AmountParser(input);
+        double value = parser.expression();
+        parser.skipWhitespace();
+        if (parser.mPosition != input.length()) {
+            throw new NumberFormatException("Unexpected character at " + parser.mPosition + ": " + input);
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new NumberFormatException("Not a finite amount: " + input);
+        }
+        return value;
+    }
+
+    private double expression() {
+        double value = term();
+        while (true) {
+            if (accept('+')) {
+                value += term();
+            } else if (accept('-')) {
+                value -= term();
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private double term() {
+        double value = factor();
+        while (true) {
+            if (accept('*') || accept('x')) {
+                value *= factor();
+            } else if (accept('/')) {
+                value /= factor();
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private double factor() {
+        if (accept('-')) {
+            return -factor();
+        }
+        if (accept('+')) {
+            return factor();
+        }
+        if (accept('(')) {
+            double value = expression();
+            if (!accept(')')) {
+                throw new NumberFormatException("Missing closing parenthesis: " + mInput);
+            }
+            return value;
+        }
+        return number();
+    }
+
+    private double number() {
+        skipWhitespace();
+        int start = mPosition;
+        while (mPosition < mInput.length() && (Character.isDigit(mInput.charAt(mPosition)) || mInput.charAt(mPosition) == '.')) {
+            mPosition++;
+        }
+        if (start == mPosition) {
+            throw new NumberFormatException("Expected a number at " + start + ": " + mInput);
+        }
+        double value = Double.parseDouble(mInput.substring(start, mPosition));
+        if (mPosition < mInput.length()) {
+            switch (Character.toLowerCase(mInput.charAt(mPosition))) {
+                case 'k':
+                    mPosition++;
+                    return value * 1e3;
+                case 'm':
+                    mPosition++;
+                    return value * 1e6;
+                case 'b':
+                    mPosition++;
+                    return value * 1e9;
+            }
+        }
+        return value;
+    }
+
+    private boolean accept(char c) {
+        skipWhitespace();
+        if (mPosition < mInput.length() && Character.toLowerCase(mInput.charAt(mPosition)) == c) {
+            mPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (mPosition < mInput.length() && Character.isWhitespace(mInput.charAt(mPosition))) {
+            mPosition++;
+        }
+    }
+}
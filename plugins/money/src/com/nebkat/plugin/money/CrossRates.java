@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.money;
+
+import org.openexchangerates.Currency;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Precomputed conversion rates between every pair of currencies, indexed by ordinal.
+ */
+class CrossRates {
+    private static final int SIZE = Currency.values().length;
+
+    private final double[] mRates = new double[SIZE * SIZE];
+
+    /**
+     * @param rates Rates relative to a common base currency.
+     */
+    CrossRates(Map<Currency, BigDecimal> rates) {
+        Arrays.fill(mRates, Double.NaN);
+        for (Map.Entry<Currency, BigDecimal> from : rates.entrySet()) {
+            int row = from.getKey().ordinal() * SIZE;
+            for (Map.Entry<Currency, BigDecimal> to : rates.entrySet()) {
+                mRates[row + to.getKey().ordinal()] = to.getValue().divide(from.getValue(), MathContext.DECIMAL64).doubleValue();
+            }
+        }
+    }
+
+    /**
+     * @return Amount of {@code to} one unit of {@code from} is worth, or NaN if either has no rate.
+     */
+    double getRate(Currency from, Currency to) {
+        return mRates[from.ordinal() * SIZE + to.ordinal()];
+    }
+
+    /**
+     * @return Converted amount, or NaN if either currency has no rate.
+     */
+    double convert(double amount, Currency from, Currency to) {
+        return amount * mRates[from.ordinal() * SIZE + to.ordinal()];
+    }
+}
@@ -24,19 +24,22 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
-import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.events.EventHandler;
+import com.nebkat.junglist.irc.utils.Utils;
 import org.openexchangerates.Currency;
 import org.openexchangerates.OpenExchangeRatesClient;
-import org.openexchangerates.exceptions.UnavailableExchangeRateException;
 
-import java.math.BigDecimal;
 import java.text.DecimalFormat;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class MoneyPlugin extends Plugin<MoneyPlugin.Config> {
     public static final String TAG = "MoneyPlugin";
+    private static final long DEFAULT_REFRESH_INTERVAL = 60 * 60 * 1000;
+    private static final int MAX_TARGETS = 10;
+
+    private RatesStore mRates;
 
     @EventHandler
     @CommandFilter("money")
@@ -45,56 +48,85 @@ public class MoneyPlugin extends Plugin<MoneyPlugin.Config> {
             e.showUsage(getBot());
             return;
         }
-        float amount;
+        // Everything before the currencies is the amount expression, e.g. !money (20 + 5) * 4 USD EUR,GBP
+        String[] params = e.getParams();
+        double amount;
         try {
-            amount = Float.parseFloat(e.getParams()[0]);
+            amount = AmountParser.parse(Utils.implode(Arrays.copyOfRange(params, 0, params.length - 2), " "));
         } catch (NumberFormatException nfe) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Exchange currency amount must be a valid number.");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Exchange currency amount must be a valid number.");
             return;
         }
 
-        String fromCode = e.getParams()[1];
-        String toCode = e.getParams()[2];
-        if (fromCode.length() != 3 || toCode.length() != 3) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": From/to currencies must be written in 3 character currency code.");
+        Currency from = parseCurrency(params[params.length - 2]);
+        List<Currency> to = new ArrayList<>();
+        for (String code : params[params.length - 1].split(",")) {
+            Currency currency = parseCurrency(code);
+            if (from == null || currency == null) {
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown currencies.");
+                return;
+            }
+            if (!to.contains(currency)) {
+                to.add(currency);
+            }
+        }
+        if (to.size() > MAX_TARGETS) {
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": At most " + MAX_TARGETS + " currencies can be converted to at once.");
             return;
         }
 
-        Currency from;
-        Currency to;
-        try {
-            from = Currency.valueOf(fromCode.toUpperCase());
-            to = Currency.valueOf(toCode.toUpperCase());
-        } catch (IllegalArgumentException iae) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown currencies.");
+        RatesStore.Snapshot rates = mRates != null ? mRates.getSnapshot() : null;
+        if (rates == null) {
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Exchange rates are not available yet.");
             return;
         }
+        DecimalFormat df = new DecimalFormat("0.00");
+        StringBuilder results = new StringBuilder();
+        for (Currency currency : to) {
+            double result = rates.convert(amount, from, currency);
+            if (results.length() > 0) {
+                results.append(", ");
+            }
+            results.append(Double.isNaN(result) ? "n/a" : df.format(result)).append(" ").append(currency.name());
+        }
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + df.format(amount) + " " + from.name() + " = " + results);
+    }
 
-        OpenExchangeRatesClient ratesClient = new OpenExchangeRatesClient(mConfig.key);
-        Map<Currency, BigDecimal> rates;
-        try {
-            rates = ratesClient.getLatest();
-        } catch (UnavailableExchangeRateException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error while fetching exchange rates.");
-            Log.e(TAG, "Could not fetch exchange rates", ex);
-            return;
+    private static Currency parseCurrency(String code) {
+        if (code.length() != 3) {
+            return null;
         }
-        if (rates.containsKey(from) && rates.containsKey(to)) {
-            DecimalFormat df = new DecimalFormat("0.00");
-            float result = amount / rates.get(from).floatValue() * rates.get(to).floatValue();
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + df.format(amount) + " " + from.name() + " = " + df.format(result) + " " + to.name());
-        } else {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error while fetching exchange rates.");
+        try {
+            return Currency.valueOf(code.toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            return null;
         }
     }
 
     @Override
     public void onCreate() {
-        getBot().getCommandManager().registerCommand(new Command("money", this, "Gives operator privileges to a user", "<amount> <from> <to>", UserLevel.NORMAL, false));
+        getBot().getCommandManager().registerCommand(new Command("money", this, "Converts an amount between currencies", "<amount> <from> <to>[,<to>...]", UserLevel.NORMAL, false));
         saveConfig();
     }
 
+    @Override
+    public void onEnable() {
+        OpenExchangeRatesClient client = mConfig.url != null ? new OpenExchangeRatesClient(mConfig.key, mConfig.url) : new OpenExchangeRatesClient(mConfig.key);
+        mRates = new RatesStore(client, getScheduler(), getStorage(), mConfig.refreshInterval > 0 ? mConfig.refreshInterval : DEFAULT_REFRESH_INTERVAL);
+        mRates.start();
+    }
+
+    @Override
+    public void onDisable() {
+        if (mRates != null) {
+            mRates.stop();
+            mRates = null;
+        }
+    }
+
     public class Config {
         public String key;
+        public String url;
+        public long refreshInterval;
     }
 }
\ No newline at end of file
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.money;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.nebkat.junglist.bot.scheduler.Scheduler;
+import com.nebkat.junglist.irc.Log;
+import org.openexchangerates.Currency;
+import org.openexchangerates.OpenExchangeRatesClient;
+import org.openexchangerates.exceptions.UnavailableExchangeRateException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In memory exchange rates refreshed in the background.
+ *
+ * The provider publishes new rates on a fixed interval, so a refresh is scheduled shortly after the next expected
+ * publish time instead of on every lookup. Refreshes that fail or return unchanged rates back off up to the interval,
+ * which keeps usage well within the provider's request quota. The last snapshot is persisted and loaded on start.
+ */
+class RatesStore {
+    private static final String TAG = "RatesStore";
+    private static final String FILE = "rates.json";
+    private static final long PUBLISH_SLACK = 60 * 1000;
+    private static final long MIN_RETRY = 60 * 1000;
+
+    private final OpenExchangeRatesClient mClient;
+    private final Scheduler.Scope mScheduler;
+    private final File mFile;
+    private final long mInterval;
+    private final Gson mGson = new Gson();
+
+    private volatile Snapshot mSnapshot;
+    private Scheduler.Task mRefresh;
+    private long mRetry = MIN_RETRY;
+
+    /**
+     * @param client Client fetching the rates.
+     * @param scheduler Scheduler refreshes run on.
+     * @param storage Directory the last snapshot is persisted in.
+     * @param interval Interval in milliseconds the provider publishes rates on.
+     */
+    RatesStore(OpenExchangeRatesClient client, Scheduler.Scope scheduler, File storage, long interval) {
+        mClient = client;
+        mScheduler = scheduler;
+        mFile = new File(storage, FILE);
+        mInterval = interval;
+    }
+
+    /**
+     * Loads the persisted snapshot and starts refreshing in the background.
+     */
+    synchronized void start() {
+        if (mRefresh != null) {
+            return;
+        }
+        load();
+        mRefresh = mScheduler.schedule(this::refresh, mSnapshot != null ? nextPublishDelay(mSnapshot) : 0, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (mRefresh != null) {
+            mRefresh.cancel();
+            mRefresh = null;
+        }
+    }
+
+    /**
+     * @return Current rates, or null if none have been fetched yet.
+     */
+    Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    private void refresh() {
+        long delay;
+        try {
+            OpenExchangeRatesClient.OERResult result = mClient.getLatestResult();
+            Snapshot snapshot = new Snapshot(result.timestamp * 1000, System.currentTimeMillis(), result.getRates());
+            Snapshot previous = mSnapshot;
+            if (previous != null && snapshot.getTimestamp() <= previous.getTimestamp()) {
+                // Not published yet, try again a bit later
+                delay = backoff();
+            } else {
+                mSnapshot = snapshot;
+                mRetry = MIN_RETRY;
+                save(snapshot);
+                delay = nextPublishDelay(snapshot);
+            }
+        } catch (UnavailableExchangeRateException | RuntimeException e) {
+            // Keep refreshing whatever went wrong, a missed reschedule would leave the rates stale for good
+            Log.w(TAG, "Could not refresh exchange rates", e);
+            delay = backoff();
+        }
+        synchronized (this) {
+            if (mRefresh != null) {
+                mRefresh = mScheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private long backoff() {
+        long delay = mRetry;
+        mRetry = Math.min(mRetry * 2, mInterval);
+        return delay;
+    }
+
+    private long nextPublishDelay(Snapshot snapshot) {
+        long next = snapshot.getTimestamp() + mInterval + PUBLISH_SLACK;
+        return Math.max(MIN_RETRY, next - System.currentTimeMillis());
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(mFile), StandardCharsets.UTF_8)) {
+            Persisted persisted = mGson.fromJson(reader, Persisted.class);
+            if (persisted == null || persisted.rates == null) {
+                return;
+            }
+            EnumMap<Currency, BigDecimal> rates = new EnumMap<>(Currency.class);
+            for (Map.Entry<String, BigDecimal> rate : persisted.rates.entrySet()) {
+                try {
+                    rates.put(Currency.valueOf(rate.getKey()), rate.getValue());
+                } catch (IllegalArgumentException e) {
+                    // Currency no longer known
+                }
+            }
+            mSnapshot = new Snapshot(persisted.timestamp, persisted.fetched, rates);
+        } catch (IOException | JsonParseException e) {
+            Log.w(TAG, "Could not load saved exchange rates", e);
+        }
+    }
+
+    private void save(Snapshot snapshot) {
+        Persisted persisted = new Persisted();
+        persisted.timestamp = snapshot.getTimestamp();
+        persisted.fetched = snapshot.getFetched();
+        persisted.rates = new HashMap<>();
+        snapshot.mRates.forEach((currency, rate) -> persisted.rates.put(currency.name(), rate));
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            mFile.getParentFile().mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                mGson.toJson(persisted, writer);
+            }
+            Files.move(temp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save exchange rates", e);
+        }
+    }
+
+    /**
+     * Immutable set of rates relative to the provider's base currency, with the cross rates between them.
+     */
+    static class Snapshot {
+        private final long mTimestamp;
+        private final long mFetched;
+        private final Map<Currency, BigDecimal> mRates;
+        private final CrossRates mCrossRates;
+
+        Snapshot(long timestamp, long fetched, EnumMap<Currency, BigDecimal> rates) {
+            mTimestamp = timestamp;
+            mFetched = fetched;
+            mRates = Collections.unmodifiableMap(rates);
+            mCrossRates = new CrossRates(rates);
+        }
+
+        /**
+         * @return Converted amount, or NaN if either currency has no rate.
+         */
+        double convert(double amount, Currency from, Currency to) {
+            return mCrossRates.convert(amount, from, to);
+        }
+
+        CrossRates getCrossRates() {
+            return mCrossRates;
+        }
+
+        BigDecimal getRate(Currency currency) {
+            return mRates.get(currency);
+        }
+
+        Map<Currency, BigDecimal> getRates() {
+            return mRates;
+        }
+
+        /**
+         * @return Time the rates were published by the provider.
+         */
+        long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * @return Time the rates were fetched.
+         */
+        long getFetched() {
+            return mFetched;
+        }
+    }
+
+    private class Persisted {
+        public long timestamp;
+        public long fetched;
+        public Map<String, BigDecimal> rates;
+    }
+}
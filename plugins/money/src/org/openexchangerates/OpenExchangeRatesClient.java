@@ -26,12 +26,14 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import com.nebkat.junglist.bot.http.ConnectionManager;
+import com.nebkat.junglist.bot.http.SingleFlight;
 import org.openexchangerates.exceptions.UnavailableExchangeRateException;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.util.EnumMap;
 import java.util.Map;
 
 /**
@@ -44,9 +46,19 @@ public class OpenExchangeRatesClient {
 
     private final Gson mGson;
     private String mAppKey;
+    private String mUrl;
 
     public OpenExchangeRatesClient(String appKey) {
+        this(appKey, OER_URL);
+    }
+
+    /**
+     * @param appKey Application key.
+     * @param url Format of the latest rates url taking the key as its argument, e.g. pointing to a local stub server.
+     */
+    public OpenExchangeRatesClient(String appKey, String url) {
         mAppKey = appKey;
+        mUrl = url;
 
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(Currency.class, new Currency.Deserializer());
@@ -59,9 +71,28 @@ public class OpenExchangeRatesClient {
      * @return Last updated exchange rates
      */
     public Map<Currency, BigDecimal> getLatest() throws UnavailableExchangeRateException {
+        return getLatestResult().getRates();
+    }
+
+    /**
+     * Get the latest exchange rates along with their publish time
+     *
+     * @return Last updated exchange rates
+     */
+    public OERResult getLatestResult() throws UnavailableExchangeRateException {
+        String url = String.format(mUrl, mAppKey);
 
-        String url = String.format(OER_URL, mAppKey);
+        // Requests made at the same time share one upstream call
+        SingleFlight singleFlight = ConnectionManager.getSingleFlight();
+        try {
+            return singleFlight.execute(singleFlight.key("GET", url), () -> fetchLatest(url));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnavailableExchangeRateException(e);
+        }
+    }
 
+    private OERResult fetchLatest(String url) throws UnavailableExchangeRateException {
         HttpGet get = new HttpGet(url);
 
         // Execute the request
@@ -74,20 +105,43 @@ public class OpenExchangeRatesClient {
         }
 
         if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-            throw new UnavailableExchangeRateException("Could not fetch data");
+            get.abort();
+            throw new UnavailableExchangeRateException("Could not fetch data: " + response.getStatusLine());
         }
 
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()))) {
             OERResult result = mGson.fromJson(reader, OERResult.class);
-            return result.rates;
+            if (result == null || result.rates == null) {
+                throw new UnavailableExchangeRateException("No rates returned");
+            }
+            return result;
+        } catch (UnavailableExchangeRateException e) {
+            throw e;
         } catch (Exception e) {
             throw new UnavailableExchangeRateException(e);
         }
     }
 
     public class OERResult {
-        public String timestamp;
-        public Currency base;
-        public Map<Currency, BigDecimal> rates;
+        public long timestamp;
+        public String base;
+        public Map<String, BigDecimal> rates;
+
+        /**
+         * @return Rates of known currencies, unknown currency codes are skipped.
+         */
+        public EnumMap<Currency, BigDecimal> getRates() {
+            EnumMap<Currency, BigDecimal> rates = new EnumMap<>(Currency.class);
+            for (Map.Entry<String, BigDecimal> rate : this.rates.entrySet()) {
+                try {
+                    if (rate.getValue() != null && rate.getValue().signum() > 0) {
+                        rates.put(Currency.valueOf(rate.getKey()), rate.getValue());
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Currency not known
+                }
+            }
+            return rates;
+        }
     }
 }
@@ -19,6 +19,7 @@
 
 package com.nebkat.junglist.bot.plugin.op;
 
+import com.nebkat.junglist.bot.OutputQueue;
 import com.nebkat.junglist.bot.command.Command;
 import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.UserLevel;
@@ -68,7 +69,7 @@ public class OPPlugin extends Plugin<OPPlugin.Config> {
                     @EventHandler
                     public void onResponseTopicMessageEvent(ResponseTopicNoneEvent event) {
                         if (event.getChannel().getName().equalsIgnoreCase(channel)) {
-                            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No topic set for " + channel);
+                            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": No topic set for " + channel);
                             getIrc().getEventHandlerManager().unregisterEvents(this);
                         }
                     }
@@ -76,7 +77,7 @@ public class OPPlugin extends Plugin<OPPlugin.Config> {
                     @EventHandler
                     public void onResponseTopicMessageEvent(ResponseTopicMessageEvent event) {
                         if (event.getChannel().getName().equalsIgnoreCase(channel)) {
-                            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Topic for " + channel + ": " + event.getTopic());
+                            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Topic for " + channel + ": " + event.getTopic());
                             getIrc().getEventHandlerManager().unregisterEvents(this);
                         }
                     }
@@ -84,7 +85,7 @@ public class OPPlugin extends Plugin<OPPlugin.Config> {
                     @EventHandler
                     public void onNotOnChannelErrorEvent(NotOnChannelErrorEvent event) {
                         if (event.getChannel().equalsIgnoreCase(channel)) {
-                            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Could not retrieve topic of " + channel);
+                            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Could not retrieve topic of " + channel);
                             getIrc().getEventHandlerManager().unregisterEvents(this);
                         }
                     }
@@ -111,13 +112,13 @@ public class OPPlugin extends Plugin<OPPlugin.Config> {
                 e.showUsage(getBot());
                 return;
             }
-            Irc.message(e.getSession(), e.getParams()[0], e.getRawParamsAfter(1));
+            getOutput().message(e.getSession(), e.getParams()[0], e.getRawParamsAfter(1));
         } else if (e.getCommand().getName().equals("raw")) {
             if (e.getParams().length < 1) {
                 e.showUsage(getBot());
                 return;
             }
-            Irc.write(e.getSession(), e.getRawParams());
+            getOutput().write(e.getSession(), e.getRawParams(), OutputQueue.Priority.OP);
         }
     }
 
@@ -24,27 +24,45 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
+import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.events.irc.IRCEvent;
+import com.nebkat.junglist.irc.events.irc.MessageEvent;
 import com.nebkat.junglist.irc.utils.Utils;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class SeenPlugin extends Plugin {
-    private long mStartTime;
-    private Map<String, PastEventInfo> mSeenEventMap = new HashMap<>();
+    private static final String TAG = "SeenPlugin";
+
+    private static final long FLUSH_INTERVAL = 1000;
+    private static final long SNAPSHOT_INTERVAL = 10 * 60 * 1000;
+
+    private SeenStore mStore;
 
     @EventHandler
     public void onEvent(IRCEvent e) {
-        if (e.getSource().getNick() != null) {
-            mSeenEventMap.putIfAbsent(e.getSource().getNick(), new PastEventInfo());
-            PastEventInfo event = mSeenEventMap.get(e.getSource().getNick());
-            event.time = e.getTime();
-            event.event = e.toString();
+        if (mStore == null || e.getSource() == null || e.getSource().getNick() == null) {
+            return;
+        }
+        String type = e.getClass().getSimpleName();
+        if (type.endsWith("Event")) {
+            type = type.substring(0, type.length() - "Event".length());
+        }
+        String target = null;
+        String text = null;
+        if (e instanceof MessageEvent) {
+            MessageEvent message = (MessageEvent) e;
+            target = message.getTarget() != null ? message.getTarget().getName() : null;
+            text = message.getMessage();
+        }
+        try {
+            mStore.put(e.getSource().getNick(), e.getTime(), type, target, text);
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not store seen event", ex);
         }
     }
 
@@ -54,16 +72,25 @@ public class SeenPlugin extends Plugin {
         if (e.getParams().length < 1) {
             e.showUsage(getBot());
             return;
+        } else if (mStore == null) {
+            return;
         }
         String nick = e.getParams()[0];
-        if (mSeenEventMap.containsKey(nick)) {
-            PastEventInfo event = mSeenEventMap.get(nick);
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + nick +
-                    " last seen " + (getTimeLengthString(System.currentTimeMillis() - event.time)) +
-                    " ago (" + event.event + ")");
+        SeenStore.Seen seen;
+        try {
+            seen = mStore.get(nick);
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not read seen store", ex);
+            return;
+        }
+        if (seen != null) {
+            String event = seen.type + (!seen.target.isEmpty() ? " " + seen.target : "") + (!seen.text.isEmpty() ? ": " + seen.text : "");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + seen.nick +
+                    " last seen " + (getTimeLengthString(System.currentTimeMillis() - seen.time)) +
+                    " ago (" + event + ")");
         } else {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + nick +
-                    " not seen in last " + (getTimeLengthString(System.currentTimeMillis() - mStartTime)));
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + nick +
+                    " not seen in last " + (getTimeLengthString(System.currentTimeMillis() - mStore.getSince())));
         }
     }
 
@@ -74,13 +101,35 @@ public class SeenPlugin extends Plugin {
 
     @Override
     public void onEnable() {
-        mSeenEventMap.clear();
-        mStartTime = System.currentTimeMillis();
+        try {
+            mStore = new SeenStore(getStorage(), getScheduler());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open seen store", e);
+            return;
+        }
+        SeenStore store = mStore;
+        getScheduler().scheduleWithFixedDelay(() -> {
+            try {
+                store.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not flush seen log", e);
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        getScheduler().scheduleWithFixedDelay(store::snapshotQuietly, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    private static class PastEventInfo {
-        public long time;
-        public String event;
+    @Override
+    public void onDisable() {
+        getScheduler().cancel();
+        if (mStore != null) {
+            try {
+                mStore.snapshot();
+                mStore.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not close seen store", e);
+            }
+            mStore = null;
+        }
     }
 
     public String getTimeLengthString(long uptimeMillis) {
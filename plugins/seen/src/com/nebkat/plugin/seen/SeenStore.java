@@ -0,0 +1,523 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.seen;
+
+import com.nebkat.junglist.bot.scheduler.Scheduler;
+import com.nebkat.junglist.irc.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable last seen store.
+ *
+ * Updates are appended to a log and kept in memory until they are merged into a snapshot sorted by nick. Lookups
+ * that miss memory binary search a sparse index of the snapshot and read a handful of records from disk, so memory
+ * stays bounded no matter how many nicks have been seen.
+ */
+class SeenStore {
+    private static final String TAG = "SeenStore";
+
+    private static final int MAGIC = 0x5345454e;
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_ENTRY = 0;
+    private static final byte RECORD_TYPE = 1;
+
+    private static final int INDEX_INTERVAL = 64;
+    private static final int CACHE_SIZE = 10000;
+    private static final int SNAPSHOT_THRESHOLD = 20000;
+    private static final int MAX_TEXT_LENGTH = 200;
+
+    private final File mSnapshotFile;
+    private final File mIndexFile;
+    private final File mLogFile;
+    private final File mOldLogFile;
+    private final Scheduler.Scope mScheduler;
+
+    private final List<String> mTypes = new ArrayList<>();
+    private final Map<String, Integer> mTypeCodes = new HashMap<>();
+
+    private Map<String, Entry> mDirty = new HashMap<>();
+    private Map<String, Entry> mSnapshotting = new HashMap<>();
+    private final Map<String, Entry> mCache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private long mSince;
+    private String[] mIndexKeys = new String[0];
+    private long[] mIndexOffsets = new long[0];
+    private RandomAccessFile mSnapshot;
+    private DataOutputStream mLog;
+    private boolean mSnapshotRunning;
+    private boolean mSnapshotScheduled;
+    private boolean mClosed;
+
+    /**
+     * @param directory Directory the store is kept in.
+     * @param scheduler Scheduler snapshots triggered by updates run on.
+     */
+    SeenStore(File directory, Scheduler.Scope scheduler) throws IOException {
+        mScheduler = scheduler;
+        mSnapshotFile = new File(directory, "seen.snapshot");
+        mIndexFile = new File(directory, "seen.index");
+        mLogFile = new File(directory, "seen.log");
+        mOldLogFile = new File(directory, "seen.log.old");
+
+        if (!mSnapshotFile.exists()) {
+            mSince = System.currentTimeMillis();
+            writeSnapshot(new TreeMap<>());
+        } else {
+            openSnapshot();
+            readIndex();
+        }
+
+        // A snapshot interrupted by a crash leaves its log behind, updates are idempotent so replay both
+        replay(mOldLogFile, mDirty);
+        replay(mLogFile, mDirty);
+        mLog = openLog(mLogFile);
+        if (mOldLogFile.exists()) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Folds a nick to its RFC 1459 lowercase form, where []\^ are the uppercase of {}|~.
+     */
+    static String fold(String nick) {
+        char[] chars = new char[nick.length()];
+        for (int i = 0; i < chars.length; i++) {
+            char c = nick.charAt(i);
+            if (c >= 'A' && c <= '^') {
+                c += 'a' - 'A';
+            }
+            chars[i] = c;
+        }
+        return new String(chars);
+    }
+
+    synchronized long getSince() {
+        return mSince;
+    }
+
+    synchronized void put(String nick, long time, String type, String target, String text) throws IOException {
+        if (text != null && text.length() > MAX_TEXT_LENGTH) {
+            text = text.substring(0, MAX_TEXT_LENGTH);
+        }
+        String key = fold(nick);
+        Entry entry = new Entry(nick, time, typeCode(type), target != null ? target : "", text != null ? text : "");
+        mDirty.put(key, entry);
+        mCache.remove(key);
+
+        mLog.writeByte(RECORD_ENTRY);
+        writeEntry(mLog, key, entry);
+
+        if (mDirty.size() >= SNAPSHOT_THRESHOLD && !mSnapshotRunning && !mSnapshotScheduled) {
+            mSnapshotScheduled = true;
+            mScheduler.schedule(this::snapshotQuietly, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized Seen get(String nick) throws IOException {
+        String key = fold(nick);
+        Entry entry = mDirty.get(key);
+        if (entry == null) {
+            entry = mSnapshotting.get(key);
+        }
+        if (entry == null) {
+            entry = mCache.get(key);
+        }
+        if (entry == null) {
+            entry = lookup(key);
+            if (entry != null) {
+                mCache.put(key, entry);
+            }
+        }
+        return entry != null ? new Seen(entry.mNick, entry.mTime, mTypes.get(entry.mType), entry.mTarget, entry.mText) : null;
+    }
+
+    synchronized void flush() throws IOException {
+        mLog.flush();
+    }
+
+    void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write seen snapshot", e);
+        }
+    }
+
+    /**
+     * Merges all logged updates into a new snapshot. Only the swap of the in-memory maps and files holds the lock,
+     * lookups and updates continue while the snapshot is written.
+     *
+     * If writing fails the updates go back to memory and the old log is kept, the next snapshot appends the current
+     * log to it rather than replacing it, so the updates stay on disk until a snapshot including them succeeds.
+     */
+    void snapshot() throws IOException {
+        TreeMap<String, Entry> updates;
+        synchronized (this) {
+            mSnapshotScheduled = false;
+            if (mClosed || mSnapshotRunning || mDirty.isEmpty()) {
+                return;
+            }
+            mSnapshotRunning = true;
+            try {
+                if (mLog != null) {
+                    mLog.close();
+                }
+                if (mOldLogFile.exists()) {
+                    if (mLogFile.exists()) {
+                        Files.write(mOldLogFile.toPath(), Files.readAllBytes(mLogFile.toPath()), StandardOpenOption.APPEND);
+                        Files.delete(mLogFile.toPath());
+                    }
+                } else if (mLogFile.exists()) {
+                    Files.move(mLogFile.toPath(), mOldLogFile.toPath());
+                }
+            } catch (IOException e) {
+                mSnapshotRunning = false;
+                notifyAll();
+                throw e;
+            } finally {
+                mLog = openLog(mLogFile);
+            }
+            mSnapshotting = mDirty;
+            mDirty = new HashMap<>();
+            updates = new TreeMap<>(mSnapshotting);
+        }
+
+        boolean written = false;
+        try {
+            writeSnapshot(updates);
+            written = true;
+        } finally {
+            synchronized (this) {
+                if (written) {
+                    if (!mOldLogFile.delete()) {
+                        Log.w(TAG, "Could not delete " + mOldLogFile.getName());
+                    }
+                } else {
+                    // Updates made since the snapshot started are newer
+                    mSnapshotting.forEach(mDirty::putIfAbsent);
+                }
+                mSnapshotting = new HashMap<>();
+                mSnapshotRunning = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for a snapshot being written in the background and closes the store.
+     */
+    synchronized void close() throws IOException {
+        mClosed = true;
+        while (mSnapshotRunning) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted waiting for seen snapshot");
+            }
+        }
+        mLog.close();
+        mSnapshot.close();
+    }
+
+    private int typeCode(String type) throws IOException {
+        Integer code = mTypeCodes.get(type);
+        if (code == null) {
+            code = mTypes.size();
+            mTypes.add(type);
+            mTypeCodes.put(type, code);
+            mLog.writeByte(RECORD_TYPE);
+            mLog.writeUTF(type);
+        }
+        return code;
+    }
+
+    private Entry lookup(String key) throws IOException {
+        int index = Arrays.binarySearch(mIndexKeys, key);
+        if (index < 0) {
+            index = -index - 2;
+            if (index < 0) {
+                return null;
+            }
+        }
+        mSnapshot.seek(mIndexOffsets[index]);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(mSnapshot.getChannel())));
+        try {
+            for (int i = 0; i < INDEX_INTERVAL; i++) {
+                String recordKey = in.readUTF();
+                Entry entry = readEntry(in);
+                int compare = recordKey.compareTo(key);
+                if (compare == 0) {
+                    return entry;
+                } else if (compare > 0) {
+                    return null;
+                }
+            }
+        } catch (EOFException e) {
+            // Last block of the snapshot
+        }
+        return null;
+    }
+
+    private void writeSnapshot(TreeMap<String, Entry> updates) throws IOException {
+        File temp = new File(mSnapshotFile.getPath() + ".tmp");
+        File tempIndex = new File(mIndexFile.getPath() + ".tmp");
+
+        List<String> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        List<String> types;
+        long since;
+        synchronized (this) {
+            types = new ArrayList<>(mTypes);
+            since = mSince;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+             DataInputStream in = mSnapshotFile.exists() ? openSnapshotStream() : null) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(since);
+            out.writeInt(types.size());
+            for (String type : types) {
+                out.writeUTF(type);
+            }
+
+            // Merge the sorted snapshot with the sorted updates
+            Iterator<Map.Entry<String, Entry>> iterator = updates.entrySet().iterator();
+            Map.Entry<String, Entry> update = iterator.hasNext() ? iterator.next() : null;
+            String key = in != null ? readKey(in) : null;
+            Entry entry = key != null ? readEntry(in) : null;
+            int count = 0;
+            while (key != null || update != null) {
+                String writeKey;
+                Entry writeEntry;
+                int compare = key == null ? 1 : update == null ? -1 : key.compareTo(update.getKey());
+                if (compare < 0) {
+                    writeKey = key;
+                    writeEntry = entry;
+                } else {
+                    writeKey = update.getKey();
+                    writeEntry = compare == 0 && entry.mTime > update.getValue().mTime ? entry : update.getValue();
+                    update = iterator.hasNext() ? iterator.next() : null;
+                }
+                if (compare <= 0) {
+                    key = readKey(in);
+                    entry = key != null ? readEntry(in) : null;
+                }
+
+                if (count++ % INDEX_INTERVAL == 0) {
+                    indexKeys.add(writeKey);
+                    indexOffsets.add((long) out.size());
+                }
+                writeEntry(out, writeKey, writeEntry);
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempIndex)))) {
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                out.writeUTF(indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+        }
+
+        synchronized (this) {
+            if (mSnapshot != null) {
+                mSnapshot.close();
+                mSnapshot = null;
+            }
+            Files.move(tempIndex.toPath(), mIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), mSnapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            openSnapshot();
+            readIndex();
+        }
+    }
+
+    private DataInputStream openSnapshotStream() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mSnapshotFile)));
+        readHeader(in, false);
+        return in;
+    }
+
+    private void readHeader(DataInputStream in, boolean load) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Invalid seen snapshot");
+        }
+        long since = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String type = in.readUTF();
+            if (load && !mTypeCodes.containsKey(type)) {
+                mTypeCodes.put(type, mTypes.size());
+                mTypes.add(type);
+            }
+        }
+        if (load) {
+            mSince = since;
+        }
+    }
+
+    private void openSnapshot() throws IOException {
+        if (mTypes.isEmpty()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mSnapshotFile)))) {
+                readHeader(in, true);
+            }
+        }
+        if (mSnapshot != null) {
+            mSnapshot.close();
+        }
+        mSnapshot = new RandomAccessFile(mSnapshotFile, "r");
+    }
+
+    private void readIndex() throws IOException {
+        if (!mIndexFile.exists()) {
+            mIndexKeys = new String[0];
+            mIndexOffsets = new long[0];
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)))) {
+            int count = in.readInt();
+            String[] keys = new String[count];
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = in.readUTF();
+                offsets[i] = in.readLong();
+            }
+            mIndexKeys = keys;
+            mIndexOffsets = offsets;
+        }
+    }
+
+    private void replay(File file, Map<String, Entry> entries) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte record = in.readByte();
+                if (record == RECORD_TYPE) {
+                    String type = in.readUTF();
+                    if (!mTypeCodes.containsKey(type)) {
+                        mTypeCodes.put(type, mTypes.size());
+                        mTypes.add(type);
+                    }
+                } else {
+                    String key = in.readUTF();
+                    Entry entry = readEntry(in);
+                    Entry existing = entries.get(key);
+                    if (existing == null || existing.mTime <= entry.mTime) {
+                        entries.put(key, entry);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // End of log, a torn last record is dropped
+        }
+    }
+
+    private static DataOutputStream openLog(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private static String readKey(DataInputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        try {
+            return in.readUTF();
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, String key, Entry entry) throws IOException {
+        out.writeUTF(key);
+        out.writeUTF(entry.mNick);
+        out.writeLong(entry.mTime);
+        out.writeShort(entry.mType);
+        out.writeUTF(entry.mTarget);
+        out.writeUTF(entry.mText);
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        return new Entry(in.readUTF(), in.readLong(), in.readShort(), in.readUTF(), in.readUTF());
+    }
+
+    private static class Entry {
+        private final String mNick;
+        private final long mTime;
+        private final int mType;
+        private final String mTarget;
+        private final String mText;
+
+        private Entry(String nick, long time, int type, String target, String text) {
+            mNick = nick;
+            mTime = time;
+            mType = type;
+            mTarget = target;
+            mText = text;
+        }
+    }
+
+    static class Seen {
+        final String nick;
+        final long time;
+        final String type;
+        final String target;
+        final String text;
+
+        private Seen(String nick, long time, String type, String target, String text) {
+            this.nick = nick;
+            this.time = time;
+            this.type = type;
+            this.target = target;
+            this.text = text;
+        }
+    }
+}
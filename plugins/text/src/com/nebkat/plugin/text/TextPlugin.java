@@ -29,7 +29,6 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.utils.Utils;
 
@@ -248,9 +247,9 @@ public class TextPlugin extends Plugin {
                 }
             }
             result = Utils.implode(words, " ");
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + Utils.implode(words, " "));
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + Utils.implode(words, " "));
         }
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result);
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result);
     }
 
     @EventHandler
@@ -292,7 +291,7 @@ public class TextPlugin extends Plugin {
 
             }
         }
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result);
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result);
     }
 
     @EventHandler
@@ -318,7 +317,7 @@ public class TextPlugin extends Plugin {
         } else if (algorithm.equalsIgnoreCase("sha512")) {
             result = DigestUtils.sha512Hex(text);
         }
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result);
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result);
     }
 
     @Override
@@ -24,7 +24,11 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
+import com.nebkat.junglist.bot.scheduler.CronSchedule;
+import com.nebkat.junglist.bot.scheduler.Schedule;
+import com.nebkat.junglist.bot.scheduler.Scheduler;
+import com.nebkat.junglist.bot.scheduler.TimerJournal;
+import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.Session;
 import com.nebkat.junglist.irc.Source;
 import com.nebkat.junglist.irc.Target;
@@ -32,15 +36,29 @@ import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.events.irc.PrivMessageEvent;
 import com.nebkat.junglist.irc.utils.Utils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TimerPlugin extends Plugin {
-    private Timer mTimer;
-    private Map<String, CommandExecutorTimerTask> mTasks = new HashMap<>();
+    private static final String TAG = "TimerPlugin";
+    private static final String JOURNAL = "timers.journal";
+    private static final String EVERY_PREFIX = "every ";
+
+    private static final String DATA_TARGET = "target";
+    private static final String DATA_SOURCE = "source";
+    private static final String DATA_MESSAGE = "message";
+
+    private TimerJournal mJournal;
+    private final Map<String, Timer> mTimers = new ConcurrentHashMap<>();
+    // Targets can only be taken from events, timers restored before their target is seen wait for it
+    private final Map<String, Target> mTargets = new ConcurrentHashMap<>();
+    private final Map<String, List<Timer>> mWaiting = new HashMap<>();
 
     @EventHandler
     @CommandFilter("timer")
@@ -51,91 +69,232 @@ public class TimerPlugin extends Plugin {
         }
         String action = e.getParams()[0];
         if (action.equalsIgnoreCase("list")) {
-            String tasks = Utils.implode(new ArrayList<>(mTasks.keySet()), ", ");
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + tasks);
-        } else if (action.equalsIgnoreCase("set")) {
-            if (e.getParams().length < 4) {
+            String tasks = Utils.implode(new ArrayList<>(mTimers.keySet()), ", ");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + tasks);
+        } else if (action.equalsIgnoreCase("set") || action.equalsIgnoreCase("every") || action.equalsIgnoreCase("cron")) {
+            boolean cron = action.equalsIgnoreCase("cron");
+            int commandIndex = cron ? 7 : 3;
+            if (e.getParams().length <= commandIndex) {
                 e.showUsage(getBot());
                 return;
             }
             String name = e.getParams()[1];
-            if (mTasks.containsKey(name)) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timer \"" + name + "\" already exists.");
+            if (mTimers.containsKey(name)) {
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timer \"" + name + "\" already exists.");
                 return;
             }
-            int timeout;
-            try {
-                timeout = Integer.parseInt(e.getParams()[2]);
-            } catch (NumberFormatException ex) {
-                 Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Seconds parameter must be a number between 1 and " + Integer.MAX_VALUE);
-                return;
-            }
-            if (timeout < 1) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Seconds parameter must be a number between 1 and " + Integer.MAX_VALUE);
-                return;
+
+            String schedule = null;
+            long deadline = 0;
+            if (cron) {
+                schedule = Utils.implode(Arrays.copyOfRange(e.getParams(), 2, commandIndex), " ");
+                try {
+                    CronSchedule.parse(schedule);
+                } catch (IllegalArgumentException ex) {
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + ex.getMessage());
+                    return;
+                }
+            } else {
+                int timeout;
+                try {
+                    timeout = Integer.parseInt(e.getParams()[2]);
+                } catch (NumberFormatException ex) {
+                    timeout = 0;
+                }
+                if (timeout < 1) {
+                    getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Seconds parameter must be a number between 1 and " + Integer.MAX_VALUE);
+                    return;
+                }
+                if (action.equalsIgnoreCase("every")) {
+                    schedule = EVERY_PREFIX + timeout;
+                } else {
+                    deadline = System.currentTimeMillis() + timeout * 1000L;
+                }
             }
-            String message = e.getParams()[3];
+
+            String message = Utils.implode(Arrays.copyOfRange(e.getParams(), commandIndex, e.getParams().length), " ");
             if (!message.startsWith(getBot().getCommandPrefix())) {
                 message = getBot().getCommandPrefix() + message;
             }
-            CommandExecutorTimerTask task = new CommandExecutorTimerTask(name, e.getSession(), e.getTarget(), e.getSource(), message);
-            mTasks.put(name, task);
-            mTimer.schedule(task, timeout * 1000);
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timer \"" + name + "\" set for " + timeout + "s.");
+
+            TimerJournal.Entry entry = new TimerJournal.Entry();
+            entry.id = name;
+            entry.deadline = deadline;
+            entry.schedule = schedule;
+            entry.data = new HashMap<>();
+            entry.data.put(DATA_TARGET, e.getTarget().getName());
+            entry.data.put(DATA_SOURCE, e.getSource().getRaw());
+            entry.data.put(DATA_MESSAGE, message);
+            mTargets.put(e.getTarget().getName().toLowerCase(), e.getTarget());
+
+            Timer timer = new Timer(entry, e.getSource());
+            if (mTimers.putIfAbsent(name, timer) != null) {
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timer \"" + name + "\" already exists.");
+                return;
+            }
+            try {
+                mJournal.put(entry);
+            } catch (IOException ex) {
+                Log.e(TAG, "Could not save timer " + name, ex);
+            }
+            timer.start();
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timer \"" + name + "\" set " +
+                    (schedule != null ? "to run " + schedule : "for " + e.getParams()[2] + "s") + ".");
         } else if (action.equalsIgnoreCase("unset")) {
             if (e.getParams().length < 2) {
                 e.showUsage(getBot());
                 return;
             }
             String name = e.getParams()[1];
-            if (mTasks.containsKey(name)) {
-                mTasks.get(name).cancel();
-                mTasks.remove(name);
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timer \"" + name + "\" cancelled.");
+            Timer timer = mTimers.get(name);
+            if (timer != null) {
+                timer.remove();
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Timer \"" + name + "\" cancelled.");
             } else {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown timer \"" + name + "\".");
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown timer \"" + name + "\".");
             }
         } else {
             e.showUsage(getBot());
         }
     }
 
+    @EventHandler
+    public void onMessage(PrivMessageEvent e) {
+        String name = e.getTarget().getName().toLowerCase();
+        mTargets.put(name, e.getTarget());
+        List<Timer> waiting;
+        synchronized (mWaiting) {
+            waiting = mWaiting.remove(name);
+            if (waiting != null) {
+                waiting.forEach((timer) -> timer.mParked = false);
+            }
+        }
+        if (waiting != null) {
+            waiting.forEach(Timer::dispatch);
+        }
+    }
+
     @Override
     public void onCreate() {
-        getBot().getCommandManager().registerCommand(new Command("timer", this, "Sets timers for command execution", "list/set/unset [id] [seconds] [:<command>] ", UserLevel.ADMIN, false));
+        getBot().getCommandManager().registerCommand(new Command("timer", this, "Sets timers for command execution", "list/set/every/cron/unset [<id>] [<seconds>/<m h dom mon dow>] [<command>]", UserLevel.ADMIN, false));
     }
 
     @Override
     public void onEnable() {
-        mTimer = new Timer();
+        try {
+            mJournal = new TimerJournal(new File(getStorage(), JOURNAL));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open timer journal", e);
+            return;
+        }
+        for (TimerJournal.Entry entry : mJournal.getEntries()) {
+            Timer timer = new Timer(entry, new Source(entry.data.get(DATA_SOURCE)));
+            mTimers.put(entry.id, timer);
+            timer.start();
+        }
     }
 
     @Override
     public void onDisable() {
-        mTimer.cancel();
-        mTasks.clear();
+        mTimers.values().forEach(Timer::cancel);
+        mTimers.clear();
+        synchronized (mWaiting) {
+            mWaiting.clear();
+        }
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not close timer journal", e);
+            }
+            mJournal = null;
+        }
+    }
+
+    private static Schedule parseSchedule(String schedule) {
+        if (schedule.startsWith(EVERY_PREFIX)) {
+            long interval = Long.parseLong(schedule.substring(EVERY_PREFIX.length())) * 1000;
+            return (time) -> time + interval;
+        }
+        return CronSchedule.parse(schedule);
     }
 
-    private class CommandExecutorTimerTask extends TimerTask {
-        private String mName;
-        private Session mSession;
-        private Target mTarget;
-        private Source mSource;
-        private String mMessage;
-
-        public CommandExecutorTimerTask(String name, Session session, Target target, Source source, String message) {
-            super();
-            mName = name;
-            mSession = session;
-            mTarget = target;
+    private class Timer {
+        private final TimerJournal.Entry mEntry;
+        private final Source mSource;
+        private Scheduler.Task mTask;
+        // Guarded by mWaiting, a timer waits for its target at most once however often it fires meanwhile
+        private boolean mParked;
+
+        public Timer(TimerJournal.Entry entry, Source source) {
+            mEntry = entry;
             mSource = source;
-            mMessage = message;
         }
 
-        @Override
-        public void run() {
-            getBot().getCommandManager().onMessage(new PrivMessageEvent(System.currentTimeMillis(), mSession, null, mSource, mTarget, mMessage));
-            mTasks.remove(mName);
+        void start() {
+            if (mEntry.schedule == null) {
+                // Overdue timers from before a restart fire straight away
+                mTask = getScheduler().scheduleAt(this::fire, mEntry.deadline);
+                return;
+            }
+            Schedule schedule;
+            try {
+                schedule = parseSchedule(mEntry.schedule);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Invalid schedule for timer " + mEntry.id + ": " + mEntry.schedule, e);
+                return;
+            }
+            mTask = getScheduler().schedule(this::fire, schedule);
+        }
+
+        void cancel() {
+            if (mTask != null) {
+                mTask.cancel();
+            }
+        }
+
+        void remove() {
+            cancel();
+            mTimers.remove(mEntry.id, this);
+            try {
+                if (mJournal != null) {
+                    mJournal.remove(mEntry.id);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not remove timer " + mEntry.id, e);
+            }
+        }
+
+        private void fire() {
+            String target = mEntry.data.get(DATA_TARGET).toLowerCase();
+            synchronized (mWaiting) {
+                if (!mTargets.containsKey(target)) {
+                    if (!mParked) {
+                        mParked = true;
+                        mWaiting.computeIfAbsent(target, (t) -> new ArrayList<>()).add(this);
+                    }
+                    return;
+                }
+            }
+            dispatch();
+        }
+
+        void dispatch() {
+            // Unset while waiting for its target
+            if (mTimers.get(mEntry.id) != this) {
+                return;
+            }
+            Target target = mTargets.get(mEntry.data.get(DATA_TARGET).toLowerCase());
+            Session session = getBot().getSession();
+            if (target == null || session == null || !getEnabled()) {
+                return;
+            }
+            // Goes through the command manager, which runs the command on its plugin's lane like any other
+            getBot().getCommandManager().onMessage(new PrivMessageEvent(System.currentTimeMillis(), session, null, mSource, target, mEntry.data.get(DATA_MESSAGE)));
+            // One shot timers stay in the journal until they ran, so a restart while waiting does not lose them
+            if (mEntry.schedule == null) {
+                remove();
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -24,7 +24,6 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.events.irc.MessageEvent;
 import com.nebkat.junglist.irc.utils.Utils;
@@ -49,7 +48,7 @@ public class TrollPlugin extends Plugin<TrollPlugin.Config> {
                 int count = mDerpCount.getOrDefault(target, 0);
                 count += Utils.countMatches(e.getMessage(), "?");
                 if (count > 7) {
-                    Irc.message(e.getSession(), e.getTarget(), "derp");
+                    getOutput().message(e.getSession(), e.getTarget(), "derp");
                     count %= 7;
                 }
                 mDerpCount.put(target, count);
@@ -61,25 +60,25 @@ public class TrollPlugin extends Plugin<TrollPlugin.Config> {
     @CommandFilter("dood")
     public void onDerpCommand(CommandEvent e) {
         if (e.getParams().length == 0) {
-            Irc.message(e.getSession(), e.getTarget(), WHATS_UP_DOOD);
+            getOutput().message(e.getSession(), e.getTarget(), WHATS_UP_DOOD);
         } else if (e.getParams().length == 1) {
-            Irc.message(e.getSession(), e.getTarget().getName(), e.getParams()[0] + ",");
-            Irc.message(e.getSession(), e.getTarget(), WHATS_UP_DOOD);
+            getOutput().message(e.getSession(), e.getTarget().getName(), e.getParams()[0] + ",");
+            getOutput().message(e.getSession(), e.getTarget(), WHATS_UP_DOOD);
         } else if (e.getParams().length > 1) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Y U GREET SO MANY AT ONCE?!");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Y U GREET SO MANY AT ONCE?!");
         }
     }
 
     @EventHandler
     @CommandFilter("boobs")
     public void onBoobsCommand(CommandEvent e) {
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + BOOBS);
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + BOOBS);
     }
 
     @EventHandler
     @CommandFilter("duper")
     public void onDuperCommand(CommandEvent e) {
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + mConfig.duper.get(mRandom.nextInt(mConfig.duper.size())));
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + mConfig.duper.get(mRandom.nextInt(mConfig.duper.size())));
     }
 
     @Override
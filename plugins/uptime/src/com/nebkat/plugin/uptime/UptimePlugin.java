@@ -24,7 +24,6 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.utils.Utils;
 
@@ -41,7 +40,7 @@ public class UptimePlugin extends Plugin<UptimePlugin.Config> {
     @CommandFilter("uptime")
     public void onUptimeCommand(CommandEvent e) {
         long uptime = (System.currentTimeMillis() - getBot().getStartTime()) / 1000;
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Current bot uptime: " + getTimeLengthString(uptime) + ", Total bot uptime: " + getTimeLengthString(getConfig().uptime + uptime) + ", System uptime: " + getTimeLengthString(getSystemUptime()));
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Current bot uptime: " + getTimeLengthString(uptime) + ", Total bot uptime: " + getTimeLengthString(getConfig().uptime + uptime) + ", System uptime: " + getTimeLengthString(getSystemUptime()));
     }
 
     @EventHandler
@@ -54,7 +53,7 @@ public class UptimePlugin extends Plugin<UptimePlugin.Config> {
         long total = Runtime.getRuntime().totalMemory();
         long free = Runtime.getRuntime().freeMemory();
         long used = total - free;
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Max VM size: " + getByteString(max) + ", Current VM size: " + getByteString(total) + " (" + Math.round(100 * used / total) + "% used), Used VM: " + getByteString(total - free));
+        getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Max VM size: " + getByteString(max) + ", Current VM size: " + getByteString(total) + " (" + Math.round(100 * used / total) + "% used), Used VM: " + getByteString(total - free));
     }
 
     @Override
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.url;
+
+/**
+ * Fetch rules for a domain, along with the state enforcing its rate limit and in-flight limit.
+ */
+class DomainPolicy {
+    static final String EXTRACTOR_TITLE = "title";
+    static final String EXTRACTOR_OPEN_GRAPH = "og:title";
+
+    private static final long RATE_INTERVAL = 60 * 1000;
+
+    private final boolean mSkip;
+    private final int mMaxBytes;
+    private final boolean mOpenGraph;
+    private final int mRateLimit;
+    private final int mMaxInFlight;
+
+    private int mInFlight;
+    private double mTokens;
+    private long mTime = System.currentTimeMillis();
+
+    /**
+     * @param skip Whether links to the domain are ignored.
+     * @param maxBytes Maximum bytes read from a page.
+     * @param extractor Title extractor, {@link #EXTRACTOR_TITLE} or {@link #EXTRACTOR_OPEN_GRAPH}.
+     * @param rateLimit Maximum fetches per minute, 0 for no limit.
+     * @param maxInFlight Maximum fetches in flight at once.
+     */
+    DomainPolicy(boolean skip, int maxBytes, String extractor, int rateLimit, int maxInFlight) {
+        mSkip = skip;
+        mMaxBytes = maxBytes;
+        mOpenGraph = EXTRACTOR_OPEN_GRAPH.equalsIgnoreCase(extractor);
+        mRateLimit = rateLimit;
+        mMaxInFlight = Math.max(1, maxInFlight);
+        mTokens = rateLimit;
+    }
+
+    boolean isSkipped() {
+        return mSkip;
+    }
+
+    int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    boolean isOpenGraph() {
+        return mOpenGraph;
+    }
+
+    /**
+     * Takes a fetch slot, must be followed by {@link #release()} if it succeeds.
+     *
+     * @return False if the domain is skipped, rate limited or has too many fetches in flight.
+     */
+    synchronized boolean acquire() {
+        if (mSkip || mInFlight >= mMaxInFlight) {
+            return false;
+        }
+        if (mRateLimit > 0) {
+            long now = System.currentTimeMillis();
+            mTokens = Math.min(mRateLimit, mTokens + (double) (now - mTime) * mRateLimit / RATE_INTERVAL);
+            mTime = now;
+            if (mTokens < 1) {
+                return false;
+            }
+            mTokens--;
+        }
+        mInFlight++;
+        return true;
+    }
+
+    synchronized void release() {
+        mInFlight--;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.url;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of link titles. Links that had no usable title are cached as negative entries so they are not
+ * fetched again until their entry expires.
+ */
+class TitleCache {
+    private final int mSize;
+    private final Map<String, Entry> mEntries;
+
+    TitleCache(int size) {
+        mSize = size;
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > mSize;
+            }
+        };
+    }
+
+    synchronized Entry get(String url) {
+        Entry entry = mEntries.get(url);
+        if (entry != null && System.currentTimeMillis() >= entry.mExpires) {
+            mEntries.remove(url);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(String url, Entry entry) {
+        mEntries.put(url, entry);
+    }
+
+    static class Entry {
+        private final String mTitle;
+        private final long mExpires;
+
+        private Entry(String title, long ttl) {
+            mTitle = title;
+            mExpires = System.currentTimeMillis() + ttl;
+        }
+
+        static Entry title(String title, long ttl) {
+            return new Entry(title, ttl);
+        }
+
+        static Entry negative(long ttl) {
+            return new Entry(null, ttl);
+        }
+
+        /**
+         * @return Title line, or null for a negative entry.
+         */
+        String getTitle() {
+            return mTitle;
+        }
+    }
+}
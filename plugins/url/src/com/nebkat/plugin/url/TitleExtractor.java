@@ -0,0 +1,245 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.plugin.url;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental scanner extracting the title of an HTML page.
+ *
+ * Bytes are scanned once as they arrive, tags are matched on their ASCII bytes so the charset only has to be known
+ * when the title is decoded. Scanning stops at the end of the title, the end of the head or after a byte limit.
+ * In Open Graph mode an og:title meta tag is preferred over the title element.
+ */
+class TitleExtractor {
+    private static final int CHUNK_SIZE = 4096;
+
+    private final boolean mOpenGraph;
+    private byte[] mBuffer = new byte[CHUNK_SIZE];
+    private int mLength;
+    private int mPosition;
+    private int mSearchFrom;
+
+    private Charset mCharset;
+    private int mTitleStart = -1;
+    private boolean mDone;
+    private String mTitle;
+
+    private TitleExtractor(Charset charset, boolean openGraph) {
+        mCharset = charset;
+        mOpenGraph = openGraph;
+    }
+
+    /**
+     * Reads a page up to its title.
+     *
+     * @param in Page stream, it is not read past the title or the byte limit.
+     * @param charset Charset from the response headers, or null to detect it from the page.
+     * @param maxBytes Maximum bytes to read.
+     * @param openGraph Whether to prefer the og:title meta tag.
+     * @return Unescaped title, or null if none was found.
+     */
+    static String extract(InputStream in, Charset charset, int maxBytes, boolean openGraph) throws IOException {
+        TitleExtractor extractor = new TitleExtractor(charset, openGraph);
+        while (!extractor.mDone && extractor.mLength < maxBytes) {
+            if (extractor.mLength == extractor.mBuffer.length) {
+                extractor.mBuffer = Arrays.copyOf(extractor.mBuffer, Math.min(maxBytes, extractor.mBuffer.length * 2));
+            }
+            int read = in.read(extractor.mBuffer, extractor.mLength, Math.min(extractor.mBuffer.length, maxBytes) - extractor.mLength);
+            if (read == -1) {
+                break;
+            }
+            extractor.mLength += read;
+            extractor.scan();
+        }
+        return extractor.mTitle;
+    }
+
+    private void scan() {
+        while (!mDone) {
+            if (mTitleStart != -1) {
+                // Title text is RCDATA, nothing but its end tag can close it
+                int end = indexOf("</title", Math.max(mPosition, mSearchFrom));
+                while (end != -1 && end + 7 < mLength && !isTag(end, "</title")) {
+                    end = indexOf("</title", end + 1);
+                }
+                if (end == -1 || end + 7 >= mLength) {
+                    mSearchFrom = end != -1 ? end : Math.max(mTitleStart, mLength - 7);
+                    return;
+                }
+                mTitle = decode(mTitleStart, end);
+                mTitleStart = -1;
+                mPosition = end + 7;
+                mSearchFrom = 0;
+                mDone = !mOpenGraph;
+                continue;
+            }
+            int open = indexOf((byte) '<', mPosition);
+            if (open == -1) {
+                mPosition = mLength;
+                return;
+            }
+            // Incomplete comments and tags resume from their start once more bytes arrive, without searching the
+            // bytes already seen again
+            if (startsWith(open, "<!--")) {
+                int end = indexOf("-->", Math.max(open + 4, mSearchFrom));
+                if (end == -1) {
+                    mPosition = open;
+                    mSearchFrom = Math.max(open + 4, mLength - 2);
+                    return;
+                }
+                mPosition = end + 3;
+                mSearchFrom = 0;
+                continue;
+            }
+            int close = indexOf((byte) '>', Math.max(open, mSearchFrom));
+            if (close == -1) {
+                mPosition = open;
+                mSearchFrom = mLength;
+                return;
+            }
+            mPosition = close + 1;
+            mSearchFrom = 0;
+
+            if (isTag(open, "<title")) {
+                mTitleStart = close + 1;
+            } else if (isTag(open, "<meta")) {
+                meta(open, close);
+            } else if (isTag(open, "</head") || isTag(open, "<body")) {
+                mDone = true;
+            }
+        }
+    }
+
+    private void meta(int start, int end) {
+        if (mOpenGraph && (indexOf("property=\"og:title\"", start, end) != -1 || indexOf("property='og:title'", start, end) != -1)) {
+            int[] content = attribute("content=", start, end);
+            if (content != null) {
+                String title = decode(content[0], content[1]);
+                if (title != null) {
+                    mTitle = title;
+                    mDone = true;
+                }
+            }
+            return;
+        }
+        if (mCharset != null) {
+            return;
+        }
+        // Covers both <meta charset="x"> and <meta http-equiv="Content-Type" content="text/html; charset=x">
+        int index = indexOf("charset=", start, end);
+        if (index == -1) {
+            return;
+        }
+        int valueStart = index + 8;
+        while (valueStart < end && (mBuffer[valueStart] == '"' || mBuffer[valueStart] == '\'' || mBuffer[valueStart] == ' ')) {
+            valueStart++;
+        }
+        int valueEnd = valueStart;
+        while (valueEnd < end && mBuffer[valueEnd] != '"' && mBuffer[valueEnd] != '\'' && mBuffer[valueEnd] != ';' &&
+                mBuffer[valueEnd] != ' ' && mBuffer[valueEnd] != '/' && mBuffer[valueEnd] != '>') {
+            valueEnd++;
+        }
+        try {
+            mCharset = Charset.forName(new String(mBuffer, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            // Unknown charset, fall back to the default
+        }
+    }
+
+    /**
+     * @return Start and end of a quoted attribute value within a tag.
+     */
+    private int[] attribute(String name, int start, int end) {
+        int index = indexOf(name, start, end);
+        if (index == -1 || index + name.length() >= end) {
+            return null;
+        }
+        int valueStart = index + name.length();
+        byte quote = mBuffer[valueStart];
+        if (quote != '"' && quote != '\'') {
+            return null;
+        }
+        for (int i = valueStart + 1; i < end; i++) {
+            if (mBuffer[i] == quote) {
+                return new int[] {valueStart + 1, i};
+            }
+        }
+        return null;
+    }
+
+    private String decode(int start, int end) {
+        String title = new String(mBuffer, start, end - start, mCharset != null ? mCharset : StandardCharsets.UTF_8);
+        title = StringEscapeUtils.unescapeHtml4(title.replaceAll("\\s+", " ").trim());
+        return title.isEmpty() ? null : title;
+    }
+
+    private boolean isTag(int position, String name) {
+        if (!startsWith(position, name)) {
+            return false;
+        }
+        int next = position + name.length();
+        return next < mLength && (mBuffer[next] == '>' || mBuffer[next] == '/' || (mBuffer[next] & 0xff) <= ' ');
+    }
+
+    private boolean startsWith(int position, String prefix) {
+        if (position + prefix.length() > mLength) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            byte b = mBuffer[position + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte b, int from) {
+        for (int i = from; i < mLength; i++) {
+            if (mBuffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(String string, int from) {
+        return indexOf(string, from, mLength);
+    }
+
+    private int indexOf(String string, int from, int to) {
+        for (int i = from; i <= to - string.length(); i++) {
+            if (startsWith(i, string)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -19,12 +19,14 @@
 
 package com.nebkat.plugin.url;
 
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ContentType;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
@@ -33,21 +35,51 @@ import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
 import com.nebkat.junglist.bot.http.ConnectionManager;
+import com.nebkat.junglist.bot.http.SingleFlight;
 import com.nebkat.junglist.bot.plugin.Plugin;
+import com.nebkat.junglist.bot.scheduler.Scheduler;
 import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.events.irc.PrivMessageEvent;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class URLPlugin extends Plugin<URLPlugin.Config> {
     private static final Pattern URL_MATCHER = Pattern.compile("\\b(https?|ftp)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]");
-    private static final Pattern TITLE_MATCHER = Pattern.compile("<title.*?>(.*?)</title>");
+    private static final int DEFAULT_MAX_BYTES = 32 * 1024;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    private static final int DEFAULT_MAX_URLS = 3;
+    private static final long DEFAULT_DEADLINE = 8000;
+
+    private static final int CACHE_SIZE = 1024;
+    private static final long TITLE_TTL = 60 * 60 * 1000;
+    private static final long NOT_HTML_TTL = 24 * 60 * 60 * 1000;
+    private static final long ERROR_TTL = 10 * 60 * 1000;
+    private static final long TIMEOUT_TTL = 5 * 60 * 1000;
+
+    private final TitleCache mTitleCache = new TitleCache(CACHE_SIZE);
+    private final Map<String, DomainPolicy> mPolicies = new HashMap<>();
+    private final Map<String, DomainPolicy> mHostPolicies = new LinkedHashMap<String, DomainPolicy>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DomainPolicy> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
 
     @EventHandler
     @CommandFilter("url")
@@ -61,14 +93,14 @@ public class URLPlugin extends Plugin<URLPlugin.Config> {
         final String channel = e.getParams().length < 2 ? e.getTarget().getName() : e.getParams()[1];
         if (action.equalsIgnoreCase("add")) {
             if (mConfig.channels.stream().anyMatch((c) -> c.equalsIgnoreCase(channel))) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + channel + " already in URL title list");
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + channel + " already in URL title list");
                 return;
             }
             mConfig.channels.add(channel);
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + channel + " added to URL title list");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + channel + " added to URL title list");
         } else if (action.equalsIgnoreCase("remove")) {
             mConfig.channels.removeIf((c) -> c.equalsIgnoreCase(channel));
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + channel + " removed from URL title list");
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + channel + " removed from URL title list");
         } else {
             e.showUsage(getBot());
         }
@@ -83,68 +115,179 @@ public class URLPlugin extends Plugin<URLPlugin.Config> {
             return;
         }
 
+        List<String> urls = new ArrayList<>();
+        int maxUrls = mConfig.maxUrls > 0 ? mConfig.maxUrls : DEFAULT_MAX_URLS;
         Matcher matcher = URL_MATCHER.matcher(e.getMessage());
-        if (!matcher.find()) {
+        while (matcher.find() && urls.size() < maxUrls) {
+            if (!urls.contains(matcher.group())) {
+                urls.add(matcher.group());
+            }
+        }
+        if (urls.isEmpty()) {
             return;
         }
-        String url = matcher.group();
 
-        HttpGet get = new HttpGet(url);
+        // Fetch every link in parallel and reply once all of them are done or the deadline passed
+        List<CompletableFuture<String>> titles = new ArrayList<>();
+        urls.forEach((url) -> titles.add(getTitle(url)));
+        CompletableFuture<Void> all = CompletableFuture.allOf(titles.toArray(new CompletableFuture<?>[titles.size()]));
+        Scheduler.Task deadline = getScheduler().schedule(() -> all.complete(null),
+                mConfig.deadline > 0 ? mConfig.deadline : DEFAULT_DEADLINE, TimeUnit.MILLISECONDS);
+        all.whenComplete((result, throwable) -> {
+            deadline.cancel();
+            reply(e, titles);
+        });
+    }
 
-        // Execute the request
-        HttpContext context = new BasicHttpContext();
-        HttpResponse response;
-        try {
-            response = ConnectionManager.getHttpClient().execute(get, context);
-        } catch (IOException ex) {
-            get.abort();
+    private void reply(PrivMessageEvent e, List<CompletableFuture<String>> titles) {
+        List<String> lines = new ArrayList<>();
+        for (CompletableFuture<String> title : titles) {
+            if (!title.isDone()) {
+                title.cancel(true);
+            } else if (!title.isCompletedExceptionally() && title.getNow(null) != null) {
+                lines.add(title.getNow(null));
+            }
+        }
+        if (lines.isEmpty()) {
             return;
         }
+        if (mConfig.combine) {
+            getOutput().message(e.getSession(), e.getTarget(), String.join(" | ", lines));
+        } else {
+            lines.forEach((line) -> getOutput().message(e.getSession(), e.getTarget(), line));
+        }
+    }
 
-        Header contentType = response.getEntity().getContentType();
-        if (contentType == null) {
-            get.abort();
-            return;
+    /**
+     * @return Title line for a link, or null if it has no usable title or may not be fetched right now.
+     */
+    private CompletableFuture<String> getTitle(String url) {
+        TitleCache.Entry cached = mTitleCache.get(url);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.getTitle());
         }
-        String mimeType = contentType.getValue().split(";")[0].trim();
-        if (!mimeType.equals("text/html") || response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-            get.abort();
-            return;
+
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException ex) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (host == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        DomainPolicy policy = getPolicy(host.toLowerCase());
+        if (policy.isSkipped()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        SingleFlight singleFlight = ConnectionManager.getSingleFlight();
+        return singleFlight.submit(singleFlight.key("GET", url), () -> fetchTitle(url, policy))
+                .thenApply((entry) -> entry != null ? entry.getTitle() : null);
+    }
+
+    /**
+     * @return Policy of the most specific configured domain matching the host, or a default policy for the host.
+     */
+    private DomainPolicy getPolicy(String host) {
+        synchronized (mPolicies) {
+            if (mPolicies.isEmpty() && mConfig.domains != null) {
+                mConfig.domains.forEach((domain, rules) -> mPolicies.put(domain.toLowerCase(), new DomainPolicy(rules.skip,
+                        rules.maxBytes > 0 ? rules.maxBytes : getMaxBytes(), rules.extractor, rules.rateLimit,
+                        rules.maxInFlight > 0 ? rules.maxInFlight : DEFAULT_MAX_IN_FLIGHT)));
+            }
+            for (String domain = host; domain != null; domain = domain.indexOf('.') != -1 ? domain.substring(domain.indexOf('.') + 1) : null) {
+                DomainPolicy policy = mPolicies.get(domain);
+                if (policy != null) {
+                    return policy;
+                }
+            }
         }
+        synchronized (mHostPolicies) {
+            return mHostPolicies.computeIfAbsent(host, (h) -> new DomainPolicy(false, getMaxBytes(), DomainPolicy.EXTRACTOR_TITLE, 0, DEFAULT_MAX_IN_FLIGHT));
+        }
+    }
 
+    private int getMaxBytes() {
+        return mConfig.maxBytes > 0 ? mConfig.maxBytes : DEFAULT_MAX_BYTES;
+    }
+
+    /**
+     * @return Cache entry for a link, or null if it may not be fetched right now or the fetch was cancelled.
+     */
+    private CompletableFuture<TitleCache.Entry> fetchTitle(String url, DomainPolicy policy) {
+        HttpGet get;
+        try {
+            get = new HttpGet(url);
+        } catch (IllegalArgumentException ex) {
+            return CompletableFuture.completedFuture(TitleCache.Entry.negative(NOT_HTML_TTL));
+        }
+
+        // Rate limited and busy domains are not cached, the link is tried again next time
+        if (!policy.acquire()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        HttpContext context = new BasicHttpContext();
+        return getHttp().execute(get, context, -1, (response) -> readTitle(get, context, response, policy))
+                .handle((title, throwable) -> {
+                    policy.release();
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    TitleCache.Entry entry;
+                    if (cause instanceof CancellationException) {
+                        return null;
+                    } else if (cause instanceof SocketTimeoutException || cause instanceof ConnectTimeoutException ||
+                            cause instanceof TimeoutException) {
+                        entry = TitleCache.Entry.negative(TIMEOUT_TTL);
+                    } else if (cause != null) {
+                        entry = TitleCache.Entry.negative(ERROR_TTL);
+                    } else if (title != null) {
+                        entry = TitleCache.Entry.title(title, TITLE_TTL);
+                    } else {
+                        entry = TitleCache.Entry.negative(NOT_HTML_TTL);
+                    }
+                    mTitleCache.put(url, entry);
+                    return entry;
+                });
+    }
+
+    /**
+     * @return Title line for a link, or null if the page is not HTML or has no usable title.
+     */
+    private String readTitle(HttpGet get, HttpContext context, HttpResponse response, DomainPolicy policy)
+            throws IOException {
         if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
             get.abort();
-            return;
+            throw new HttpResponseException(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase());
+        }
+        Header contentType = response.getEntity() != null ? response.getEntity().getContentType() : null;
+        if (contentType == null) {
+            get.abort();
+            return null;
+        }
+        String mimeType = contentType.getValue().split(";")[0].trim();
+        if (!mimeType.equals("text/html")) {
+            get.abort();
+            return null;
         }
 
         HttpHost currentHost = (HttpHost) context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
         boolean redirected = context.getAttribute(ConnectionManager.REDIRECTED) != null;
 
-        StringBuilder page = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (page.length() > 2 * 1024 * 1024) {
-                    reader.close();
-                    get.abort();
-                    return;
-                }
-                page.append(line);
-                matcher = TITLE_MATCHER.matcher(page);
-                if (matcher.find()) {
-                    String title = StringEscapeUtils.unescapeHtml4(matcher.group(1).trim());
-                    if (title.length() <= 0) {
-                        return;
-                    } else if (title.length() > 100) {
-                        title = title.substring(0, 100) + "...";
-                    }
-                    Irc.message(e.getSession(), e.getTarget(), "[Link] " + Irc.TEXT_BOLD + currentHost.toHostString() + Irc.TEXT_RESET + (redirected ? " [redirected]" : "") + ": " + title);
-                    return;
-                }
-            }
-        } catch (IOException ex) {
-            // Ignore
+        ContentType type = ContentType.get(response.getEntity());
+        String title;
+        try (InputStream in = response.getEntity().getContent()) {
+            title = TitleExtractor.extract(in, type != null ? type.getCharset() : null, policy.getMaxBytes(), policy.isOpenGraph());
+        } finally {
+            // Do not download the rest of the page
+            get.abort();
         }
+        if (title == null) {
+            return null;
+        } else if (title.length() > 100) {
+            title = title.substring(0, 100) + "...";
+        }
+        String host = currentHost != null ? currentHost.toHostString() : get.getURI().getHost();
+        return "[Link] " + Irc.TEXT_BOLD + host + Irc.TEXT_RESET + (redirected ? " [redirected]" : "") + ": " + title;
     }
 
     public void onCreate() {
@@ -154,5 +297,18 @@ public class URLPlugin extends Plugin<URLPlugin.Config> {
     public class Config {
         public List<String> channels;
         public List<String> ignore;
+        public int maxBytes;
+        public Map<String, Domain> domains;
+        public int maxUrls;
+        public long deadline;
+        public boolean combine;
+    }
+
+    public class Domain {
+        public boolean skip;
+        public int maxBytes;
+        public String extractor;
+        public int rateLimit;
+        public int maxInFlight;
     }
 }
@@ -20,64 +20,38 @@
 package com.nebkat.plugin.xkcd;
 
 
-import com.google.gson.Gson;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.protocol.BasicHttpContext;
-import org.apache.http.protocol.HttpContext;
 import com.nebkat.junglist.bot.command.Command;
 import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
 import com.nebkat.junglist.bot.command.UserLevel;
-import com.nebkat.junglist.bot.http.ConnectionManager;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.events.irc.PrivMessageEvent;
 import com.nebkat.junglist.irc.utils.Utils;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 public class XKCDPlugin extends Plugin<XKCDPlugin.Config> {
     private static final String XKCD_API_URL = "http://xkcd.com/%1$s/info.0.json";
-
-    private final Gson mGson = new Gson();
+    private static final long COMIC_CACHE_TTL = 24 * 60 * 60 * 1000;
+    private static final long LATEST_CACHE_TTL = 10 * 60 * 1000;
 
     @EventHandler
     @CommandFilter("xkcd")
     public void onCommand(CommandEvent e) {
-        String url = String.format(XKCD_API_URL, Utils.indexOrDefault(e.getParams(), 0, ""));
-
-        HttpGet get = new HttpGet(url);
-
-        // Execute the request
-        HttpContext context = new BasicHttpContext();
-        HttpResponse response;
-        try {
-            response = ConnectionManager.getHttpClient().execute(get, context);
-        } catch (IOException ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching comic info");
-            return;
-        }
-
-        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching comic info");
-            return;
-        }
-
-        XKCDResult result;
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()))) {
-            result = mGson.fromJson(reader, XKCDResult.class);
-        } catch (Exception ex) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error parsing comic info");
-            return;
-        }
-
-        Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result.title + " [" + result.day + "/" + result.month + "/" + result.year + "]: " + result.img + " (" + result.alt + ")");
+        String comic = Utils.indexOrDefault(e.getParams(), 0, "");
+        String url = String.format(XKCD_API_URL, comic);
+
+        getHttp().<XKCDResult>getJson(url, XKCDResult.class, comic.isEmpty() ? LATEST_CACHE_TTL : COMIC_CACHE_TTL).whenComplete((result, throwable) -> {
+            if (throwable instanceof CancellationException) {
+                return;
+            } else if (throwable != null || result == null) {
+                getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error fetching comic info");
+                return;
+            }
+            getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + result.title + " [" + result.day + "/" + result.month + "/" + result.year + "]: " + result.img + " (" + result.alt + ")");
+        });
     }
 
     @EventHandler
@@ -85,7 +59,7 @@ public class XKCDPlugin extends Plugin<XKCDPlugin.Config> {
         mConfig.responses.entrySet().stream()
                 .filter((entry) -> e.getMessage().equalsIgnoreCase(entry.getKey()))
                 .findAny()
-                .ifPresent((entry) -> Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + entry.getValue()));
+                .ifPresent((entry) -> getOutput().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + entry.getValue()));
     }
 
     @Override
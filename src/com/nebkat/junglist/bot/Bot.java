@@ -22,7 +22,10 @@ package com.nebkat.junglist.bot;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.nebkat.junglist.bot.command.CommandManager;
+import com.nebkat.junglist.bot.http.AsyncHttpClient;
+import com.nebkat.junglist.bot.http.ConnectionManager;
 import com.nebkat.junglist.bot.plugin.PluginManager;
+import com.nebkat.junglist.bot.scheduler.Scheduler;
 import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.Session;
@@ -48,11 +51,17 @@ import java.util.List;
 public class Bot implements InputThread.Callback, EventListener {
     private static final String TAG = "Bot";
 
+    private static final long SCHEDULER_TICK = 100;
+    private static final int SCHEDULER_WHEEL_SIZE = 512;
+
     private InputThread mCliInputThread;
 
     private Configuration mConfiguration;
 
     private final Irc mIrc;
+    private final OutputQueue mOutputQueue;
+    private final AsyncHttpClient mHttpClient;
+    private final Scheduler mScheduler;
     private final PluginManager mPluginManager;
     private final CommandManager mCommandManager;
     private Session mSession;
@@ -87,6 +96,15 @@ public class Bot implements InputThread.Callback, EventListener {
         mIrc = new Irc();
         mIrc.getEventHandlerManager().registerEvents(this);
 
+        Configuration.BotConfiguration bot = mConfiguration.getBotConfiguration();
+        mOutputQueue = new OutputQueue(bot.getOutputBurst(), bot.getOutputInterval(), bot.getTargetBurst(), bot.getTargetInterval());
+        ConnectionManager.configureHttpCache(bot.getHttpCacheSize(),
+                bot.getHttpCacheDirectory() != null ? new File(bot.getHttpCacheDirectory()) : null, bot.getHttpCacheDiskSize());
+        mHttpClient = new AsyncHttpClient(ConnectionManager.getHttpClient(), bot.getHttpMaxPerHost(),
+                bot.getHttpConnectTimeout(), bot.getHttpReadTimeout(), bot.getHttpTimeout());
+
+        mScheduler = new Scheduler(SCHEDULER_TICK, SCHEDULER_WHEEL_SIZE);
+
         Log.v(TAG, "Opening CLI input thread");
         mCliInputThread = new InputThread(System.in, this);
         mCliInputThread.start();
@@ -110,7 +128,7 @@ public class Bot implements InputThread.Callback, EventListener {
         if (auth != null) {
             switch (auth.getService()) {
                 case NickServ:
-                    Irc.message(mSession, "NickServ", "IDENTIFY " + auth.getUser() + " " + auth.getPass());
+                    mOutputQueue.message(mSession, "NickServ", "IDENTIFY " + auth.getUser() + " " + auth.getPass(), OutputQueue.Priority.AUTH);
                     break;
             }
         }
@@ -128,6 +146,21 @@ public class Bot implements InputThread.Callback, EventListener {
         return mIrc;
     }
 
+    public OutputQueue getOutputQueue() {
+        return mOutputQueue;
+    }
+
+    public AsyncHttpClient getHttpClient() {
+        return mHttpClient;
+    }
+
+    /**
+     * @return Scheduler shared by the bot, plugins should use {@link com.nebkat.junglist.bot.plugin.Plugin#getScheduler()}.
+     */
+    public Scheduler getScheduler() {
+        return mScheduler;
+    }
+
     public Session getSession() {
         return mSession;
     }
@@ -158,6 +191,7 @@ public class Bot implements InputThread.Callback, EventListener {
     @EventHandler
     public void onDisconnect(SessionDisconnectEvent e) {
         Log.w(TAG, "Disconnected from " + e.getSession().getServer());
+        mOutputQueue.clear(e.getSession());
         Configuration.IrcConfiguration.ServerConfiguration server = mConfiguration.getIrcConfiguration().getServerConfiguration();
         String host = server.getName() + (server.getPort() != -1 ? ":" + server.getPort() : "");
         while (true) {
@@ -216,7 +250,27 @@ public class Bot implements InputThread.Callback, EventListener {
 
         if (mPluginManager != null) {
             Log.i(TAG, "Closing Plugin Manager");
-            mPluginManager.unloadPlugins();
+            mPluginManager.close();
+        }
+
+        if (mCommandManager != null) {
+            Log.i(TAG, "Closing Command Manager");
+            mCommandManager.close();
+        }
+
+        if (mOutputQueue != null) {
+            Log.i(TAG, "Closing Output Queue");
+            mOutputQueue.close();
+        }
+
+        if (mHttpClient != null) {
+            Log.i(TAG, "Closing HTTP client");
+            mHttpClient.shutdown();
+        }
+
+        if (mScheduler != null) {
+            Log.i(TAG, "Closing scheduler");
+            mScheduler.shutdown();
         }
 
         if (mCliInputThread != null) {
@@ -233,6 +287,10 @@ public class Bot implements InputThread.Callback, EventListener {
         return new File(mConfiguration.getBotConfiguration().getPlugins());
     }
 
+    public Configuration getConfiguration() {
+        return mConfiguration;
+    }
+
     public String getCommandPrefix() {
         return mConfiguration.getBotConfiguration().getPrefix();
     }
@@ -27,6 +27,22 @@ public final class Configuration {
         private String levels;
         private String plugins;
         private String prefix;
+        private String pluginChecksum = "MD5";
+        private boolean pluginWatch = true;
+        private int commandConcurrency = 1;
+        private int commandQueue = 16;
+        private long commandTimeout = 30000;
+        private int outputBurst = 5;
+        private long outputInterval = 1000;
+        private int targetBurst = 4;
+        private long targetInterval = 1500;
+        private long httpCacheSize = 16 * 1024 * 1024;
+        private String httpCacheDirectory = "cache/http";
+        private long httpCacheDiskSize = 64 * 1024 * 1024;
+        private int httpMaxPerHost = 4;
+        private int httpConnectTimeout = 10000;
+        private int httpReadTimeout = 15000;
+        private long httpTimeout = 30000;
 
         public String getLevels() {
             return levels;
@@ -39,6 +55,118 @@ public final class Configuration {
         public String getPrefix() {
             return prefix;
         }
+
+        /**
+         * @return Algorithm used for plugin jar checksums, MD5, CRC32 or CRC64.
+         */
+        public String getPluginChecksum() {
+            return pluginChecksum;
+        }
+
+        /**
+         * @return Whether new or changed jars in the plugin directory are deployed automatically.
+         */
+        public boolean getPluginWatch() {
+            return pluginWatch;
+        }
+
+        /**
+         * @return Maximum command handlers running at once per plugin, unless the plugin description asks for more.
+         */
+        public int getCommandConcurrency() {
+            return commandConcurrency;
+        }
+
+        /**
+         * @return Maximum command handlers waiting per plugin.
+         */
+        public int getCommandQueue() {
+            return commandQueue;
+        }
+
+        /**
+         * @return Milliseconds after which a running command handler is interrupted, 0 to disable.
+         */
+        public long getCommandTimeout() {
+            return commandTimeout;
+        }
+
+        /**
+         * @return Lines that can be sent to a server in a burst.
+         */
+        public int getOutputBurst() {
+            return outputBurst;
+        }
+
+        /**
+         * @return Milliseconds per line sent to a server after a burst.
+         */
+        public long getOutputInterval() {
+            return outputInterval;
+        }
+
+        /**
+         * @return Lines that can be sent to a single target in a burst.
+         */
+        public int getTargetBurst() {
+            return targetBurst;
+        }
+
+        /**
+         * @return Milliseconds per line sent to a single target after a burst.
+         */
+        public long getTargetInterval() {
+            return targetInterval;
+        }
+
+        /**
+         * @return Maximum bytes of HTTP responses cached in memory.
+         */
+        public long getHttpCacheSize() {
+            return httpCacheSize;
+        }
+
+        /**
+         * @return Directory HTTP responses are cached in, null to disable the disk cache.
+         */
+        public String getHttpCacheDirectory() {
+            return httpCacheDirectory;
+        }
+
+        /**
+         * @return Maximum bytes of HTTP responses cached on disk.
+         */
+        public long getHttpCacheDiskSize() {
+            return httpCacheDiskSize;
+        }
+
+        /**
+         * @return Maximum asynchronous HTTP requests in flight to a single host.
+         */
+        public int getHttpMaxPerHost() {
+            return httpMaxPerHost;
+        }
+
+        /**
+         * @return HTTP connect timeout in milliseconds.
+         */
+        public int getHttpConnectTimeout() {
+            return httpConnectTimeout;
+        }
+
+        /**
+         * @return HTTP socket read timeout in milliseconds.
+         */
+        public int getHttpReadTimeout() {
+            return httpReadTimeout;
+        }
+
+        /**
+         * @return Milliseconds after which an asynchronous HTTP request is aborted, 0 to disable.
+         */
+        public long getHttpTimeout() {
+            return httpTimeout;
+        }
     }
 
     public static class IrcConfiguration {
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot;
+
+import com.nebkat.junglist.irc.Irc;
+import com.nebkat.junglist.irc.Log;
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.Target;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flood controlled queue for outgoing lines.
+ *
+ * Lines are sent from a single thread in priority order, limited by a token bucket per session and one per target.
+ * Consecutive messages to the same target are merged into one line where they fit, and replies and announcements
+ * that could not be sent before their deadline are dropped.
+ */
+public class OutputQueue {
+    private static final String TAG = "OutputQueue";
+
+    // The server relays lines prefixed with ":nick!user@host ", which is not known up front, so room is kept for a
+    // long nick, ident and hostname
+    private static final int MAX_PREFIX_LENGTH = 1 + 30 + 1 + 10 + 1 + 63 + 1;
+    private static final int MAX_LINE_LENGTH = 510 - MAX_PREFIX_LENGTH;
+    private static final String SEPARATOR = " | ";
+    private static final int MAX_IDLE_BUCKETS = 256;
+
+    public enum Priority {
+        AUTH(0),
+        OP(0),
+        REPLY(30000),
+        ANNOUNCEMENT(120000);
+
+        private final long deadline;
+
+        private Priority(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return Milliseconds after which a queued line is dropped, 0 if never.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<Line>[] mLanes;
+    private final Map<Session, Bucket> mSessionBuckets = new HashMap<>();
+    private final Map<Session, Map<String, Bucket>> mTargetBuckets = new HashMap<>();
+
+    private final int mSessionBurst;
+    private final long mSessionInterval;
+    private final int mTargetBurst;
+    private final long mTargetInterval;
+
+    private final Thread mThread;
+    private volatile boolean mRunning = true;
+
+    private final AtomicLong mSent = new AtomicLong();
+    private final AtomicLong mMerged = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mLatency = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public OutputQueue(int sessionBurst, long sessionInterval, int targetBurst, long targetInterval) {
+        mSessionBurst = Math.max(1, sessionBurst);
+        mSessionInterval = sessionInterval;
+        mTargetBurst = Math.max(1, targetBurst);
+        mTargetInterval = targetInterval;
+
+        mLanes = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new ArrayDeque<>();
+        }
+
+        mThread = new Thread(this::run, "OutputQueue");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public void message(Session session, Target target, String message) {
+        message(session, target.getName(), message, Priority.REPLY);
+    }
+
+    public void message(Session session, String target, String message) {
+        message(session, target, message, Priority.REPLY);
+    }
+
+    public void message(Session session, String target, String message, Priority priority) {
+        enqueue(new Line(session, "PRIVMSG", target, message, priority));
+    }
+
+    public void notice(Session session, String target, String message) {
+        enqueue(new Line(session, "NOTICE", target, message, Priority.REPLY));
+    }
+
+    /**
+     * Queues a raw protocol line.
+     */
+    public void write(Session session, String line, Priority priority) {
+        enqueue(new Line(session, null, null, line, priority));
+    }
+
+    /**
+     * Drops every line queued for a session, used when the session has been disconnected.
+     */
+    public void clear(Session session) {
+        synchronized (mLock) {
+            for (ArrayDeque<Line> lane : mLanes) {
+                lane.removeIf((line) -> line.mSession == session);
+            }
+            mSessionBuckets.remove(session);
+            mTargetBuckets.remove(session);
+        }
+    }
+
+    public void close() {
+        mRunning = false;
+        mThread.interrupt();
+    }
+
+    public int getQueueDepth(Priority priority) {
+        synchronized (mLock) {
+            return mLanes[priority.ordinal()].size();
+        }
+    }
+
+    public long getSent() {
+        return mSent.get();
+    }
+
+    public long getMerged() {
+        return mMerged.get();
+    }
+
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return Average time between queueing and sending a line in milliseconds.
+     */
+    public long getAverageLatency() {
+        long sent = mSent.get();
+        return sent > 0 ? mLatency.get() / sent : 0;
+    }
+
+    private void enqueue(Line line) {
+        if (line.mSession == null) {
+            return;
+        }
+        synchronized (mLock) {
+            mLanes[line.mPriority.ordinal()].add(line);
+            mLock.notify();
+        }
+    }
+
+    private void run() {
+        while (mRunning) {
+            Line line;
+            try {
+                line = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Irc.write(line.mSession, line.toString());
+                mSent.incrementAndGet();
+                mLatency.addAndGet(System.currentTimeMillis() - line.mTime);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not write line", e);
+            }
+        }
+    }
+
+    private Line take() throws InterruptedException {
+        synchronized (mLock) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long wait = 0;
+                for (ArrayDeque<Line> lane : mLanes) {
+                    Iterator<Line> iterator = lane.iterator();
+                    while (iterator.hasNext()) {
+                        Line line = iterator.next();
+                        if (line.expired(now)) {
+                            iterator.remove();
+                            mDropped.incrementAndGet();
+                            continue;
+                        }
+                        Bucket session = getSessionBucket(line.mSession);
+                        Bucket target = getTargetBucket(line);
+                        long ready = Math.max(session.readyAt(now), target != null ? target.readyAt(now) : now);
+                        if (ready <= now) {
+                            iterator.remove();
+                            session.take();
+                            if (target != null) {
+                                target.take();
+                            }
+                            merge(line, lane, now);
+                            return line;
+                        }
+                        wait = wait == 0 ? ready - now : Math.min(wait, ready - now);
+                    }
+                }
+                if (wait == 0) {
+                    pruneBuckets(now);
+                }
+                mLock.wait(wait);
+            }
+        }
+    }
+
+    private void merge(Line line, ArrayDeque<Line> lane, long now) {
+        if (line.mCommand == null) {
+            return;
+        }
+        Iterator<Line> iterator = lane.iterator();
+        while (iterator.hasNext()) {
+            Line next = iterator.next();
+            if (next.mSession != line.mSession || next.mTarget == null || !next.mTarget.equalsIgnoreCase(line.mTarget)) {
+                continue;
+            }
+            if (next.expired(now)) {
+                iterator.remove();
+                mDropped.incrementAndGet();
+                continue;
+            }
+            if (!line.mCommand.equals(next.mCommand) || !line.append(next)) {
+                // Keep the order of lines to this target
+                return;
+            }
+            iterator.remove();
+            mMerged.incrementAndGet();
+        }
+    }
+
+    private Bucket getSessionBucket(Session session) {
+        return mSessionBuckets.computeIfAbsent(session, (s) -> new Bucket(mSessionBurst, mSessionInterval));
+    }
+
+    private Bucket getTargetBucket(Line line) {
+        if (line.mTarget == null) {
+            return null;
+        }
+        return mTargetBuckets.computeIfAbsent(line.mSession, (s) -> new HashMap<>())
+                .computeIfAbsent(line.mTarget.toLowerCase(), (t) -> new Bucket(mTargetBurst, mTargetInterval));
+    }
+
+    private void pruneBuckets(long now) {
+        for (Map<String, Bucket> buckets : mTargetBuckets.values()) {
+            if (buckets.size() > MAX_IDLE_BUCKETS) {
+                buckets.values().removeIf((bucket) -> bucket.full(now));
+            }
+        }
+    }
+
+    private static class Bucket {
+        private final int mCapacity;
+        private final long mInterval;
+        private double mTokens;
+        private long mTime;
+
+        private Bucket(int capacity, long interval) {
+            mCapacity = capacity;
+            mInterval = interval;
+            mTokens = capacity;
+            mTime = System.currentTimeMillis();
+        }
+
+        private void refill(long now) {
+            if (mInterval <= 0) {
+                mTokens = mCapacity;
+            } else if (now > mTime) {
+                mTokens = Math.min(mCapacity, mTokens + (double) (now - mTime) / mInterval);
+            }
+            mTime = now;
+        }
+
+        private long readyAt(long now) {
+            refill(now);
+            return mTokens >= 1 ? now : now + (long) Math.ceil((1 - mTokens) * mInterval);
+        }
+
+        private void take() {
+            mTokens--;
+        }
+
+        private boolean full(long now) {
+            refill(now);
+            return mTokens >= mCapacity;
+        }
+    }
+
+    private static class Line {
+        private final Session mSession;
+        private final String mCommand;
+        private final String mTarget;
+        private final Priority mPriority;
+        private final long mTime = System.currentTimeMillis();
+        private String mText;
+        private int mLength;
+
+        private Line(Session session, String command, String target, String text, Priority priority) {
+            mSession = session;
+            mCommand = command;
+            mTarget = target;
+            mText = text;
+            mPriority = priority;
+            mLength = toString().getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        private boolean expired(long now) {
+            return mPriority.getDeadline() > 0 && now - mTime > mPriority.getDeadline();
+        }
+
+        private boolean append(Line line) {
+            int length = mLength + SEPARATOR.length() + line.mText.getBytes(StandardCharsets.UTF_8).length;
+            if (length > MAX_LINE_LENGTH) {
+                return false;
+            }
+            mText = mText + SEPARATOR + line.mText;
+            mLength = length;
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return mCommand != null ? mCommand + " " + mTarget + " :" + mText : mText;
+        }
+    }
+}
@@ -20,7 +20,6 @@
 package com.nebkat.junglist.bot.command;
 
 import com.nebkat.junglist.bot.Bot;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.Session;
 import com.nebkat.junglist.irc.Source;
 import com.nebkat.junglist.irc.Target;
@@ -85,7 +84,7 @@ public class CommandEvent extends MessageEvent {
 
 
     public void showUsage(Bot bot) {
-        Irc.message(getSession(), getTarget(), getSource().getNick() + ": Usage " + bot.getCommandPrefix() + getCommand().getName() + " " + getCommand().getUsage());
+        bot.getOutputQueue().message(getSession(), getTarget(), getSource().getNick() + ": Usage " + bot.getCommandPrefix() + getCommand().getName() + " " + getCommand().getUsage());
     }
 
     @Override
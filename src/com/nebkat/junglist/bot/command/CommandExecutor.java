@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.command;
+
+import com.nebkat.junglist.bot.TaskExecutors;
+import com.nebkat.junglist.bot.plugin.Plugin;
+import com.nebkat.junglist.irc.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs command handlers off the IRC thread. Every plugin gets its own lane with a bounded number of concurrently
+ * running handlers and a bounded queue, so a slow plugin can only ever exhaust its own lane. Handlers of a plugin run
+ * one at a time unless the bot configuration or the plugin description allows more.
+ */
+public class CommandExecutor {
+    private static final String TAG = "CommandExecutor";
+
+    private final ExecutorService mExecutor;
+    private final ScheduledExecutorService mWatchdog;
+
+    private final int mConcurrency;
+    private final int mQueueSize;
+    private final long mTimeout;
+
+    private final Map<Plugin, Lane> mLanes = new HashMap<>();
+    private final Lane mCoreLane;
+
+    public CommandExecutor(int concurrency, int queueSize, long timeout) {
+        mConcurrency = Math.max(1, concurrency);
+        mQueueSize = Math.max(0, queueSize);
+        mTimeout = timeout;
+
+        mExecutor = TaskExecutors.newTaskExecutor("CommandExecutor");
+        mWatchdog = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "CommandExecutor-Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mCoreLane = new Lane("core", mConcurrency);
+    }
+
+    /**
+     * Queues a handler on the lane of the given plugin.
+     *
+     * @param plugin Plugin owning the command, or null for bot commands.
+     * @param task Handler to run.
+     * @return False if the lane queue is full and the handler was rejected.
+     */
+    public boolean execute(Plugin plugin, Runnable task) {
+        return getLane(plugin).submit(task);
+    }
+
+    /**
+     * Drops the lane of a plugin, cancelling queued and running handlers.
+     */
+    public void remove(Plugin plugin) {
+        Lane lane;
+        synchronized (mLanes) {
+            lane = mLanes.remove(plugin);
+        }
+        if (lane != null) {
+            lane.cancel();
+        }
+    }
+
+    /**
+     * @return Statistics of the lane of a plugin, empty if it has not run any commands.
+     */
+    public Statistics getStatistics(Plugin plugin) {
+        if (plugin == null) {
+            return mCoreLane.mStatistics;
+        }
+        Lane lane;
+        synchronized (mLanes) {
+            lane = mLanes.get(plugin);
+        }
+        return lane != null ? lane.mStatistics : new Statistics();
+    }
+
+    public void shutdown() {
+        mWatchdog.shutdownNow();
+        mExecutor.shutdownNow();
+    }
+
+    private Lane getLane(Plugin plugin) {
+        if (plugin == null) {
+            return mCoreLane;
+        }
+        synchronized (mLanes) {
+            return mLanes.computeIfAbsent(plugin, (p) -> {
+                int concurrency = p.getDescription().getConcurrency();
+                return new Lane(p.getDescription().getName(), concurrency > 0 ? concurrency : mConcurrency);
+            });
+        }
+    }
+
+    private class Lane {
+        private final String mName;
+        private final int mConcurrency;
+        private final ArrayDeque<Task> mQueue = new ArrayDeque<>();
+        private final Map<Task, Future<?>> mRunning = new HashMap<>();
+        private final Statistics mStatistics = new Statistics();
+
+        private Lane(String name, int concurrency) {
+            mName = name;
+            mConcurrency = concurrency;
+        }
+
+        private synchronized boolean submit(Runnable runnable) {
+            if (mRunning.size() >= mConcurrency && mQueue.size() >= mQueueSize) {
+                mStatistics.mRejected.incrementAndGet();
+                return false;
+            }
+            mQueue.add(new Task(runnable));
+            mStatistics.mQueued.incrementAndGet();
+            drain();
+            return true;
+        }
+
+        private synchronized void drain() {
+            while (mRunning.size() < mConcurrency && !mQueue.isEmpty()) {
+                Task task = mQueue.poll();
+                mStatistics.mQueued.decrementAndGet();
+                try {
+                    mRunning.put(task, mExecutor.submit(() -> run(task)));
+                } catch (RejectedExecutionException e) {
+                    return;
+                }
+            }
+        }
+
+        private void run(Task task) {
+            long start = System.nanoTime();
+            mStatistics.mWaitTime.addAndGet(start - task.mQueueTime);
+            ScheduledFuture<?> timeout = mTimeout > 0 ? mWatchdog.schedule(() -> timeout(task), mTimeout, TimeUnit.MILLISECONDS) : null;
+            try {
+                task.mRunnable.run();
+            } catch (Throwable e) {
+                Log.e(TAG, "Command handler in " + mName + " threw an exception", e);
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                mStatistics.mExecutionTime.addAndGet(System.nanoTime() - start);
+                mStatistics.mCompleted.incrementAndGet();
+                synchronized (this) {
+                    mRunning.remove(task);
+                    drain();
+                }
+            }
+        }
+
+        private void timeout(Task task) {
+            Future<?> future;
+            synchronized (this) {
+                future = mRunning.get(task);
+            }
+            if (future != null && future.cancel(true)) {
+                mStatistics.mTimedOut.incrementAndGet();
+                Log.w(TAG, "Command handler in " + mName + " timed out after " + mTimeout + "ms");
+            }
+        }
+
+        private synchronized void cancel() {
+            mQueue.clear();
+            mStatistics.mQueued.set(0);
+            mRunning.values().forEach((future) -> future.cancel(true));
+        }
+    }
+
+    private static class Task {
+        private final Runnable mRunnable;
+        private final long mQueueTime = System.nanoTime();
+
+        private Task(Runnable runnable) {
+            mRunnable = runnable;
+        }
+    }
+
+    public static class Statistics {
+        private final AtomicInteger mQueued = new AtomicInteger();
+        private final AtomicLong mCompleted = new AtomicLong();
+        private final AtomicLong mRejected = new AtomicLong();
+        private final AtomicLong mTimedOut = new AtomicLong();
+        private final AtomicLong mWaitTime = new AtomicLong();
+        private final AtomicLong mExecutionTime = new AtomicLong();
+
+        public int getQueueDepth() {
+            return mQueued.get();
+        }
+
+        public long getCompleted() {
+            return mCompleted.get();
+        }
+
+        public long getRejected() {
+            return mRejected.get();
+        }
+
+        public long getTimedOut() {
+            return mTimedOut.get();
+        }
+
+        /**
+         * @return Average time handlers spent queued in milliseconds.
+         */
+        public long getAverageWaitTime() {
+            long completed = mCompleted.get();
+            return completed > 0 ? TimeUnit.NANOSECONDS.toMillis(mWaitTime.get() / completed) : 0;
+        }
+
+        /**
+         * @return Average handler execution time in milliseconds.
+         */
+        public long getAverageExecutionTime() {
+            long completed = mCompleted.get();
+            return completed > 0 ? TimeUnit.NANOSECONDS.toMillis(mExecutionTime.get() / completed) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "queued: " + getQueueDepth() + ", completed: " + getCompleted() + ", rejected: " + getRejected() +
+                    ", timed out: " + getTimedOut() + ", wait: " + getAverageWaitTime() + "ms, run: " + getAverageExecutionTime() + "ms";
+        }
+    }
+}
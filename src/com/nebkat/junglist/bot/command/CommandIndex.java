@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.command;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable prefix trie over command names and aliases, resolved directly from message characters.
+ */
+final class CommandIndex {
+    static final CommandIndex EMPTY = new CommandIndex(new HashMap<>());
+
+    private final Node mRoot;
+
+    private CommandIndex(Map<String, Command> commands) {
+        mRoot = build(commands, "", 0);
+    }
+
+    /**
+     * Compiles an index from registered commands and aliases. Aliases take precedence over names.
+     *
+     * @param commands Commands by name.
+     * @param aliases Command names by alias.
+     * @return Compiled index.
+     */
+    static CommandIndex compile(Map<String, Command> commands, Map<String, String> aliases) {
+        Map<String, Command> resolved = new HashMap<>(commands);
+        aliases.forEach((alias, name) -> resolved.put(alias, commands.get(name)));
+        resolved.values().removeIf((command) -> command == null);
+        return new CommandIndex(resolved);
+    }
+
+    private static Node build(Map<String, Command> commands, String key, int depth) {
+        TreeMap<Character, Map<String, Command>> branches = new TreeMap<>();
+        Command command = null;
+        for (Map.Entry<String, Command> entry : commands.entrySet()) {
+            if (entry.getKey().length() == depth) {
+                command = entry.getValue();
+            } else {
+                branches.computeIfAbsent(entry.getKey().charAt(depth), (c) -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        char[] chars = new char[branches.size()];
+        Node[] children = new Node[branches.size()];
+        int i = 0;
+        for (Map.Entry<Character, Map<String, Command>> branch : branches.entrySet()) {
+            chars[i] = branch.getKey();
+            children[i] = build(branch.getValue(), key + branch.getKey(), depth + 1);
+            i++;
+        }
+        return new Node(command != null ? key : null, command, chars, children);
+    }
+
+    /**
+     * Resolves the command spanning from {@code start} up to the first space or the end of the message.
+     * Characters are lowercased while walking, no intermediate strings are created.
+     *
+     * @return Matching node, or null if no command is registered under that name.
+     */
+    Node match(String message, int start) {
+        Node node = mRoot;
+        int length = message.length();
+        for (int i = start; i < length; i++) {
+            char c = message.charAt(i);
+            if (c == ' ') {
+                break;
+            }
+            node = node.child(Character.toLowerCase(c));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.mCommand != null ? node : null;
+    }
+
+    Command get(String name) {
+        Node node = mRoot;
+        for (int i = 0; i < name.length() && node != null; i++) {
+            node = node.child(name.charAt(i));
+        }
+        return node != null ? node.mCommand : null;
+    }
+
+    static final class Node {
+        private final String mKey;
+        private final Command mCommand;
+        private final char[] mChars;
+        private final Node[] mChildren;
+
+        private Node(String key, Command command, char[] chars, Node[] children) {
+            mKey = key;
+            mCommand = command;
+            mChars = chars;
+            mChildren = children;
+        }
+
+        private Node child(char c) {
+            int index = Arrays.binarySearch(mChars, c);
+            return index >= 0 ? mChildren[index] : null;
+        }
+
+        /**
+         * @return Name or alias this node was registered under.
+         */
+        String getKey() {
+            return mKey;
+        }
+
+        Command getCommand() {
+            return mCommand;
+        }
+    }
+}
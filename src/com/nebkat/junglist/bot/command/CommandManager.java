@@ -22,8 +22,9 @@ package com.nebkat.junglist.bot.command;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.nebkat.junglist.bot.Bot;
+import com.nebkat.junglist.bot.Configuration;
+import com.nebkat.junglist.bot.OutputQueue;
 import com.nebkat.junglist.bot.plugin.Plugin;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.Source;
 import com.nebkat.junglist.irc.events.EventHandler;
@@ -40,8 +41,8 @@ import java.io.Writer;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparators;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,14 +54,22 @@ import java.util.stream.Collectors;
 public class CommandManager implements EventListener {
     private static final String TAG = "CommandManager";
 
+    private static final String[] NO_PARAMS = new String[0];
+
     private final Bot mBot;
 
     private Map<String, UserLevel> mUserLevels = new HashMap<>();
     private Map<String, Command> mCommands = new HashMap<>();
     private Map<String, String> mCommandAliases = new HashMap<>();
+    private volatile CommandIndex mCommandIndex = CommandIndex.EMPTY;
+    private final Set<Plugin> mSwappingPlugins = new HashSet<>();
+    private final List<PrivMessageEvent> mDeferredMessages = new ArrayList<>();
+    private volatile HostmaskIndex mHostmaskIndex = HostmaskIndex.EMPTY;
 
     private final File mUserLevelsFile;
 
+    private final CommandExecutor mExecutor;
+
     private final Gson mGson = new Gson();
 
     public CommandManager(Bot bot, File userLevelsFile) {
@@ -74,16 +83,21 @@ public class CommandManager implements EventListener {
 
         mUserLevelsFile = userLevelsFile;
 
+        Configuration.BotConfiguration configuration = mBot.getConfiguration().getBotConfiguration();
+        mExecutor = new CommandExecutor(configuration.getCommandConcurrency(), configuration.getCommandQueue(), configuration.getCommandTimeout());
+
         mBot.getIrc().getEventHandlerManager().registerEvents(this);
 
         registerCommand(new Command("help", null, "Shows command list/help", "[<command>]", UserLevel.NORMAL, false));
+        registerCommand(new Command("queue", null, "Shows output queue statistics", null, UserLevel.ADMIN, false));
     }
 
-    public void loadUserLevels() {
+    public synchronized void loadUserLevels() {
         try (Reader reader = new FileReader(mUserLevelsFile)) {
             Map<String, Integer> result  = mGson.fromJson(reader, new TypeToken<Map<String, Integer>>(){}.getType());
             mUserLevels.clear();
             result.forEach((host, userLevel) -> mUserLevels.put(host, UserLevel.forLevel(userLevel)));
+            mHostmaskIndex = HostmaskIndex.compile(mUserLevels);
         } catch (IOException e) {
             Log.e(TAG, "Could not read user levels", e);
         }
@@ -104,18 +118,21 @@ public class CommandManager implements EventListener {
         }
     }
 
-    public void setUserLevel(String mask, UserLevel level) {
+    public synchronized void setUserLevel(String mask, UserLevel level) {
         mUserLevels.put(mask, level);
+        mHostmaskIndex = HostmaskIndex.compile(mUserLevels);
         saveUserLevels();
     }
 
-    public void unsetUserLevel(String mask) {
+    public synchronized void unsetUserLevel(String mask) {
         mUserLevels.remove(mask);
+        mHostmaskIndex = HostmaskIndex.compile(mUserLevels);
         saveUserLevels();
     }
 
-    public void clearUserLevel(String clear) {
+    public synchronized void clearUserLevel(String clear) {
         mUserLevels.keySet().removeIf((mask) -> (Source.match(mask, clear)));
+        mHostmaskIndex = HostmaskIndex.compile(mUserLevels);
         saveUserLevels();
     }
 
@@ -124,18 +141,20 @@ public class CommandManager implements EventListener {
     }
 
     public UserLevel getLevelForHost(String host) {
-        // Filter matching hosts and return highest UserLevel
-        return mUserLevels.entrySet().stream()
-                .filter((entry) -> Source.match(host, entry.getKey()))
-                .map((entry) -> entry.getValue())
-                .reduce(UserLevel.NORMAL, Comparators.greaterOf(UserLevel.COMPARATOR));
+        return mHostmaskIndex.getLevel(host);
     }
 
     public Command getCommand(String command) {
-        return mCommands.get(mCommandAliases.getOrDefault(command, command));
+        return mCommandIndex.get(command);
+    }
+
+    public synchronized List<Command> getPluginCommands(Plugin plugin) {
+        return mCommands.values().stream()
+                .filter((command) -> command.getPlugin() == plugin)
+                .collect(Collectors.toList());
     }
 
-    public void clearPluginCommands(Plugin plugin) {
+    public synchronized void clearPluginCommands(Plugin plugin) {
         Set<String> remove = mCommands.values().stream()
                 .filter((command) -> command.getPlugin() == plugin)
                 .map(Command::getName)
@@ -143,12 +162,15 @@ public class CommandManager implements EventListener {
 
         mCommands.keySet().removeAll(remove);
         mCommandAliases.values().removeAll(remove);
+        publishCommandIndex();
+        mExecutor.remove(plugin);
     }
 
-    public void registerCommand(Command command) {
+    public synchronized void registerCommand(Command command) {
         if (!mCommands.containsKey(command.getName())) {
             mCommands.put(command.getName(), command);
             command.getAliases().forEach((alias) -> mCommandAliases.putIfAbsent(alias, command.getName()));
+            publishCommandIndex();
         } else {
             Log.e(TAG, "Plugin " + (command.getPlugin() != null ? command.getPlugin().getDescription().getName() : "unknown") +
                     " tried to register command " + command.getName() + " which is already taken by plugin " +
@@ -156,43 +178,117 @@ public class CommandManager implements EventListener {
         }
     }
 
-    public void unregisterCommand(Command command) {
+    private synchronized void publishCommandIndex() {
+        // Commands of plugins being swapped stay resolvable until the swap completes
+        if (mSwappingPlugins.isEmpty()) {
+            mCommandIndex = CommandIndex.compile(mCommands, mCommandAliases);
+        }
+    }
+
+    /**
+     * Starts replacing a plugin. Until {@link #endPluginSwap(Plugin)} the published commands are kept as they are
+     * and commands for the plugin are held back instead of being reported as unknown or disabled.
+     */
+    public synchronized void beginPluginSwap(Plugin plugin) {
+        mSwappingPlugins.add(plugin);
+    }
+
+    /**
+     * Publishes the commands registered during a swap and runs the commands that were held back.
+     */
+    public void endPluginSwap(Plugin plugin) {
+        List<PrivMessageEvent> deferred;
+        synchronized (this) {
+            mSwappingPlugins.remove(plugin);
+            publishCommandIndex();
+            if (!mSwappingPlugins.isEmpty()) {
+                return;
+            }
+            deferred = new ArrayList<>(mDeferredMessages);
+            mDeferredMessages.clear();
+        }
+        deferred.forEach(this::onMessage);
+    }
+
+    public synchronized void unregisterCommand(Command command) {
         mCommands.remove(command.getName());
         mCommandAliases.values().removeIf((value) -> value.equals(command.getName()));
+        publishCommandIndex();
     }
 
     @EventHandler
     public void onMessage(PrivMessageEvent e) {
-        if (!e.getMessage().startsWith(mBot.getCommandPrefix())) {
+        String message = e.getMessage();
+        String prefix = mBot.getCommandPrefix();
+        if (!message.startsWith(prefix)) {
             return;
         }
-        String[] split = e.getMessage().split(" ", 2);
-        String command = split[0].substring(mBot.getCommandPrefix().length()).toLowerCase();
-        if (Utils.empty(command)) {
+        int start = prefix.length();
+        if (start == message.length() || message.charAt(start) == ' ') {
             return;
         }
-        String rawParams = Utils.indexOrDefault(split, 1, "");
-        String[] params = !Utils.empty(rawParams) ? rawParams.split(" ") : new String[0];
+        int end = message.indexOf(' ', start);
 
-        Command c = getCommand(command);
-        if (c == null) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown command \"" + command + "\"");
+        CommandIndex index = mCommandIndex;
+        CommandIndex.Node node = index.match(message, start);
+        if (node == null) {
+            String command = message.substring(start, end != -1 ? end : message.length()).toLowerCase();
+            mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown command \"" + command + "\"");
             return;
         }
+        Command c = node.getCommand();
+        String command = node.getKey();
 
         if (c.getPlugin() != null && !c.getPlugin().getEnabled()) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown command \"" + command + "\". Plugin \"" + c.getPlugin().getDescription().getName() + "\" disabled");
+            boolean swapped;
+            synchronized (this) {
+                if (mSwappingPlugins.contains(c.getPlugin())) {
+                    mDeferredMessages.add(e);
+                    return;
+                }
+                swapped = index != mCommandIndex;
+            }
+            if (swapped) {
+                onMessage(e);
+                return;
+            }
+            mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown command \"" + command + "\". Plugin \"" + c.getPlugin().getDescription().getName() + "\" disabled");
             return;
         }
 
         UserLevel level = getLevelForHost(e.getSource().getRaw());
         if (c.getLevel().getLevel() > level.getLevel()) {
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": You do not have permission to run \"" + command + "\"");
+            mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": You do not have permission to run \"" + command + "\"");
             return;
         }
 
+        String rawParams = end != -1 ? message.substring(end + 1) : "";
+        String[] params = !Utils.empty(rawParams) ? rawParams.split(" ") : NO_PARAMS;
+
         CommandEvent commandEvent = new CommandEvent(e.getTime(), e.getSession(), e.getData(), e.getSource(), e.getTarget(), e.getMessage(), c, command, params, rawParams);
-        mBot.getIrc().getEventHandlerManager().callEvent(commandEvent);
+        if (!mExecutor.execute(c.getPlugin(), () -> mBot.getIrc().getEventHandlerManager().callEvent(commandEvent))) {
+            mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Too many pending \"" + command + "\" commands, try again later");
+        }
+    }
+
+    public CommandExecutor getExecutor() {
+        return mExecutor;
+    }
+
+    public void close() {
+        mExecutor.shutdown();
+    }
+
+    @EventHandler
+    @CommandFilter("queue")
+    public void onQueueCommand(CommandEvent e) {
+        OutputQueue queue = mBot.getOutputQueue();
+        List<String> depths = new ArrayList<>();
+        for (OutputQueue.Priority priority : OutputQueue.Priority.values()) {
+            depths.add(priority.name().toLowerCase() + ": " + queue.getQueueDepth(priority));
+        }
+        mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Output queue {" + Utils.implode(depths, ", ") +
+                "}, sent: " + queue.getSent() + ", merged: " + queue.getMerged() + ", dropped: " + queue.getDropped() + ", latency: " + queue.getAverageLatency() + "ms");
     }
 
     @EventHandler
@@ -216,7 +312,7 @@ public class CommandManager implements EventListener {
                 }
             }
             String commandList = Utils.implode(result, ", ");
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Available commands: " + commandList);
+            mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Available commands: " + commandList);
         } else if (e.getParams().length == 1) {
             String command = e.getParams()[0];
             if (command.startsWith(mBot.getCommandPrefix())) {
@@ -224,7 +320,7 @@ public class CommandManager implements EventListener {
             }
             Command c = getCommand(command);
             if (c == null) {
-                Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown command \"" + mBot.getCommandPrefix() + command + "\"");
+                mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown command \"" + mBot.getCommandPrefix() + command + "\"");
                 return;
             }
 
@@ -248,7 +344,7 @@ public class CommandManager implements EventListener {
                 information.add("plugin: \"" + c.getPlugin().getDescription().getName() + "\"");
             }
 
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + mBot.getCommandPrefix() + command + " {" + Utils.implode(information, ", ") + "}");
+            mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + mBot.getCommandPrefix() + command + " {" + Utils.implode(information, ", ") + "}");
         } else {
             e.showUsage(mBot);
         }
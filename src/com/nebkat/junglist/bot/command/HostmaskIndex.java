@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.command;
+
+import com.nebkat.junglist.irc.Source;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable index of user level hostmasks.
+ *
+ * Masks without wildcards are kept in an exact host bucket, masks with a literal prefix (nick!user@...) or
+ * suffix (*!*@host) in character tries and anything else in a fallback list. The index only narrows down the
+ * candidates, every candidate is still verified with {@link Source#match(String, String)}.
+ */
+final class HostmaskIndex {
+    static final HostmaskIndex EMPTY = new HostmaskIndex(new HashMap<>());
+
+    private static final int CACHE_SIZE = 1024;
+
+    private final Map<String, Mask[]> mExact = new HashMap<>();
+    private final Node mPrefixes;
+    private final Node mSuffixes;
+    private final Mask[] mWildcards;
+
+    private final Map<String, UserLevel> mCache = new LinkedHashMap<String, UserLevel>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UserLevel> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private HostmaskIndex(Map<String, UserLevel> userLevels) {
+        Map<String, List<Mask>> exact = new HashMap<>();
+        Map<String, List<Mask>> prefixes = new HashMap<>();
+        Map<String, List<Mask>> suffixes = new HashMap<>();
+        List<Mask> wildcards = new ArrayList<>();
+
+        for (Map.Entry<String, UserLevel> entry : userLevels.entrySet()) {
+            Mask mask = new Mask(entry.getKey(), entry.getValue());
+            String key = entry.getKey().toLowerCase();
+            int first = indexOfWildcard(key);
+            if (first == -1) {
+                exact.computeIfAbsent(key, (k) -> new ArrayList<>()).add(mask);
+            } else if (first > 0) {
+                prefixes.computeIfAbsent(key.substring(0, first), (k) -> new ArrayList<>()).add(mask);
+            } else {
+                int last = lastIndexOfWildcard(key);
+                if (last < key.length() - 1) {
+                    suffixes.computeIfAbsent(new StringBuilder(key.substring(last + 1)).reverse().toString(), (k) -> new ArrayList<>()).add(mask);
+                } else {
+                    wildcards.add(mask);
+                }
+            }
+        }
+
+        exact.forEach((host, masks) -> mExact.put(host, masks.toArray(new Mask[masks.size()])));
+        mPrefixes = build(prefixes, 0);
+        mSuffixes = build(suffixes, 0);
+        mWildcards = wildcards.toArray(new Mask[wildcards.size()]);
+    }
+
+    static HostmaskIndex compile(Map<String, UserLevel> userLevels) {
+        return new HostmaskIndex(userLevels);
+    }
+
+    UserLevel getLevel(String host) {
+        if (host == null) {
+            return UserLevel.NORMAL;
+        }
+        synchronized (mCache) {
+            UserLevel cached = mCache.get(host);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        UserLevel level = UserLevel.NORMAL;
+        level = highest(mExact.get(host.toLowerCase()), host, level);
+        level = highest(mWildcards, host, level);
+
+        Node node = mPrefixes;
+        for (int i = 0; i < host.length() && node != null; i++) {
+            node = node.child(Character.toLowerCase(host.charAt(i)));
+            if (node != null) {
+                level = highest(node.mMasks, host, level);
+            }
+        }
+        node = mSuffixes;
+        for (int i = host.length() - 1; i >= 0 && node != null; i--) {
+            node = node.child(Character.toLowerCase(host.charAt(i)));
+            if (node != null) {
+                level = highest(node.mMasks, host, level);
+            }
+        }
+
+        synchronized (mCache) {
+            mCache.put(host, level);
+        }
+        return level;
+    }
+
+    private static UserLevel highest(Mask[] masks, String host, UserLevel level) {
+        if (masks == null) {
+            return level;
+        }
+        for (Mask mask : masks) {
+            if (mask.mLevel.getLevel() > level.getLevel() && Source.match(host, mask.mMask)) {
+                level = mask.mLevel;
+            }
+        }
+        return level;
+    }
+
+    private static int indexOfWildcard(String mask) {
+        for (int i = 0; i < mask.length(); i++) {
+            if (mask.charAt(i) == '*' || mask.charAt(i) == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOfWildcard(String mask) {
+        for (int i = mask.length() - 1; i >= 0; i--) {
+            if (mask.charAt(i) == '*' || mask.charAt(i) == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Node build(Map<String, List<Mask>> masks, int depth) {
+        TreeMap<Character, Map<String, List<Mask>>> branches = new TreeMap<>();
+        List<Mask> terminal = null;
+        for (Map.Entry<String, List<Mask>> entry : masks.entrySet()) {
+            if (entry.getKey().length() == depth) {
+                terminal = entry.getValue();
+            } else {
+                branches.computeIfAbsent(entry.getKey().charAt(depth), (c) -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        char[] chars = new char[branches.size()];
+        Node[] children = new Node[branches.size()];
+        int i = 0;
+        for (Map.Entry<Character, Map<String, List<Mask>>> branch : branches.entrySet()) {
+            chars[i] = branch.getKey();
+            children[i] = build(branch.getValue(), depth + 1);
+            i++;
+        }
+        return new Node(terminal != null ? terminal.toArray(new Mask[terminal.size()]) : null, chars, children);
+    }
+
+    private static final class Mask {
+        private final String mMask;
+        private final UserLevel mLevel;
+
+        private Mask(String mask, UserLevel level) {
+            mMask = mask;
+            mLevel = level;
+        }
+    }
+
+    private static final class Node {
+        private final Mask[] mMasks;
+        private final char[] mChars;
+        private final Node[] mChildren;
+
+        private Node(Mask[] masks, char[] chars, Node[] children) {
+            mMasks = masks;
+            mChars = chars;
+            mChildren = children;
+        }
+
+        private Node child(char c) {
+            int index = Arrays.binarySearch(mChars, c);
+            return index >= 0 ? mChildren[index] : null;
+        }
+    }
+}
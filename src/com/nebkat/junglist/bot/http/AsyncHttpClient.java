@@ -0,0 +1,270 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.http;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.nebkat.junglist.bot.TaskExecutors;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous facade over the shared HTTP client.
+ *
+ * Requests run on virtual threads where the JVM provides them and complete a {@link CompletableFuture}. JSON
+ * responses are decoded straight from the response stream. Requests are limited per host, time out as a whole and
+ * are grouped by owner so a plugin can cancel everything it still has in flight.
+ */
+public class AsyncHttpClient {
+    private final HttpClient mClient;
+    private final ExecutorService mExecutor;
+    private final ScheduledExecutorService mWatchdog;
+    private final Gson mGson = new Gson();
+
+    private final int mMaxPerHost;
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    private final long mTimeout;
+
+    private final Map<String, Semaphore> mHosts = new ConcurrentHashMap<>();
+    private final Map<Object, Set<CompletableFuture<?>>> mOwners = new ConcurrentHashMap<>();
+
+    /**
+     * A handler reading the response of a request.
+     */
+    public interface ResponseReader<T> {
+        T read(HttpResponse response) throws IOException;
+    }
+
+    /**
+     * @param client Client requests are executed on.
+     * @param maxPerHost Maximum requests in flight to a single host.
+     * @param connectTimeout Connect timeout in milliseconds.
+     * @param readTimeout Socket read timeout in milliseconds.
+     * @param timeout Milliseconds after which a request is aborted as a whole, 0 to disable.
+     */
+    public AsyncHttpClient(HttpClient client, int maxPerHost, int connectTimeout, int readTimeout, long timeout) {
+        mClient = client;
+        mMaxPerHost = Math.max(1, maxPerHost);
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mTimeout = timeout;
+
+        mExecutor = TaskExecutors.newTaskExecutor("AsyncHttpClient");
+        mWatchdog = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "AsyncHttpClient-Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return View of this client whose requests are cancelled together by {@link #cancel(Object)}.
+     */
+    public Scope scope(Object owner) {
+        return new Scope(owner);
+    }
+
+    /**
+     * Cancels every request of an owner that is still in flight.
+     */
+    public void cancel(Object owner) {
+        Set<CompletableFuture<?>> futures = mOwners.remove(owner);
+        if (futures != null) {
+            futures.forEach((future) -> future.cancel(true));
+        }
+    }
+
+    public void shutdown() {
+        mWatchdog.shutdownNow();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Executes a request and reads its response with the given reader.
+     *
+     * @param owner Owner of the request, or null.
+     * @param request Request to execute.
+     * @param cacheTtl Milliseconds to cache a GET response without freshness information, negative to bypass the cache.
+     * @param reader Reader for the response.
+     */
+    public <T> CompletableFuture<T> execute(Object owner, HttpUriRequest request, long cacheTtl, ResponseReader<T> reader) {
+        return execute(owner, request, new BasicHttpContext(), cacheTtl, reader);
+    }
+
+    /**
+     * Executes a request in the given context, so the reader can inspect where the request ended up.
+     *
+     * @see #execute(Object, HttpUriRequest, long, ResponseReader)
+     */
+    public <T> CompletableFuture<T> execute(Object owner, HttpUriRequest request, HttpContext context, long cacheTtl,
+            ResponseReader<T> reader) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        HttpConnectionParams.setConnectionTimeout(request.getParams(), mConnectTimeout);
+        HttpConnectionParams.setSoTimeout(request.getParams(), mReadTimeout);
+
+        track(owner, future);
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled() || throwable instanceof TimeoutException) {
+                request.abort();
+            }
+        });
+
+        try {
+            mExecutor.execute(() -> run(future, request, context, cacheTtl, reader));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (mTimeout > 0) {
+            ScheduledFuture<?> timeout = mWatchdog.schedule(() -> future.completeExceptionally(
+                    new TimeoutException("Request to " + request.getURI() + " timed out after " + mTimeout + "ms")), mTimeout, TimeUnit.MILLISECONDS);
+            future.whenComplete((result, throwable) -> timeout.cancel(false));
+        }
+        return future;
+    }
+
+    /**
+     * Fetches a URL and decodes its JSON response into the given type. Identical lookups made while one is in flight
+     * share its result, the request is aborted once every lookup sharing it was cancelled.
+     */
+    public <T> CompletableFuture<T> getJson(Object owner, String url, Type type, long cacheTtl) {
+        SingleFlight singleFlight = ConnectionManager.getSingleFlight();
+        CompletableFuture<T> future = singleFlight.submit(singleFlight.key("GET", url) + " " + type, () -> fetchJson(url, type, cacheTtl));
+        track(owner, future);
+        return future;
+    }
+
+    private void track(Object owner, CompletableFuture<?> future) {
+        if (owner != null) {
+            Set<CompletableFuture<?>> futures = mOwners.computeIfAbsent(owner, (o) -> ConcurrentHashMap.newKeySet());
+            futures.add(future);
+            future.whenComplete((result, throwable) -> futures.remove(future));
+        }
+    }
+
+    private <T> CompletableFuture<T> fetchJson(String url, Type type, long cacheTtl) {
+        return execute(null, new HttpGet(url), cacheTtl, (response) -> {
+            HttpEntity entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || entity == null) {
+                EntityUtils.consume(entity);
+                throw new HttpResponseException(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase());
+            }
+            try (Reader reader = new InputStreamReader(entity.getContent(), getCharset(entity))) {
+                return mGson.fromJson(reader, type);
+            } catch (JsonParseException e) {
+                throw new IOException("Invalid JSON response from " + url, e);
+            }
+        });
+    }
+
+    private <T> void run(CompletableFuture<T> future, HttpUriRequest request, HttpContext context, long cacheTtl,
+            ResponseReader<T> reader) {
+        if (future.isDone()) {
+            return;
+        }
+        String host = request.getURI().getHost();
+        Semaphore semaphore = mHosts.computeIfAbsent(host != null ? host.toLowerCase() : "", (h) -> new Semaphore(mMaxPerHost));
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            return;
+        }
+        try {
+            if (future.isDone()) {
+                return;
+            }
+            HttpResponse response = cacheTtl >= 0 ? ConnectionManager.getHttpCache().execute(request, context, cacheTtl) :
+                    mClient.execute(request, context);
+            future.complete(reader.read(response));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private static Charset getCharset(HttpEntity entity) {
+        ContentType contentType = ContentType.get(entity);
+        return contentType != null && contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Requests made on behalf of a single owner.
+     */
+    public class Scope {
+        private final Object mOwner;
+
+        private Scope(Object owner) {
+            mOwner = owner;
+        }
+
+        public <T> CompletableFuture<T> execute(HttpUriRequest request, long cacheTtl, ResponseReader<T> reader) {
+            return AsyncHttpClient.this.execute(mOwner, request, cacheTtl, reader);
+        }
+
+        public <T> CompletableFuture<T> execute(HttpUriRequest request, HttpContext context, long cacheTtl,
+                ResponseReader<T> reader) {
+            return AsyncHttpClient.this.execute(mOwner, request, context, cacheTtl, reader);
+        }
+
+        public <T> CompletableFuture<T> getJson(String url, Type type) {
+            return AsyncHttpClient.this.getJson(mOwner, url, type, -1);
+        }
+
+        public <T> CompletableFuture<T> getJson(String url, Type type, long cacheTtl) {
+            return AsyncHttpClient.this.getJson(mOwner, url, type, cacheTtl);
+        }
+
+        public void cancel() {
+            AsyncHttpClient.this.cancel(mOwner);
+        }
+    }
+}
@@ -30,11 +30,42 @@ import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 
+import java.io.File;
+
 public class ConnectionManager {
+    private static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+
     private static HttpClient sHttpClient;
+    private static HttpCache sHttpCache;
+    private static final SingleFlight sSingleFlight = new SingleFlight();
 
     public static final String REDIRECTED = "redirected";
 
+    /**
+     * Sets up the shared response cache.
+     *
+     * @param memorySize Maximum bytes of responses kept in memory.
+     * @param directory Directory for cached responses, or null to keep them in memory only.
+     * @param diskSize Maximum bytes of responses kept on disk.
+     */
+    public static synchronized void configureHttpCache(long memorySize, File directory, long diskSize) {
+        sHttpCache = new HttpCache(getHttpClient(), memorySize, directory, diskSize);
+    }
+
+    /**
+     * @return Shared coalescing layer for identical lookups made at the same time.
+     */
+    public static SingleFlight getSingleFlight() {
+        return sSingleFlight;
+    }
+
+    public static synchronized HttpCache getHttpCache() {
+        if (sHttpCache == null) {
+            sHttpCache = new HttpCache(getHttpClient(), DEFAULT_CACHE_SIZE, null, 0);
+        }
+        return sHttpCache;
+    }
+
     public static HttpClient getHttpClient() {
         if (sHttpClient == null) {
             SchemeRegistry schemeRegistry = new SchemeRegistry();
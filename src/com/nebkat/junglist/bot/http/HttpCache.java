@@ -0,0 +1,441 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.http;
+
+import com.nebkat.junglist.irc.Log;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP response cache in front of the shared client.
+ *
+ * Only GET requests made through {@link #execute(HttpUriRequest, HttpContext, long)} are cached, so plugins opt in
+ * per request. Freshness follows Cache-Control and Expires, stale entries with an ETag or Last-Modified validator are
+ * revalidated with a conditional request. Entries are kept in a size bounded W-TinyLFU memory tier and optionally
+ * written through to a size bounded directory.
+ */
+public class HttpCache {
+    private static final String TAG = "HttpCache";
+
+    /**
+     * Context attribute set to {@link #HIT}, {@link #REVALIDATED} or {@link #MISS} after a cached request.
+     */
+    public static final String CACHE_STATUS = "cache-status";
+    public static final String HIT = "hit";
+    public static final String REVALIDATED = "revalidated";
+    public static final String MISS = "miss";
+
+    private static final int MAGIC = 0x48545450;
+    private static final int MAX_ENTRY_SIZE = 1024 * 1024;
+    private static final int AVERAGE_ENTRY_SIZE = 4096;
+
+    private final HttpClient mClient;
+    private final TinyLfuCache<String, Entry> mMemory;
+    private final File mDirectory;
+    private final long mDiskSize;
+    private final AtomicLong mDiskUsage = new AtomicLong(-1);
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mRevalidations = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * @param client Client used for requests that cannot be answered from the cache.
+     * @param memorySize Maximum bytes of responses kept in memory.
+     * @param directory Directory for the disk tier, or null to keep responses in memory only.
+     * @param diskSize Maximum bytes of responses kept on disk.
+     */
+    public HttpCache(HttpClient client, long memorySize, File directory, long diskSize) {
+        mClient = client;
+        mMemory = new TinyLfuCache<>(memorySize, (int) Math.min(Integer.MAX_VALUE, memorySize / AVERAGE_ENTRY_SIZE));
+        mDirectory = directory != null && diskSize > 0 && (directory.isDirectory() || directory.mkdirs()) ? directory : null;
+        mDiskSize = diskSize;
+    }
+
+    public HttpResponse execute(HttpUriRequest request) throws IOException {
+        return execute(request, new BasicHttpContext(), 0);
+    }
+
+    public HttpResponse execute(HttpUriRequest request, long defaultTtl) throws IOException {
+        return execute(request, new BasicHttpContext(), defaultTtl);
+    }
+
+    /**
+     * Executes a request, answering it from the cache where possible. Cacheable responses are returned fully
+     * buffered.
+     *
+     * @param request Request to execute.
+     * @param context Context for the request.
+     * @param defaultTtl Milliseconds a response without explicit freshness information stays fresh.
+     * @return Response.
+     */
+    public HttpResponse execute(HttpUriRequest request, HttpContext context, long defaultTtl) throws IOException {
+        if (!"GET".equals(request.getMethod())) {
+            return mClient.execute(request, context);
+        }
+
+        String key = request.getURI().toString();
+        long now = System.currentTimeMillis();
+        Entry entry = get(key);
+        if (entry != null && now < entry.mExpires) {
+            mHits.incrementAndGet();
+            context.setAttribute(CACHE_STATUS, HIT);
+            return entry.toResponse();
+        }
+
+        if (entry != null) {
+            if (entry.mETag != null) {
+                request.setHeader("If-None-Match", entry.mETag);
+            }
+            if (entry.mLastModified != null) {
+                request.setHeader("If-Modified-Since", entry.mLastModified);
+            }
+        }
+
+        HttpResponse response = mClient.execute(request, context);
+        int status = response.getStatusLine().getStatusCode();
+        if (entry != null && status == HttpStatus.SC_NOT_MODIFIED) {
+            EntityUtils.consume(response.getEntity());
+            long freshness = freshness(response, now, defaultTtl);
+            entry = new Entry(key, entry.mStatus, entry.mReason, entry.mHeaders, entry.mBody, freshness > 0 ? now + freshness : now);
+            put(entry);
+            mRevalidations.incrementAndGet();
+            context.setAttribute(CACHE_STATUS, REVALIDATED);
+            return entry.toResponse();
+        }
+
+        mMisses.incrementAndGet();
+        context.setAttribute(CACHE_STATUS, MISS);
+        HttpEntity entity = response.getEntity();
+        long freshness = freshness(response, now, defaultTtl);
+        if (status != HttpStatus.SC_OK || entity == null || entity.getContentLength() > MAX_ENTRY_SIZE || freshness < 0 ||
+                (freshness == 0 && !response.containsHeader("ETag") && !response.containsHeader("Last-Modified")) ||
+                !isCacheableVary(response)) {
+            return response;
+        }
+
+        // Bodies of unknown length are only read up to the limit, a larger one is handed on as a stream
+        InputStream content = entity.getContent();
+        byte[] body = read(content, MAX_ENTRY_SIZE + 1);
+        if (body.length > MAX_ENTRY_SIZE) {
+            BasicHttpEntity streamed = new BasicHttpEntity();
+            streamed.setContent(new SequenceInputStream(new ByteArrayInputStream(body), content));
+            streamed.setContentLength(entity.getContentLength());
+            streamed.setContentType(entity.getContentType());
+            streamed.setContentEncoding(entity.getContentEncoding());
+            response.setEntity(streamed);
+            return response;
+        }
+        content.close();
+        List<String> headers = new ArrayList<>();
+        for (Header header : response.getAllHeaders()) {
+            headers.add(header.getName());
+            headers.add(header.getValue());
+        }
+        entry = new Entry(key, status, response.getStatusLine().getReasonPhrase(), headers.toArray(new String[headers.size()]), body, now + freshness);
+        put(entry);
+        return entry.toResponse();
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getRevalidations() {
+        return mRevalidations.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    private Entry get(String key) {
+        Entry entry = mMemory.get(key);
+        if (entry == null && mDirectory != null) {
+            entry = readDisk(key);
+            if (entry != null) {
+                mMemory.put(key, entry, entry.weight());
+            }
+        }
+        return entry;
+    }
+
+    private void put(Entry entry) {
+        mMemory.put(entry.mKey, entry, entry.weight());
+        if (mDirectory != null) {
+            writeDisk(entry);
+        }
+    }
+
+    /**
+     * @return Milliseconds the response stays fresh, 0 if it must be revalidated and -1 if it must not be stored.
+     */
+    private static long freshness(HttpResponse response, long now, long defaultTtl) {
+        long maxAge = -1;
+        for (Header header : response.getHeaders("Cache-Control")) {
+            for (HeaderElement element : header.getElements()) {
+                String name = element.getName().toLowerCase();
+                if (name.equals("no-store")) {
+                    return -1;
+                } else if (name.equals("no-cache")) {
+                    return 0;
+                } else if (name.equals("max-age") && element.getValue() != null) {
+                    try {
+                        maxAge = Long.parseLong(element.getValue().trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        if (maxAge >= 0) {
+            Header age = response.getFirstHeader("Age");
+            if (age != null) {
+                try {
+                    maxAge -= Long.parseLong(age.getValue().trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    // Ignore
+                }
+            }
+            return Math.max(0, maxAge);
+        }
+
+        Header expires = response.getFirstHeader("Expires");
+        if (expires != null) {
+            try {
+                Header date = response.getFirstHeader("Date");
+                long base = date != null ? DateUtils.parseDate(date.getValue()).getTime() : now;
+                return Math.max(0, DateUtils.parseDate(expires.getValue()).getTime() - base);
+            } catch (DateParseException e) {
+                return 0;
+            }
+        }
+        return Math.max(0, defaultTtl);
+    }
+
+    /**
+     * @return Up to limit bytes from the start of a stream.
+     */
+    private static byte[] read(InputStream in, int limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while (out.size() < limit && (read = in.read(buffer, 0, Math.min(buffer.length, limit - out.size()))) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return True if the response does not vary on anything but the encoding, so one entry can serve every request.
+     */
+    private static boolean isCacheableVary(HttpResponse response) {
+        for (Header header : response.getHeaders("Vary")) {
+            for (HeaderElement element : header.getElements()) {
+                if (!element.getName().equalsIgnoreCase("Accept-Encoding")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private File getDiskFile(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(mDirectory, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Entry readDisk(String key) {
+        File file = getDiskFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(key)) {
+                return null;
+            }
+            int status = in.readInt();
+            String reason = in.readUTF();
+            long expires = in.readLong();
+            String[] headers = new String[in.readInt()];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = in.readUTF();
+            }
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(key, status, reason, headers, body, expires);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry " + file.getName());
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeDisk(Entry entry) {
+        File file = getDiskFile(entry.mKey);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(entry.mKey);
+                out.writeInt(entry.mStatus);
+                out.writeUTF(entry.mReason);
+                out.writeLong(entry.mExpires);
+                out.writeInt(entry.mHeaders.length);
+                for (String header : entry.mHeaders) {
+                    out.writeUTF(header);
+                }
+                out.writeInt(entry.mBody.length);
+                out.write(entry.mBody);
+            }
+            long previous = file.length();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (mDiskUsage.get() < 0 || mDiskUsage.addAndGet(file.length() - previous) > mDiskSize) {
+                trimDisk();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write cache entry", e);
+            temp.delete();
+        }
+    }
+
+    private synchronized void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long usage = 0;
+        for (File file : files) {
+            usage += file.length();
+        }
+        if (usage > mDiskSize) {
+            // Least recently used first, reads touch the modification time
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (int i = 0; i < files.length && usage > mDiskSize * 9 / 10; i++) {
+                long length = files[i].length();
+                if (files[i].delete()) {
+                    usage -= length;
+                }
+            }
+        }
+        mDiskUsage.set(usage);
+    }
+
+    private static class Entry {
+        private final String mKey;
+        private final int mStatus;
+        private final String mReason;
+        private final String[] mHeaders;
+        private final byte[] mBody;
+        private final long mExpires;
+        private final String mETag;
+        private final String mLastModified;
+
+        private Entry(String key, int status, String reason, String[] headers, byte[] body, long expires) {
+            mKey = key;
+            mStatus = status;
+            mReason = reason != null ? reason : "";
+            mHeaders = headers;
+            mBody = body;
+            mExpires = expires;
+
+            String etag = null;
+            String lastModified = null;
+            for (int i = 0; i < headers.length; i += 2) {
+                if (headers[i].equalsIgnoreCase("ETag")) {
+                    etag = headers[i + 1];
+                } else if (headers[i].equalsIgnoreCase("Last-Modified")) {
+                    lastModified = headers[i + 1];
+                }
+            }
+            mETag = etag;
+            mLastModified = lastModified;
+        }
+
+        private int weight() {
+            int weight = mBody.length + mKey.length() + 64;
+            for (String header : mHeaders) {
+                weight += header.length();
+            }
+            return weight;
+        }
+
+        private HttpResponse toResponse() {
+            BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, mStatus, mReason));
+            for (int i = 0; i < mHeaders.length; i += 2) {
+                response.addHeader(mHeaders[i], mHeaders[i + 1]);
+            }
+            ByteArrayEntity entity = new ByteArrayEntity(mBody);
+            Header contentType = response.getFirstHeader("Content-Type");
+            if (contentType != null) {
+                entity.setContentType(contentType);
+            }
+            response.setEntity(entity);
+            return response;
+        }
+    }
+}
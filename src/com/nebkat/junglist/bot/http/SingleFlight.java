@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical calls. The first caller for a key performs the call, callers arriving while it is
+ * in flight wait for and share its result instead of making their own.
+ */
+public class SingleFlight {
+    /**
+     * Maps a request URI to the part of the coalescing key identifying it.
+     */
+    public interface KeyNormalizer {
+        String normalize(URI uri);
+    }
+
+    /**
+     * Lowercases the scheme and host and drops default ports and fragments.
+     */
+    public static final KeyNormalizer DEFAULT_NORMALIZER = (uri) -> {
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase() : "";
+        int port = uri.getPort();
+        if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) {
+            port = -1;
+        }
+        return scheme + "://" + (uri.getHost() != null ? uri.getHost().toLowerCase() : "") + (port != -1 ? ":" + port : "") +
+                (uri.getRawPath() != null && !uri.getRawPath().isEmpty() ? uri.getRawPath() : "/") +
+                (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+    };
+
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private final KeyNormalizer mNormalizer;
+    private final Map<String, CompletableFuture<Object>> mInFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mSaved = new AtomicLong();
+    private final AtomicLong mUnique = new AtomicLong();
+
+    public SingleFlight() {
+        this(DEFAULT_NORMALIZER);
+    }
+
+    public SingleFlight(KeyNormalizer normalizer) {
+        mNormalizer = normalizer;
+    }
+
+    public String key(String method, String url) {
+        return method + " " + mNormalizer.normalize(URI.create(url));
+    }
+
+    /**
+     * @return Key made of the request method, normalized URI and a hash of the body. A body that cannot be read twice
+     * cannot be compared, requests with one get a key of their own and are never coalesced.
+     */
+    public String key(HttpUriRequest request) throws IOException {
+        String key = request.getMethod() + " " + mNormalizer.normalize(request.getURI());
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && entity.isRepeatable()) {
+                key += " " + hash(EntityUtils.toByteArray(entity));
+            } else if (entity != null) {
+                key += " #" + mUnique.incrementAndGet();
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Performs a call, or waits for an identical call already in flight and returns its result.
+     *
+     * @throws InterruptedException If interrupted while waiting for the call in flight.
+     */
+    @SuppressWarnings("unchecked")
+    public <T, E extends Exception> T execute(String key, Call<T, E> call) throws E, InterruptedException {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = mInFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            mSaved.incrementAndGet();
+            try {
+                return (T) existing.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (E) cause;
+            }
+        }
+
+        mCalls.incrementAndGet();
+        try {
+            T result = call.call();
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            mInFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute(String, Call)}. Every caller gets its own future, cancelling one only
+     * cancels the shared call once every caller waiting for it has cancelled.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String key, Supplier<CompletableFuture<T>> call) {
+        Flight flight = new Flight(key);
+        CompletableFuture<Object> existing;
+        while ((existing = mInFlight.putIfAbsent(key, flight)) != null) {
+            if (!(existing instanceof Flight)) {
+                mSaved.incrementAndGet();
+                return existing.thenApply((result) -> (T) result);
+            } else if (((Flight) existing).enter()) {
+                mSaved.incrementAndGet();
+                return ((Flight) existing).waiter();
+            }
+            // Abandoned by all its callers and about to be removed
+            mInFlight.remove(key, existing);
+        }
+
+        mCalls.incrementAndGet();
+        CompletableFuture<T> upstream;
+        try {
+            upstream = call.get();
+        } catch (RuntimeException e) {
+            mInFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        upstream.whenComplete((result, throwable) -> {
+            mInFlight.remove(key, flight);
+            if (throwable != null) {
+                flight.completeExceptionally(throwable);
+            } else {
+                flight.complete(result);
+            }
+        });
+        flight.start(upstream);
+        return flight.waiter();
+    }
+
+    /**
+     * @return Calls that were actually made.
+     */
+    public long getCalls() {
+        return mCalls.get();
+    }
+
+    /**
+     * @return Calls that were avoided by sharing the result of a call in flight.
+     */
+    public long getSaved() {
+        return mSaved.get();
+    }
+
+    /**
+     * A shared asynchronous call and the number of callers still waiting for it.
+     */
+    private class Flight extends CompletableFuture<Object> {
+        private final String mKey;
+        private CompletableFuture<?> mUpstream;
+        private int mWaiters = 1;
+        private boolean mAbandoned;
+
+        private Flight(String key) {
+            mKey = key;
+        }
+
+        /**
+         * @return False if every caller already cancelled and the call is being cancelled.
+         */
+        private synchronized boolean enter() {
+            if (mAbandoned) {
+                return false;
+            }
+            mWaiters++;
+            return true;
+        }
+
+        private void start(CompletableFuture<?> upstream) {
+            synchronized (this) {
+                mUpstream = upstream;
+                if (!mAbandoned) {
+                    return;
+                }
+            }
+            upstream.cancel(true);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> CompletableFuture<T> waiter() {
+            CompletableFuture<T> waiter = thenApply((result) -> (T) result);
+            waiter.whenComplete((result, throwable) -> {
+                if (waiter.isCancelled()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        private void leave() {
+            CompletableFuture<?> upstream;
+            synchronized (this) {
+                if (--mWaiters > 0 || isDone()) {
+                    return;
+                }
+                mAbandoned = true;
+                upstream = mUpstream;
+            }
+            mInFlight.remove(mKey, this);
+            if (upstream != null) {
+                upstream.cancel(true);
+            }
+        }
+    }
+
+    private static String hash(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(body);
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest) {
+                hash.append(String.format("%02x", b));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
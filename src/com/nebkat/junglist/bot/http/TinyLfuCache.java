@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.http;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size bounded cache with W-TinyLFU eviction.
+ *
+ * New entries enter a small LRU window. Entries leaving the window are only admitted to the main segmented LRU if
+ * they have been requested more often than the entry they would evict, so one-off lookups cannot flush popular ones.
+ */
+final class TinyLfuCache<K, V> {
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final long mMaximum;
+    private final long mWindowMaximum;
+    private final long mProtectedMaximum;
+    private final FrequencySketch mSketch;
+
+    private final LinkedHashMap<K, Node<V>> mWindow = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> mProbation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> mProtected = new LinkedHashMap<>(16, 0.75f, true);
+    private long mWindowWeight;
+    private long mProbationWeight;
+    private long mProtectedWeight;
+
+    /**
+     * @param maximum Maximum total weight of all entries.
+     * @param expectedEntries Expected number of entries, used to size the frequency sketch.
+     */
+    TinyLfuCache(long maximum, int expectedEntries) {
+        mMaximum = maximum;
+        mWindowMaximum = Math.max(1, (long) (maximum * WINDOW_RATIO));
+        mProtectedMaximum = (long) ((maximum - mWindowMaximum) * PROTECTED_RATIO);
+        mSketch = new FrequencySketch(expectedEntries);
+    }
+
+    synchronized V get(K key) {
+        mSketch.increment(key);
+        Node<V> node = mWindow.get(key);
+        if (node == null) {
+            node = mProbation.remove(key);
+            if (node != null) {
+                mProbationWeight -= node.mWeight;
+                mProtected.put(key, node);
+                mProtectedWeight += node.mWeight;
+                demote();
+            } else {
+                node = mProtected.get(key);
+            }
+        }
+        return node != null ? node.mValue : null;
+    }
+
+    /**
+     * Adds an entry, the access is expected to have been recorded by the {@link #get(Object)} that missed.
+     */
+    synchronized void put(K key, V value, int weight) {
+        remove(key);
+        if (weight > mMaximum - mWindowMaximum) {
+            return;
+        }
+        mWindow.put(key, new Node<>(value, weight));
+        mWindowWeight += weight;
+        while (mWindowWeight > mWindowMaximum && !mWindow.isEmpty()) {
+            Iterator<Map.Entry<K, Node<V>>> iterator = mWindow.entrySet().iterator();
+            Map.Entry<K, Node<V>> candidate = iterator.next();
+            iterator.remove();
+            mWindowWeight -= candidate.getValue().mWeight;
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    synchronized void remove(K key) {
+        Node<V> node;
+        if ((node = mWindow.remove(key)) != null) {
+            mWindowWeight -= node.mWeight;
+        } else if ((node = mProbation.remove(key)) != null) {
+            mProbationWeight -= node.mWeight;
+        } else if ((node = mProtected.remove(key)) != null) {
+            mProtectedWeight -= node.mWeight;
+        }
+    }
+
+    synchronized int size() {
+        return mWindow.size() + mProbation.size() + mProtected.size();
+    }
+
+    synchronized long weight() {
+        return mWindowWeight + mProbationWeight + mProtectedWeight;
+    }
+
+    private void admit(K key, Node<V> node) {
+        long excess = mProbationWeight + mProtectedWeight + node.mWeight - (mMaximum - mWindowMaximum);
+        int frequency = mSketch.frequency(key);
+
+        // Pick every victim needed to make room first, the candidate has to beat all of them to be admitted
+        List<K> probationVictims = new ArrayList<>();
+        List<K> protectedVictims = new ArrayList<>();
+        if (excess > 0) {
+            excess = selectVictims(mProbation, probationVictims, excess, frequency);
+            if (excess > 0) {
+                excess = selectVictims(mProtected, protectedVictims, excess, frequency);
+            }
+            if (excess != 0) {
+                return;
+            }
+        }
+
+        for (K victim : probationVictims) {
+            mProbationWeight -= mProbation.remove(victim).mWeight;
+        }
+        for (K victim : protectedVictims) {
+            mProtectedWeight -= mProtected.remove(victim).mWeight;
+        }
+        mProbation.put(key, node);
+        mProbationWeight += node.mWeight;
+    }
+
+    /**
+     * Selects victims from the least recently used end of a segment.
+     *
+     * @return Weight still to be freed, 0 once enough was selected or -1 if a victim is at least as popular as the
+     * candidate.
+     */
+    private long selectVictims(LinkedHashMap<K, Node<V>> segment, List<K> victims, long excess, int frequency) {
+        for (Map.Entry<K, Node<V>> victim : segment.entrySet()) {
+            if (frequency <= mSketch.frequency(victim.getKey())) {
+                return -1;
+            }
+            victims.add(victim.getKey());
+            excess -= victim.getValue().mWeight;
+            if (excess <= 0) {
+                return 0;
+            }
+        }
+        return excess;
+    }
+
+    private void demote() {
+        while (mProtectedWeight > mProtectedMaximum) {
+            Iterator<Map.Entry<K, Node<V>>> iterator = mProtected.entrySet().iterator();
+            Map.Entry<K, Node<V>> entry = iterator.next();
+            iterator.remove();
+            mProtectedWeight -= entry.getValue().mWeight;
+            mProbation.put(entry.getKey(), entry.getValue());
+            mProbationWeight += entry.getValue().mWeight;
+        }
+    }
+
+    private static final class Node<V> {
+        private final V mValue;
+        private final int mWeight;
+
+        private Node(V value, int weight) {
+            mValue = value;
+            mWeight = weight;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.plugin;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Algorithms available for plugin jar checksums.
+ */
+public enum ChecksumAlgorithm {
+    MD5 {
+        @Override
+        byte[] digest(ByteBuffer buffer) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("MD5");
+                digest.update(buffer);
+                return digest.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    },
+    CRC32 {
+        @Override
+        byte[] digest(ByteBuffer buffer) {
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            crc.update(buffer);
+            return ByteBuffer.allocate(8).putLong(crc.getValue()).array();
+        }
+    },
+    CRC64 {
+        @Override
+        byte[] digest(ByteBuffer buffer) {
+            long crc = -1;
+            while (buffer.hasRemaining()) {
+                crc = CRC64_TABLE[(int) ((crc ^ buffer.get()) & 0xff)] ^ (crc >>> 8);
+            }
+            return ByteBuffer.allocate(8).putLong(~crc).array();
+        }
+    };
+
+    // CRC-64/XZ (ECMA-182, reflected)
+    private static final long CRC64_POLYNOMIAL = 0xC96C5795D7870F42L;
+    private static final long[] CRC64_TABLE = new long[256];
+
+    static {
+        for (int i = 0; i < CRC64_TABLE.length; i++) {
+            long crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ CRC64_POLYNOMIAL : crc >>> 1;
+            }
+            CRC64_TABLE[i] = crc;
+        }
+    }
+
+    /**
+     * Computes the checksum of the remaining bytes in a buffer, consuming them.
+     */
+    abstract byte[] digest(ByteBuffer buffer);
+
+    public static ChecksumAlgorithm forName(String name) {
+        for (ChecksumAlgorithm algorithm : values()) {
+            if (algorithm.name().equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+        return MD5;
+    }
+}
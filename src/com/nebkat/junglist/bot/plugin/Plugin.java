@@ -20,6 +20,9 @@
 package com.nebkat.junglist.bot.plugin;
 
 import com.nebkat.junglist.bot.Bot;
+import com.nebkat.junglist.bot.OutputQueue;
+import com.nebkat.junglist.bot.http.AsyncHttpClient;
+import com.nebkat.junglist.bot.scheduler.Scheduler;
 import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.events.EventListener;
 
@@ -32,16 +35,29 @@ public abstract class Plugin<Config> implements EventListener {
     private PluginDescription mDescription;
     protected Config mConfig;
     private PluginManager mManager;
+    private File mFile;
+    private long mFileModified;
+    private long mFileLength;
     private byte[] mChecksum;
+    private File mConfigFile;
+    private long mConfigModified;
+    private long mConfigLength;
     private boolean mCreated;
     private boolean mEnabled;
+    private AsyncHttpClient.Scope mHttp;
+    private Scheduler.Scope mScheduler;
 
-    void initialize(Bot bot, PluginDescription description, Config config, PluginManager manager, byte[] checksum) {
+    void initialize(Bot bot, PluginDescription description, Config config, PluginManager manager, File file, long modified, long length, byte[] checksum, File configFile) {
         mBot = bot;
         mDescription = description;
         mConfig = config;
+        mFile = file;
+        mFileModified = modified;
+        mFileLength = length;
         mChecksum = checksum;
+        mConfigFile = configFile;
         mManager = manager;
+        updateConfigStamp();
     }
 
     public PluginDescription getDescription() {
@@ -56,6 +72,30 @@ public abstract class Plugin<Config> implements EventListener {
         return mBot.getIrc();
     }
 
+    public OutputQueue getOutput() {
+        return mBot.getOutputQueue();
+    }
+
+    /**
+     * @return Asynchronous HTTP client, requests still in flight are cancelled when the plugin is disabled.
+     */
+    public AsyncHttpClient.Scope getHttp() {
+        if (mHttp == null) {
+            mHttp = mBot.getHttpClient().scope(this);
+        }
+        return mHttp;
+    }
+
+    /**
+     * @return Scheduler for tasks of this plugin, tasks still pending are cancelled when the plugin is disabled.
+     */
+    public Scheduler.Scope getScheduler() {
+        if (mScheduler == null) {
+            mScheduler = mBot.getScheduler().scope(this);
+        }
+        return mScheduler;
+    }
+
     public PluginManager getManager() {
         return mManager;
     }
@@ -89,6 +129,8 @@ public abstract class Plugin<Config> implements EventListener {
         if (mEnabled) {
             mEnabled = false;
             onDisable();
+            mBot.getHttpClient().cancel(this);
+            mBot.getScheduler().cancel(this);
         }
     }
 
@@ -112,6 +154,37 @@ public abstract class Plugin<Config> implements EventListener {
         return mChecksum;
     }
 
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return True if the plugin jar modification time or size changed since it was loaded.
+     */
+    boolean isModified() {
+        return mFile.lastModified() != mFileModified || mFile.length() != mFileLength;
+    }
+
+    void updateFileStamp() {
+        mFileModified = mFile.lastModified();
+        mFileLength = mFile.length();
+    }
+
+    /**
+     * @return True if the local config.json was created, removed or changed since it was loaded.
+     */
+    boolean isConfigModified() {
+        return mConfigFile != null
+                && (mConfigFile.lastModified() != mConfigModified || mConfigFile.length() != mConfigLength);
+    }
+
+    void updateConfigStamp() {
+        if (mConfigFile != null) {
+            mConfigModified = mConfigFile.lastModified();
+            mConfigLength = mConfigFile.length();
+        }
+    }
+
     protected final File getStorage() {
         return mManager.getPluginStorage(this);
     }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.plugin;
+
+import com.nebkat.junglist.irc.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Watches the plugin directory and hot deploys jars that are added, replaced or removed.
+ *
+ * File events are debounced, a jar is only deployed once its size and modification time have settled and it can
+ * be opened as a complete jar.
+ */
+public class PluginDeployer {
+    private static final String TAG = "PluginDeployer";
+
+    private static final long DEBOUNCE = 1000;
+
+    private final PluginManager mManager;
+    private final File mDirectory;
+
+    private final Map<File, Pending> mPending = new HashMap<>();
+
+    private WatchService mWatchService;
+    private Thread mWatchThread;
+    private ScheduledExecutorService mScheduler;
+
+    public PluginDeployer(PluginManager manager, File directory) {
+        mManager = manager;
+        mDirectory = directory;
+    }
+
+    public synchronized void start() {
+        if (mWatchService != null) {
+            return;
+        }
+        try {
+            mWatchService = FileSystems.getDefault().newWatchService();
+            mDirectory.toPath().register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not watch plugin directory", e);
+            mWatchService = null;
+            return;
+        }
+
+        mScheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "PluginDeployer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mScheduler.scheduleWithFixedDelay(this::deployPending, DEBOUNCE, DEBOUNCE / 2, TimeUnit.MILLISECONDS);
+
+        WatchService watchService = mWatchService;
+        mWatchThread = new Thread(() -> watch(watchService), "PluginDeployer-Watch");
+        mWatchThread.setDaemon(true);
+        mWatchThread.start();
+    }
+
+    public synchronized void stop() {
+        if (mWatchService == null) {
+            return;
+        }
+        try {
+            mWatchService.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        mScheduler.shutdownNow();
+        mWatchService = null;
+        mWatchThread = null;
+        mScheduler = null;
+        synchronized (mPending) {
+            mPending.clear();
+        }
+    }
+
+    private void watch(WatchService watchService) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    continue;
+                }
+                Path name = (Path) event.context();
+                if (!name.toString().toLowerCase().endsWith(".jar")) {
+                    continue;
+                }
+                File file = new File(mDirectory, name.toString());
+                synchronized (mPending) {
+                    Pending pending = mPending.get(file);
+                    if (pending == null) {
+                        mPending.put(file, new Pending(file));
+                    } else {
+                        pending.touch();
+                    }
+                }
+            }
+            if (!key.reset()) {
+                Log.w(TAG, "Plugin directory is no longer accessible");
+                return;
+            }
+        }
+    }
+
+    private void deployPending() {
+        long now = System.currentTimeMillis();
+        Map<File, Boolean> ready = new HashMap<>();
+        synchronized (mPending) {
+            Iterator<Pending> iterator = mPending.values().iterator();
+            while (iterator.hasNext()) {
+                Pending pending = iterator.next();
+                if (now - pending.mTime < DEBOUNCE) {
+                    continue;
+                }
+                if (!pending.mFile.exists()) {
+                    ready.put(pending.mFile, false);
+                    iterator.remove();
+                } else if (pending.settled() && isComplete(pending.mFile)) {
+                    ready.put(pending.mFile, true);
+                    iterator.remove();
+                }
+            }
+        }
+
+        ready.forEach((file, exists) -> {
+            try {
+                if (exists) {
+                    mManager.deployPlugin(file);
+                } else {
+                    mManager.undeployPlugin(file);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Could not deploy plugin " + file.getName(), e);
+            }
+        });
+    }
+
+    private static boolean isComplete(File file) {
+        // The central directory is written last, a jar that opens has been fully written
+        try (JarFile jar = new JarFile(file)) {
+            return jar.size() >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static class Pending {
+        private final File mFile;
+        private long mTime;
+        private long mModified;
+        private long mLength;
+
+        private Pending(File file) {
+            mFile = file;
+            touch();
+        }
+
+        private void touch() {
+            mTime = System.currentTimeMillis();
+            mModified = mFile.lastModified();
+            mLength = mFile.length();
+        }
+
+        /**
+         * @return True if size and modification time did not change since the last check.
+         */
+        private boolean settled() {
+            long modified = mFile.lastModified();
+            long length = mFile.length();
+            if (modified == mModified && length == mLength) {
+                return true;
+            }
+            mTime = System.currentTimeMillis();
+            mModified = modified;
+            mLength = length;
+            return false;
+        }
+    }
+}
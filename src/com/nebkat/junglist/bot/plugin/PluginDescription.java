@@ -27,6 +27,7 @@ public final class PluginDescription {
     private String title = null;
     private String version = null;
     private String main = null;
+    private int concurrency = 0;
 
     /**
      * Returns the name of a plugin.
@@ -72,4 +73,13 @@ public final class PluginDescription {
     public String getMain() {
         return main;
     }
+
+    /**
+     * Returns the number of command handlers of a plugin that may run at once.
+     *
+     * @return Handler count, or 0 to use the bot default.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
 }
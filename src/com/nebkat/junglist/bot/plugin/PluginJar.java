@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.plugin;
+
+/**
+ * Everything read from a plugin jar before its classes are loaded.
+ */
+final class PluginJar {
+    private final long mModified;
+    private final long mLength;
+    private final byte[] mChecksum;
+    private final PluginDescription mDescription;
+    private final String mConfig;
+
+    PluginJar(long modified, long length, byte[] checksum, PluginDescription description, String config) {
+        mModified = modified;
+        mLength = length;
+        mChecksum = checksum;
+        mDescription = description;
+        mConfig = config;
+    }
+
+    long getModified() {
+        return mModified;
+    }
+
+    long getLength() {
+        return mLength;
+    }
+
+    byte[] getChecksum() {
+        return mChecksum;
+    }
+
+    PluginDescription getDescription() {
+        return mDescription;
+    }
+
+    /**
+     * @return Contents of the bundled config.json, or null if the jar has none.
+     */
+    String getConfig() {
+        return mConfig;
+    }
+}
@@ -27,16 +27,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Type;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.security.MessageDigest;
-import java.util.HashMap;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -48,28 +48,85 @@ public class PluginLoader {
 
     private final Gson mGson = new Gson();
 
-    private final Map<Plugin, URLClassLoader> mClassLoaders = new HashMap<>();
+    private final Map<Plugin, URLClassLoader> mClassLoaders = new ConcurrentHashMap<>();
+    private final Map<String, PluginJar> mJars = new ConcurrentHashMap<>();
+
+    private final ChecksumAlgorithm mChecksumAlgorithm;
 
     public PluginLoader(Bot bot, PluginManager manager) {
         mBot = bot;
         mManager = manager;
+        mChecksumAlgorithm = ChecksumAlgorithm.forName(bot.getConfiguration().getBotConfiguration().getPluginChecksum());
     }
 
-    protected static byte[] getChecksum(File file) throws Exception {
-        try (InputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[1024];
-            MessageDigest complete = MessageDigest.getInstance("MD5");
-            int numRead;
+    /**
+     * Reads the checksum, description and bundled config of a plugin jar in a single pass. Results are cached by
+     * path, size and modification time so unchanged jars are not read again.
+     */
+    protected PluginJar readPluginJar(File file) throws InvalidDescriptionException {
+        String path = file.getAbsolutePath();
+        long modified = file.lastModified();
+        long length = file.length();
+
+        PluginJar cached = mJars.get(path);
+        if (cached != null && cached.getModified() == modified && cached.getLength() == length) {
+            return cached;
+        }
+
+        byte[] checksum;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            checksum = mChecksumAlgorithm.digest(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed generating plugin checksum", ex);
+            throw new InvalidDescriptionException(ex);
+        }
+
+        try (JarFile jar = new JarFile(file)) {
+            JarEntry entry = jar.getJarEntry("plugin.json");
+
+            if (entry == null) {
+                throw new InvalidDescriptionException(new FileNotFoundException("Jar does not contain plugin.json"));
+            }
+
+            PluginDescription description;
+            try (Reader stream = new InputStreamReader(jar.getInputStream(entry))) {
+                description = mGson.fromJson(stream, PluginDescription.class);
+            }
+            if (description.getName() == null) {
+                throw new InvalidDescriptionException("Plugin name is null");
+            } else if (description.getMain() == null) {
+                throw new InvalidDescriptionException("Plugin main is null");
+            }
 
-            do {
-                numRead = fis.read(buffer);
-                if (numRead > 0) {
-                    complete.update(buffer, 0, numRead);
+            String config = null;
+            JarEntry configEntry = jar.getJarEntry("config.json");
+            if (configEntry != null) {
+                try (Reader stream = new InputStreamReader(jar.getInputStream(configEntry))) {
+                    config = read(stream);
                 }
-            } while (numRead != -1);
+            }
+
+            PluginJar result = new PluginJar(modified, length, checksum, description, config);
+            mJars.put(path, result);
+            return result;
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed reading plugin jar", ex);
+            throw new InvalidDescriptionException(ex);
+        }
+    }
 
-            return complete.digest();
+    private static String read(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, read);
         }
+        return builder.toString();
+    }
+
+    protected byte[] getChecksum(File file) throws InvalidDescriptionException {
+        return readPluginJar(file).getChecksum();
     }
 
     @SuppressWarnings("unchecked")
@@ -82,19 +139,13 @@ public class PluginLoader {
             return null;
         }
 
-        byte[] checksum = null;
+        PluginJar jar;
         try {
-            checksum = getChecksum(file);
-        } catch (Exception e) {
-            Log.w(TAG, "Failed generating plugin checksum", e);
-        }
-
-        PluginDescription description;
-        try {
-            description = getPluginDescription(file);
+            jar = readPluginJar(file);
         } catch (InvalidDescriptionException e) {
             throw new InvalidPluginException(e);
         }
+        PluginDescription description = jar.getDescription();
         Plugin result;
 
         try {
@@ -109,9 +160,12 @@ public class PluginLoader {
             Class<? extends Plugin> plugin = jarClass.asSubclass(Plugin.class);
             result = plugin.getConstructor().newInstance();
 
-            Object config = getPluginConfig(file, mBot.getPluginDirectory().getPath() + "/" + description.getName(), result.getConfigType());
+            File configFile = jar.getConfig() != null
+                    ? new File(mBot.getPluginDirectory().getPath() + "/" + description.getName() + "/config.json")
+                    : null;
+            Object config = getPluginConfig(jar, configFile, result.getConfigType());
 
-            result.initialize(mBot, description, config, mManager, checksum);
+            result.initialize(mBot, description, config, mManager, file, jar.getModified(), jar.getLength(), jar.getChecksum(), configFile);
 
             mClassLoaders.put(result, loader);
         } catch (InvocationTargetException ex) {
@@ -143,72 +197,22 @@ public class PluginLoader {
             return null;
         }
 
-        try (JarFile jar = new JarFile(file)) {
-            JarEntry entry = jar.getJarEntry("plugin.json");
-
-            if (entry == null) {
-                throw new InvalidDescriptionException(new FileNotFoundException("Jar does not contain plugin.json"));
-            }
-
-            Reader stream = new InputStreamReader(jar.getInputStream(entry));
-
-            PluginDescription description = mGson.fromJson(stream, PluginDescription.class);
-            if (description.getName() == null) {
-                throw new InvalidDescriptionException("Plugin name is null");
-            } else if (description.getMain() == null) {
-                throw new InvalidDescriptionException("Plugin main is null");
-            }
-            return description;
-
-        } catch (IOException ex) {
-            Log.e(TAG, "Failed getting plugin description", ex);
-            throw new InvalidDescriptionException(ex);
-        }
+        return readPluginJar(file).getDescription();
     }
 
-    protected Object getPluginConfig(File file, String path, Type type) throws InvalidDescriptionException {
-        if (file == null) {
+    protected Object getPluginConfig(PluginJar jar, File localConfig, Type type) throws InvalidDescriptionException {
+        if (jar.getConfig() == null) {
             return null;
         }
 
-        JarFile jar = null;
-        Reader stream = null;
-
-        try {
-            jar = new JarFile(file);
-            JarEntry entry = jar.getJarEntry("config.json");
-
-            if (entry == null) {
-                return null;
-            }
-
-
-            File localConfig = new File(path + "/config.json");
-            if (localConfig.exists()) {
-                stream = new InputStreamReader(new FileInputStream(localConfig));
-            } else {
-                stream = new InputStreamReader(jar.getInputStream(entry));
-            }
-
-            return mGson.fromJson(stream, type != null ? type : Object.class);
-        } catch (IOException ex) {
-            Log.e(TAG, "Failed getting plugin config", ex);
-            throw new InvalidDescriptionException(ex);
-        } finally {
-            if (stream != null) {
-                try {
-                    stream.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
-            }
-            if (jar != null) {
-                try {
-                    jar.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
+        if (localConfig.exists()) {
+            try (Reader stream = new InputStreamReader(new FileInputStream(localConfig))) {
+                return mGson.fromJson(stream, type != null ? type : Object.class);
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed getting plugin config", ex);
+                throw new InvalidDescriptionException(ex);
             }
         }
+        return mGson.fromJson(jar.getConfig(), type != null ? type : Object.class);
     }
 }
@@ -24,8 +24,8 @@ import com.nebkat.junglist.bot.Bot;
 import com.nebkat.junglist.bot.command.Command;
 import com.nebkat.junglist.bot.command.CommandEvent;
 import com.nebkat.junglist.bot.command.CommandFilter;
+import com.nebkat.junglist.bot.command.CommandManager;
 import com.nebkat.junglist.bot.command.UserLevel;
-import com.nebkat.junglist.irc.Irc;
 import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.events.EventHandler;
 import com.nebkat.junglist.irc.utils.Utils;
@@ -37,11 +37,13 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public final class PluginManager implements com.nebkat.junglist.irc.events.EventListener {
     private static final String TAG = "PluginManager";
@@ -49,6 +51,9 @@ public final class PluginManager implements com.nebkat.junglist.irc.events.Event
     private final Bot mBot;
     private final PluginLoader mPluginLoader;
     private final File mPluginDirectory;
+    private final PluginDeployer mPluginDeployer;
+
+    private static final Comparator<Plugin> PLUGIN_ORDER = (a, b) -> a.getDescription().getName().compareTo(b.getDescription().getName());
 
     private final Map<String, Plugin> mPlugins = new HashMap<>();
 
@@ -62,13 +67,181 @@ public final class PluginManager implements com.nebkat.junglist.irc.events.Event
             throw new IllegalArgumentException("Plugin directory must be a valid directory");
         }
         mPluginDirectory = directory;
+        mPluginDeployer = new PluginDeployer(this, directory);
 
         mBot.getIrc().getEventHandlerManager().registerEvents(this);
-        mBot.getCommandManager().registerCommand(new Command("plugin", null, "Manage plugins", "list/reload/load/unload/enable/disable [<plugin>]", UserLevel.OWNER, false));
+        mBot.getCommandManager().registerCommand(new Command("plugin", null, "Manage plugins", "list/reload/load/unload/enable/disable/stats [<plugin>]", UserLevel.OWNER, false));
+    }
+
+    private File[] getPluginFiles() {
+        File[] files = mPluginDirectory.listFiles(file -> file.isFile() && file.getName().toLowerCase().endsWith(".jar"));
+        return files != null ? files : new File[0];
+    }
+
+    public synchronized void loadPlugins() {
+        // Read, checksum and class load in parallel, then create and enable in a fixed order
+        List<Plugin> plugins = Arrays.stream(getPluginFiles()).parallel()
+                .map(this::preparePlugin)
+                .filter(Objects::nonNull)
+                .sorted(PLUGIN_ORDER)
+                .collect(Collectors.toList());
+        plugins.forEach(this::startPlugin);
+
+        if (mBot.getConfiguration().getBotConfiguration().getPluginWatch()) {
+            mPluginDeployer.start();
+        }
+    }
+
+    public void close() {
+        mPluginDeployer.stop();
+        unloadPlugins();
+    }
+
+    private Plugin getPluginForFile(File file) {
+        String path = file.getAbsolutePath();
+        for (Plugin plugin : mPlugins.values()) {
+            if (plugin.getFile().getAbsolutePath().equals(path)) {
+                return plugin;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads a new or changed plugin jar, replacing the plugin previously loaded from it.
+     *
+     * @return Plugin now running from the jar, or null if it could not be loaded.
+     */
+    public synchronized Plugin deployPlugin(File file) {
+        Plugin old = getPluginForFile(file);
+        if (old != null && !old.isConfigModified()) {
+            if (!old.isModified()) {
+                return old;
+            }
+            try {
+                if (Arrays.equals(old.getChecksum(), mPluginLoader.getChecksum(file))) {
+                    old.updateFileStamp();
+                    return old;
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed generating plugin checksum", e);
+            }
+        }
+
+        Plugin plugin = preparePlugin(file);
+        if (plugin == null) {
+            return old;
+        }
+        if (old != null) {
+            Log.i(TAG, "Redeploying plugin: " + old.getDescription().getFullName() + " -> " + plugin.getDescription().getFullName());
+            return swapPlugin(old, plugin);
+        }
+        return startPlugin(plugin);
     }
 
-    public void loadPlugins() {
-        Utils.forEach(mPluginDirectory.listFiles(file -> file.isFile() && file.getName().toLowerCase().endsWith(".jar")), this::loadPlugin);
+    public synchronized void undeployPlugin(File file) {
+        Plugin plugin = getPluginForFile(file);
+        if (plugin != null) {
+            Log.i(TAG, "Undeploying plugin: " + plugin.getDescription().getFullName());
+            unloadPlugin(plugin);
+        }
+    }
+
+    /**
+     * Replaces a running plugin with a prepared one. Commands of the old plugin stay published until the new plugin
+     * has been created and enabled, commands sent in between are run once the swap is complete. The old plugin is
+     * only destroyed and unloaded once the new one is running, if the new one fails to start the old one is enabled
+     * again.
+     *
+     * @return Plugin running after the swap, or null if neither is.
+     */
+    private synchronized Plugin swapPlugin(Plugin old, Plugin plugin) {
+        CommandManager commandManager = mBot.getCommandManager();
+        if (mPlugins.get(old.getDescription().getName()) != old) {
+            return startPlugin(plugin);
+        }
+        commandManager.beginPluginSwap(old);
+        try {
+            boolean enabled = old.getEnabled();
+            disablePlugin(old);
+            List<Command> commands = commandManager.getPluginCommands(old);
+            commandManager.clearPluginCommands(old);
+            mPlugins.remove(old.getDescription().getName());
+
+            if (startPlugin(plugin) != null) {
+                old.destroy();
+                mPluginLoader.unloadPlugin(old);
+                return plugin;
+            }
+
+            Log.w(TAG, "Keeping plugin " + old.getDescription().getFullName() + " running");
+            mPlugins.put(old.getDescription().getName(), old);
+            commands.forEach(commandManager::registerCommand);
+            if (enabled) {
+                enablePlugin(old);
+            }
+            return old;
+        } finally {
+            commandManager.endPluginSwap(old);
+        }
+    }
+
+    /**
+     * Reloads only plugins whose jar or local config.json was added, removed or changed. Jars with an unchanged
+     * modification time and size are not read at all, jars with an unchanged checksum are kept.
+     */
+    public synchronized ReloadResult reloadPlugins() {
+        ReloadResult result = new ReloadResult();
+
+        Map<String, Plugin> loaded = new HashMap<>();
+        mPlugins.values().forEach((plugin) -> loaded.put(plugin.getFile().getAbsolutePath(), plugin));
+
+        List<File> candidates = Arrays.stream(getPluginFiles()).parallel()
+                .filter((file) -> {
+                    Plugin plugin = loaded.get(file.getAbsolutePath());
+                    if (plugin == null || plugin.isConfigModified()) {
+                        return true;
+                    } else if (!plugin.isModified()) {
+                        return false;
+                    }
+                    try {
+                        if (Arrays.equals(plugin.getChecksum(), mPluginLoader.getChecksum(file))) {
+                            plugin.updateFileStamp();
+                            return false;
+                        }
+                    } catch (Exception e) {
+                        Log.w(TAG, "Failed generating plugin checksum", e);
+                    }
+                    return true;
+                })
+                .collect(Collectors.toList());
+
+        Set<String> present = Arrays.stream(getPluginFiles()).map(File::getAbsolutePath).collect(Collectors.toSet());
+        loaded.forEach((path, plugin) -> {
+            if (!present.contains(path)) {
+                unloadPlugin(plugin);
+                result.mRemoved++;
+            }
+        });
+
+        List<Plugin> plugins = candidates.parallelStream()
+                .map(this::preparePlugin)
+                .filter(Objects::nonNull)
+                .sorted(PLUGIN_ORDER)
+                .collect(Collectors.toList());
+        for (Plugin plugin : plugins) {
+            Plugin old = loaded.get(plugin.getFile().getAbsolutePath());
+            if ((old != null ? swapPlugin(old, plugin) : startPlugin(plugin)) == plugin) {
+                if (old != null) {
+                    result.mUpdated++;
+                } else {
+                    result.mNew++;
+                }
+            }
+        }
+
+        result.mLoaded = mPlugins.size();
+        return result;
     }
 
     public void unloadPlugins() {
@@ -76,6 +249,14 @@ public final class PluginManager implements com.nebkat.junglist.irc.events.Event
     }
 
     public synchronized Plugin loadPlugin(File file) {
+        Plugin plugin = preparePlugin(file);
+        return plugin != null ? startPlugin(plugin) : null;
+    }
+
+    /**
+     * Reads, checksums and class loads a plugin jar. Does not touch manager state and may run on any thread.
+     */
+    private Plugin preparePlugin(File file) {
         if (file == null) {
             Log.e(TAG, "Plugin file is null");
             return null;
@@ -83,25 +264,42 @@ public final class PluginManager implements com.nebkat.junglist.irc.events.Event
             Log.e(TAG, "Plugin file does not exist or is a directory");
             return null;
         }
-        long start = System.currentTimeMillis();
-
-        PluginDescription description;
         try {
-            description = mPluginLoader.getPluginDescription(file);
-        } catch (InvalidDescriptionException ex) {
+            return mPluginLoader.loadPlugin(file);
+        } catch (InvalidPluginException ex) {
             Log.e(TAG, "Could not load plugin: " + file.toURI().toASCIIString(), ex);
+        }
+        return null;
+    }
+
+    private synchronized Plugin startPlugin(Plugin plugin) {
+        long start = System.currentTimeMillis();
+        PluginDescription description = plugin.getDescription();
+        if (mPlugins.containsKey(description.getName())) {
+            Log.e(TAG, "Could not load plugin: " + description.getFullName() + " " + plugin.getFile().toURI().toASCIIString() +
+                    ", plugin " + description.getName() + " is already loaded");
+            mPluginLoader.unloadPlugin(plugin);
             return null;
         }
         try {
-            Plugin p = mPluginLoader.loadPlugin(file);
-            mPlugins.put(description.getName(), p);
-            p.create();
-            enablePlugin(p);
+            mPlugins.put(description.getName(), plugin);
+            plugin.create();
+            enablePlugin(plugin);
             Log.i(TAG, "Loaded plugin (" + (System.currentTimeMillis() - start) + "ms): " + description.getFullName());
-            return p;
+            return plugin;
+        } catch (Exception ex) {
+            Log.e(TAG, "Could not load plugin: " + description.getFullName() + " " + plugin.getFile().toURI().toASCIIString(), ex);
+        }
+        // Leave nothing of a plugin that failed half way behind
+        try {
+            disablePlugin(plugin);
+            plugin.destroy();
         } catch (Exception ex) {
-            Log.e(TAG, "Could not load plugin: " + description.getFullName() + " " + file.toURI().toASCIIString(), ex);
+            Log.e(TAG, "Could not clean up plugin: " + description.getFullName(), ex);
         }
+        mPlugins.remove(description.getName(), plugin);
+        mBot.getCommandManager().clearPluginCommands(plugin);
+        mPluginLoader.unloadPlugin(plugin);
         return null;
     }
 
@@ -152,6 +350,7 @@ public final class PluginManager implements com.nebkat.junglist.irc.events.Event
         } catch (IOException e) {
             Log.e(TAG, "Could not save plugin config: " + plugin.getDescription().getTitle(), e);
         }
+        plugin.updateConfigStamp();
     }
 
     @EventHandler
@@ -165,48 +364,23 @@ public final class PluginManager implements com.nebkat.junglist.irc.events.Event
         if (action.equalsIgnoreCase("reload")) {
             long start = System.currentTimeMillis();
 
-            // New/removed/updated
-            Set<String> pluginSet = new HashSet<>(mPlugins.keySet());
-            Map<String, byte[]> oldPluginChecksums = new HashMap<>(mPlugins.size());
-            mPlugins.entrySet().forEach((plugin) -> oldPluginChecksums.put(plugin.getKey(), plugin.getValue().getChecksum()));
-
-            unloadPlugins();
-            loadPlugins();
-            int loaded = mPlugins.size();
-
-            // New/removed/updated
-            pluginSet.addAll(mPlugins.keySet());
-            Map<String, byte[]> newPluginChecksums = new HashMap<>(mPlugins.size());
-            mPlugins.entrySet().forEach((plugin) -> newPluginChecksums.put(plugin.getKey(), plugin.getValue().getChecksum()));
-
-            int newPlugins = 0;
-            int removedPlugins = 0;
-            int changedPlugins = 0;
-            for (String plugin : pluginSet) {
-                if (!oldPluginChecksums.containsKey(plugin)) {
-                    newPlugins++;
-                } else if (!newPluginChecksums.containsKey(plugin)) {
-                    removedPlugins++;
-                } else if (!Arrays.equals(oldPluginChecksums.get(plugin), newPluginChecksums.get(plugin))) {
-                    changedPlugins++;
-                }
-            }
+            ReloadResult result = reloadPlugins();
 
-            String message = loaded + " plugins loaded in " + (System.currentTimeMillis() - start) + "ms.";
+            String message = result.getLoaded() + " plugins loaded in " + (System.currentTimeMillis() - start) + "ms.";
             List<String> extras = new ArrayList<>(3);
-            if (newPlugins > 0) {
-                extras.add(newPlugins + " new");
+            if (result.getNew() > 0) {
+                extras.add(result.getNew() + " new");
             }
-            if (removedPlugins > 0) {
-                extras.add(removedPlugins + " removed");
+            if (result.getRemoved() > 0) {
+                extras.add(result.getRemoved() + " removed");
             }
-            if (changedPlugins > 0) {
-                extras.add(changedPlugins + " updated");
+            if (result.getUpdated() > 0) {
+                extras.add(result.getUpdated() + " updated");
             }
             if (extras.size() > 0) {
                 message += " (" + Utils.implode(extras, ", ") + ")";
             }
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + message);
+            mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + message);
         } else if (action.equalsIgnoreCase("list")) {
             List<String> plugins = new ArrayList<>();
             for (Plugin plugin : mPlugins.values()) {
@@ -217,7 +391,7 @@ public final class PluginManager implements com.nebkat.junglist.irc.events.Event
                 plugins.add(name);
             }
             Collections.sort(plugins);
-            Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Plugins: " + Utils.implode(plugins, ", "));
+            mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Plugins: " + Utils.implode(plugins, ", "));
         } else {
             if (e.getParams().length < 2) {
                 e.showUsage(mBot);
@@ -226,30 +400,60 @@ public final class PluginManager implements com.nebkat.junglist.irc.events.Event
             if (action.equalsIgnoreCase("enable")) {
                 if (getPlugin(e.getParams()[1]) != null) {
                     enablePlugin(getPlugin(e.getParams()[1]));
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + getPlugin(e.getParams()[1]).getDescription().getTitle() + " enabled");
+                    mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + getPlugin(e.getParams()[1]).getDescription().getTitle() + " enabled");
                 }
             } else if (action.equalsIgnoreCase("disable")) {
                 if (getPlugin(e.getParams()[1]) != null) {
                     disablePlugin(getPlugin(e.getParams()[1]));
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + getPlugin(e.getParams()[1]).getDescription().getTitle() + " disabled");
+                    mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + getPlugin(e.getParams()[1]).getDescription().getTitle() + " disabled");
                 }
             } else if (action.equalsIgnoreCase("load")) {
                 File file = new File(e.getParams()[1]);
                 Plugin plugin = loadPlugin(file);
                 if (plugin == null) {
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error loading plugin: " + file.toURI().toASCIIString());
+                    mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Error loading plugin: " + file.toURI().toASCIIString());
                 } else {
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + plugin.getDescription().getFullName() + " loaded");
+                    mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + plugin.getDescription().getFullName() + " loaded");
+                }
+            } else if (action.equalsIgnoreCase("stats")) {
+                Plugin plugin = getPlugin(e.getParams()[1]);
+                if (plugin != null) {
+                    mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + plugin.getDescription().getTitle() + " commands {" + mBot.getCommandManager().getExecutor().getStatistics(plugin) + "}, tasks {" + mBot.getScheduler().getStatistics(plugin) + "}");
+                } else {
+                    mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown plugin " + e.getParams()[1]);
                 }
             } else if (action.equalsIgnoreCase("unload")) {
                 Plugin plugin = getPlugin(e.getParams()[1]);
                 if (plugin != null) {
                     unloadPlugin(plugin);
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + plugin.getDescription().getTitle() + " unloaded");
+                    mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": " + plugin.getDescription().getTitle() + " unloaded");
                 } else {
-                    Irc.message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown plugin " + e.getParams()[1]);
+                    mBot.getOutputQueue().message(e.getSession(), e.getTarget(), e.getSource().getNick() + ": Unknown plugin " + e.getParams()[1]);
                 }
             }
         }
     }
+
+    public static class ReloadResult {
+        private int mLoaded;
+        private int mNew;
+        private int mRemoved;
+        private int mUpdated;
+
+        public int getLoaded() {
+            return mLoaded;
+        }
+
+        public int getNew() {
+            return mNew;
+        }
+
+        public int getRemoved() {
+            return mRemoved;
+        }
+
+        public int getUpdated() {
+            return mUpdated;
+        }
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.scheduler;
+
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Cron style schedule of five fields: minute, hour, day of month, month and day of week.
+ *
+ * Fields accept {@code *}, values, ranges, lists and steps such as {@code 0,30}, {@code 9-17} or {@code *}{@code /15}.
+ * Days of the week run from 0 (Sunday) to 7 (Sunday again). The {@code @hourly}, {@code @daily}, {@code @weekly},
+ * {@code @monthly} and {@code @yearly} shorthands are supported as well.
+ */
+public class CronSchedule implements Schedule {
+    private static final int MAX_YEARS = 5;
+
+    private final String mExpression;
+    private final TimeZone mTimeZone;
+    private final BitSet mMinutes;
+    private final BitSet mHours;
+    private final BitSet mDaysOfMonth;
+    private final BitSet mMonths;
+    private final BitSet mDaysOfWeek;
+    private final boolean mDayOfMonthRestricted;
+    private final boolean mDayOfWeekRestricted;
+
+    private CronSchedule(String expression, TimeZone timeZone, String[] fields) {
+        mExpression = expression;
+        mTimeZone = timeZone;
+        mMinutes = parseField(fields[0], 0, 59);
+        mHours = parseField(fields[1], 0, 23);
+        mDaysOfMonth = parseField(fields[2], 1, 31);
+        mMonths = parseField(fields[3], 1, 12);
+        mDaysOfWeek = parseField(fields[4], 0, 7);
+        if (mDaysOfWeek.get(7)) {
+            mDaysOfWeek.set(0);
+        }
+        mDayOfMonthRestricted = !fields[2].startsWith("*");
+        mDayOfWeekRestricted = !fields[4].startsWith("*");
+    }
+
+    /**
+     * @throws IllegalArgumentException If the expression is invalid.
+     */
+    public static CronSchedule parse(String expression) {
+        return parse(expression, TimeZone.getDefault());
+    }
+
+    /**
+     * @throws IllegalArgumentException If the expression is invalid.
+     */
+    public static CronSchedule parse(String expression, TimeZone timeZone) {
+        String fields = expression.trim();
+        switch (fields) {
+            case "@hourly":
+                fields = "0 * * * *";
+                break;
+            case "@daily":
+            case "@midnight":
+                fields = "0 0 * * *";
+                break;
+            case "@weekly":
+                fields = "0 0 * * 0";
+                break;
+            case "@monthly":
+                fields = "0 0 1 * *";
+                break;
+            case "@yearly":
+            case "@annually":
+                fields = "0 0 1 1 *";
+                break;
+        }
+        String[] split = fields.split("\\s+");
+        if (split.length != 5) {
+            throw new IllegalArgumentException("Cron expression must have 5 fields: " + expression);
+        }
+        return new CronSchedule(expression.trim(), timeZone, split);
+    }
+
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash != -1) {
+                step = parseValue(part.substring(slash + 1), 1, max);
+                part = part.substring(0, slash);
+            }
+            int start;
+            int end;
+            if (part.equals("*")) {
+                start = min;
+                end = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash != -1) {
+                    start = parseValue(part.substring(0, dash), min, max);
+                    end = parseValue(part.substring(dash + 1), min, max);
+                } else {
+                    start = parseValue(part, min, max);
+                    end = slash != -1 ? max : start;
+                }
+                if (start > end) {
+                    throw new IllegalArgumentException("Invalid range " + part);
+                }
+            }
+            for (int i = start; i <= end; i += step) {
+                values.set(i);
+            }
+        }
+        return values;
+    }
+
+    private static int parseValue(String value, int min, int max) {
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cron value " + value);
+        }
+        if (result < min || result > max) {
+            throw new IllegalArgumentException("Cron value " + value + " out of range " + min + "-" + max);
+        }
+        return result;
+    }
+
+    @Override
+    public long next(long time) {
+        Calendar calendar = Calendar.getInstance(mTimeZone);
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.MINUTE, 1);
+        int limit = calendar.get(Calendar.YEAR) + MAX_YEARS;
+
+        // Skip whole months, days and hours that cannot match before stepping through minutes
+        while (calendar.get(Calendar.YEAR) <= limit) {
+            if (!mMonths.get(calendar.get(Calendar.MONTH) + 1)) {
+                calendar.add(Calendar.MONTH, 1);
+                calendar.set(Calendar.DAY_OF_MONTH, 1);
+                calendar.set(Calendar.HOUR_OF_DAY, 0);
+                calendar.set(Calendar.MINUTE, 0);
+            } else if (!matchesDay(calendar)) {
+                calendar.add(Calendar.DAY_OF_MONTH, 1);
+                calendar.set(Calendar.HOUR_OF_DAY, 0);
+                calendar.set(Calendar.MINUTE, 0);
+            } else if (!mHours.get(calendar.get(Calendar.HOUR_OF_DAY))) {
+                calendar.add(Calendar.HOUR_OF_DAY, 1);
+                calendar.set(Calendar.MINUTE, 0);
+            } else if (!mMinutes.get(calendar.get(Calendar.MINUTE))) {
+                calendar.add(Calendar.MINUTE, 1);
+            } else {
+                return calendar.getTimeInMillis();
+            }
+        }
+        return -1;
+    }
+
+    private boolean matchesDay(Calendar calendar) {
+        boolean dayOfMonth = mDaysOfMonth.get(calendar.get(Calendar.DAY_OF_MONTH));
+        boolean dayOfWeek = mDaysOfWeek.get(calendar.get(Calendar.DAY_OF_WEEK) - 1);
+        // Like cron, a day matches either field when both are restricted
+        if (mDayOfMonthRestricted && mDayOfWeekRestricted) {
+            return dayOfMonth || dayOfWeek;
+        }
+        return dayOfMonth && dayOfWeek;
+    }
+
+    @Override
+    public String toString() {
+        return mExpression;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.scheduler;
+
+import com.nebkat.junglist.bot.TaskExecutors;
+import com.nebkat.junglist.irc.Log;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler shared by the whole bot.
+ *
+ * Tasks are kept on a single timing wheel and run on virtual threads where the JVM provides them. Every task belongs
+ * to an owner, usually a plugin, so all of an owner's tasks can be cancelled together, and task counts and lateness
+ * are tracked per owner. A task throwing never affects other tasks or later runs of a recurring task.
+ */
+public class Scheduler {
+    private static final String TAG = "Scheduler";
+
+    private final ExecutorService mExecutor;
+    private final TimingWheel mWheel;
+
+    private final Map<Object, Statistics> mOwners = new ConcurrentHashMap<>();
+
+    /**
+     * @param tickDuration Precision of the scheduler in milliseconds.
+     * @param wheelSize Number of buckets of the timing wheel.
+     */
+    public Scheduler(long tickDuration, int wheelSize) {
+        mExecutor = TaskExecutors.newTaskExecutor("Scheduler");
+        mWheel = new TimingWheel(tickDuration, wheelSize, mExecutor);
+    }
+
+    /**
+     * @return View of this scheduler whose tasks are cancelled together by {@link #cancel(Object)}.
+     */
+    public Scope scope(Object owner) {
+        return new Scope(owner);
+    }
+
+    /**
+     * Runs a task once after a delay.
+     */
+    public Task schedule(Object owner, Runnable runnable, long delay, TimeUnit unit) {
+        Task task = new Task(owner, runnable, false, 0);
+        task.setTimeout(mWheel.schedule(task, delay, unit));
+        return task;
+    }
+
+    /**
+     * Runs a task once at an absolute time in milliseconds, times in the past run on the next tick.
+     */
+    public Task scheduleAt(Object owner, Runnable runnable, long time) {
+        Task task = new Task(owner, runnable, false, 0);
+        task.setTimeout(mWheel.scheduleAt(task, time));
+        return task;
+    }
+
+    /**
+     * Runs a task periodically, runs missed while the task was late are skipped rather than bunched up.
+     */
+    public Task scheduleAtFixedRate(Object owner, Runnable runnable, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        return schedule(owner, runnable, new FixedRate(unit.toMillis(initialDelay), unit.toMillis(period)));
+    }
+
+    /**
+     * Runs a task periodically, waiting the given delay after each run completes so runs never overlap.
+     */
+    public Task scheduleWithFixedDelay(Object owner, Runnable runnable, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("Delay must be positive");
+        }
+        Task task = new Task(owner, runnable, true, unit.toMillis(delay));
+        task.setTimeout(mWheel.schedule(task, initialDelay, unit));
+        return task;
+    }
+
+    /**
+     * Runs a task at each time of a schedule.
+     *
+     * @return Task, or null if the schedule never fires.
+     */
+    public Task schedule(Object owner, Runnable runnable, Schedule schedule) {
+        Task task = new Task(owner, runnable, true, 0);
+        task.setTimeout(mWheel.schedule(task, schedule));
+        if (task.mTimeout == null) {
+            task.untrack();
+            return null;
+        }
+        return task;
+    }
+
+    /**
+     * Cancels every task of an owner.
+     */
+    public void cancel(Object owner) {
+        Statistics statistics = mOwners.remove(owner);
+        if (statistics != null) {
+            // Tasks created from now on register with new statistics, so none can be missed below
+            synchronized (statistics) {
+                statistics.mCancelled = true;
+            }
+            statistics.mTasks.forEach(Task::cancel);
+        }
+    }
+
+    /**
+     * @return Statistics of the tasks of an owner since it was last cancelled.
+     */
+    public Statistics getStatistics(Object owner) {
+        Statistics statistics = mOwners.get(owner);
+        return statistics != null ? statistics : new Statistics();
+    }
+
+    /**
+     * @return Number of tasks waiting to run across all owners.
+     */
+    public int size() {
+        return mWheel.size();
+    }
+
+    public void shutdown() {
+        mWheel.shutdown();
+        mExecutor.shutdownNow();
+    }
+
+    public class Task implements TimingWheel.DeadlineTask {
+        private final Object mOwner;
+        private final Runnable mRunnable;
+        private final boolean mRecurring;
+        private final long mDelay;
+        private Statistics mStatistics;
+        private volatile TimingWheel.Timeout mTimeout;
+        private volatile boolean mCancelled;
+
+        private Task(Object owner, Runnable runnable, boolean recurring, long delay) {
+            mOwner = owner;
+            mRunnable = runnable;
+            mRecurring = recurring;
+            mDelay = delay;
+            while (mStatistics == null) {
+                Statistics statistics = mOwners.computeIfAbsent(owner, (o) -> new Statistics());
+                synchronized (statistics) {
+                    // Owner cancelled after its statistics were looked up
+                    if (!statistics.mCancelled) {
+                        mStatistics = statistics;
+                        statistics.mTasks.add(this);
+                    }
+                }
+            }
+            mStatistics.mScheduled.incrementAndGet();
+        }
+
+        private void setTimeout(TimingWheel.Timeout timeout) {
+            mTimeout = timeout;
+            // Cancelled before it was scheduled
+            if (mCancelled && timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        @Override
+        public void run(long deadline) {
+            mStatistics.addLag(Math.max(0, System.currentTimeMillis() - deadline));
+            try {
+                mRunnable.run();
+            } catch (Throwable e) {
+                mStatistics.mFailed.incrementAndGet();
+                Log.e(TAG, "Task of " + mOwner.getClass().getSimpleName() + " threw an exception", e);
+            } finally {
+                mStatistics.mRun.incrementAndGet();
+                if (mDelay > 0) {
+                    reschedule();
+                }
+                if (!mRecurring || isDone()) {
+                    untrack();
+                }
+            }
+        }
+
+        private void reschedule() {
+            if (mCancelled) {
+                return;
+            }
+            try {
+                mTimeout = mWheel.schedule(this, mDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                mCancelled = true;
+                return;
+            }
+            // Cancelled while the next run was being scheduled
+            if (mCancelled) {
+                mTimeout.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            run(System.currentTimeMillis());
+        }
+
+        private void untrack() {
+            mStatistics.mTasks.remove(this);
+        }
+
+        /**
+         * @return False if the task already ran or was cancelled.
+         */
+        public boolean cancel() {
+            mCancelled = true;
+            untrack();
+            return mTimeout != null && mTimeout.cancel();
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @return True once the task will not run again.
+         */
+        public boolean isDone() {
+            return mCancelled || (mDelay <= 0 && mTimeout != null && mTimeout.isExpired());
+        }
+
+        /**
+         * @return Time of the next run in milliseconds.
+         */
+        public long getDeadline() {
+            return mTimeout != null ? mTimeout.getDeadline() : -1;
+        }
+
+        public boolean isRecurring() {
+            return mRecurring;
+        }
+    }
+
+    private static class FixedRate implements Schedule {
+        private final long mInitialDelay;
+        private final long mPeriod;
+        private long mNext = -1;
+
+        FixedRate(long initialDelay, long period) {
+            mInitialDelay = Math.max(0, initialDelay);
+            mPeriod = period;
+        }
+
+        @Override
+        public long next(long time) {
+            if (mNext < 0) {
+                mNext = time + mInitialDelay;
+            } else {
+                mNext += mPeriod;
+                if (mNext <= time) {
+                    mNext += ((time - mNext) / mPeriod + 1) * mPeriod;
+                }
+            }
+            return mNext;
+        }
+    }
+
+    public static class Statistics {
+        private final Set<Task> mTasks = ConcurrentHashMap.newKeySet();
+        private boolean mCancelled;
+        private final AtomicLong mScheduled = new AtomicLong();
+        private final AtomicLong mRun = new AtomicLong();
+        private final AtomicLong mFailed = new AtomicLong();
+        private final AtomicLong mLag = new AtomicLong();
+        private final AtomicLong mMaxLag = new AtomicLong();
+
+        private void addLag(long lag) {
+            mLag.addAndGet(lag);
+            long max;
+            while (lag > (max = mMaxLag.get()) && !mMaxLag.compareAndSet(max, lag)) {
+                // Retry until the maximum is updated or a larger one is seen
+            }
+        }
+
+        /**
+         * @return Number of tasks waiting to run.
+         */
+        public int getActive() {
+            // Recurring tasks whose schedule ended are only noticed here
+            mTasks.removeIf(Task::isDone);
+            return mTasks.size();
+        }
+
+        public long getScheduled() {
+            return mScheduled.get();
+        }
+
+        public long getRun() {
+            return mRun.get();
+        }
+
+        public long getFailed() {
+            return mFailed.get();
+        }
+
+        /**
+         * @return Average time tasks started after their deadline in milliseconds.
+         */
+        public long getAverageLag() {
+            long run = mRun.get();
+            return run > 0 ? mLag.get() / run : 0;
+        }
+
+        /**
+         * @return Largest time a task started after its deadline in milliseconds.
+         */
+        public long getMaxLag() {
+            return mMaxLag.get();
+        }
+
+        @Override
+        public String toString() {
+            return "active: " + getActive() + ", scheduled: " + getScheduled() + ", run: " + getRun() + ", failed: " + getFailed() +
+                    ", lag: " + getAverageLag() + "ms, max lag: " + getMaxLag() + "ms";
+        }
+    }
+
+    /**
+     * Tasks scheduled on behalf of a single owner.
+     */
+    public class Scope {
+        private final Object mOwner;
+
+        private Scope(Object owner) {
+            mOwner = owner;
+        }
+
+        public Task schedule(Runnable runnable, long delay, TimeUnit unit) {
+            return Scheduler.this.schedule(mOwner, runnable, delay, unit);
+        }
+
+        public Task scheduleAt(Runnable runnable, long time) {
+            return Scheduler.this.scheduleAt(mOwner, runnable, time);
+        }
+
+        public Task scheduleAtFixedRate(Runnable runnable, long initialDelay, long period, TimeUnit unit) {
+            return Scheduler.this.scheduleAtFixedRate(mOwner, runnable, initialDelay, period, unit);
+        }
+
+        public Task scheduleWithFixedDelay(Runnable runnable, long initialDelay, long delay, TimeUnit unit) {
+            return Scheduler.this.scheduleWithFixedDelay(mOwner, runnable, initialDelay, delay, unit);
+        }
+
+        public Task schedule(Runnable runnable, Schedule schedule) {
+            return Scheduler.this.schedule(mOwner, runnable, schedule);
+        }
+
+        public Statistics getStatistics() {
+            return Scheduler.this.getStatistics(mOwner);
+        }
+
+        public void cancel() {
+            Scheduler.this.cancel(mOwner);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.scheduler;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.nebkat.junglist.irc.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durable journal of timers, so they survive restarts.
+ *
+ * Changes are appended as JSON lines and synced to disk before returning. The journal is rewritten with only the
+ * live entries when it is opened and whenever removed entries outnumber them.
+ */
+public class TimerJournal {
+    private static final String TAG = "TimerJournal";
+    private static final int COMPACT_MINIMUM = 64;
+
+    private final File mFile;
+    private final Gson mGson = new Gson();
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private FileOutputStream mOutput;
+    private Writer mWriter;
+    private int mRecords;
+
+    public TimerJournal(File file) throws IOException {
+        mFile = file;
+        if (file.exists()) {
+            replay();
+        }
+        compact();
+    }
+
+    private void replay() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record;
+                try {
+                    record = mGson.fromJson(line, Record.class);
+                } catch (JsonParseException e) {
+                    // Torn write at the end of the journal
+                    Log.w(TAG, "Skipping corrupt journal record in " + mFile);
+                    continue;
+                }
+                if (record == null || record.id == null) {
+                    continue;
+                }
+                if (record.entry != null) {
+                    mEntries.put(record.id, record.entry);
+                } else {
+                    mEntries.remove(record.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Live entries in the order they were first added.
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    public synchronized Entry get(String id) {
+        return mEntries.get(id);
+    }
+
+    /**
+     * Adds or replaces an entry.
+     */
+    public synchronized void put(Entry entry) throws IOException {
+        mEntries.put(entry.id, entry);
+        Record record = new Record();
+        record.id = entry.id;
+        record.entry = entry;
+        append(record);
+    }
+
+    public synchronized void remove(String id) throws IOException {
+        if (mEntries.remove(id) == null) {
+            return;
+        }
+        Record record = new Record();
+        record.id = id;
+        append(record);
+        if (mRecords > COMPACT_MINIMUM && mRecords > mEntries.size() * 2) {
+            compact();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (mWriter != null) {
+            mWriter.close();
+            mWriter = null;
+            mOutput = null;
+        }
+    }
+
+    private void append(Record record) throws IOException {
+        if (mWriter == null) {
+            throw new IOException("Timer journal is closed");
+        }
+        mWriter.write(mGson.toJson(record));
+        mWriter.write('\n');
+        mWriter.flush();
+        mOutput.getFD().sync();
+        mRecords++;
+    }
+
+    private void compact() throws IOException {
+        close();
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp);
+             Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+            for (Entry entry : mEntries.values()) {
+                Record record = new Record();
+                record.id = entry.id;
+                record.entry = entry;
+                writer.write(mGson.toJson(record));
+                writer.write('\n');
+            }
+            writer.flush();
+            output.getFD().sync();
+        }
+        Files.move(temp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mRecords = mEntries.size();
+        mOutput = new FileOutputStream(mFile, true);
+        mWriter = new OutputStreamWriter(mOutput, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Persisted timer.
+     */
+    public static class Entry {
+        /**
+         * Unique timer id.
+         */
+        public String id;
+        /**
+         * Next fire time in milliseconds.
+         */
+        public long deadline;
+        /**
+         * Schedule of a recurring timer, as understood by its owner, or null for a one shot timer.
+         */
+        public String schedule;
+        /**
+         * Owner defined payload.
+         */
+        public Map<String, String> data;
+    }
+
+    private static class Record {
+        public String id;
+        public Entry entry;
+    }
+}
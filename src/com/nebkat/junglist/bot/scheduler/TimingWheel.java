@@ -0,0 +1,320 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.bot.scheduler;
+
+import com.nebkat.junglist.irc.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel holding large numbers of one shot and recurring timers.
+ *
+ * Timers are hashed into a ring of buckets by deadline, each bucket being a doubly linked list, so scheduling and
+ * cancelling are constant time. A single worker thread advances the wheel once per tick and hands expired timers to
+ * an executor, timers therefore fire up to one tick late and never run on the worker thread.
+ */
+public class TimingWheel {
+    private static final String TAG = "TimingWheel";
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private static final int STATE_WAITING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final long mTickDuration;
+    private final Bucket[] mWheel;
+    private final int mMask;
+    private final Executor mExecutor;
+    private final Thread mWorker;
+    private final long mStartTime;
+
+    private final ConcurrentLinkedQueue<Timeout> mPending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> mCancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mSize = new AtomicInteger();
+    private volatile boolean mShutdown;
+    private long mTick;
+
+    /**
+     * @param tickDuration Duration of a tick in milliseconds, the precision of the wheel.
+     * @param wheelSize Number of buckets, rounded up to a power of two.
+     * @param executor Executor running expired timers.
+     */
+    public TimingWheel(long tickDuration, int wheelSize, Executor executor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        mTickDuration = tickDuration;
+        mWheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            mWheel[i] = new Bucket();
+        }
+        mMask = size - 1;
+        mExecutor = executor;
+        mStartTime = System.currentTimeMillis();
+
+        mWorker = new Thread(this::run, TAG);
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    /**
+     * Schedules a one shot timer.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return add(new Timeout(task, System.currentTimeMillis() + unit.toMillis(Math.max(0, delay)), null));
+    }
+
+    /**
+     * Schedules a one shot timer at an absolute time in milliseconds, times in the past fire on the next tick.
+     */
+    public Timeout scheduleAt(Runnable task, long time) {
+        return add(new Timeout(task, time, null));
+    }
+
+    /**
+     * Schedules a recurring timer, first firing at the next time of the schedule.
+     *
+     * @return Timeout, or null if the schedule never fires.
+     */
+    public Timeout schedule(Runnable task, Schedule schedule) {
+        long next = schedule.next(System.currentTimeMillis());
+        if (next < 0) {
+            return null;
+        }
+        return add(new Timeout(task, next, schedule));
+    }
+
+    /**
+     * Task told the deadline it fired for, so lateness can be measured against it.
+     */
+    interface DeadlineTask extends Runnable {
+        void run(long deadline);
+    }
+
+    private Timeout add(Timeout timeout) {
+        if (mShutdown) {
+            throw new RejectedExecutionException("Timing wheel is shut down");
+        }
+        mSize.incrementAndGet();
+        mPending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return Number of timers waiting to fire.
+     */
+    public int size() {
+        return mSize.get();
+    }
+
+    public void shutdown() {
+        mShutdown = true;
+        mWorker.interrupt();
+    }
+
+    private void run() {
+        while (!mShutdown) {
+            long next = mStartTime + (mTick + 1) * mTickDuration;
+            long sleep = next - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            removeCancelled();
+            transferPending();
+            expire(mWheel[(int) (mTick & mMask)]);
+            mTick++;
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = mPending.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.mState.get() == STATE_CANCELLED) {
+                continue;
+            }
+            insert(timeout, mTick);
+        }
+    }
+
+    private void insert(Timeout timeout, long minimumTick) {
+        long ticks = Math.max((timeout.mDeadline - mStartTime) / mTickDuration, minimumTick);
+        timeout.mRounds = (ticks - mTick) / mWheel.length;
+        mWheel[(int) (ticks & mMask)].add(timeout);
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = mCancelled.poll()) != null) {
+            if (timeout.mBucket != null) {
+                timeout.mBucket.remove(timeout);
+            }
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.mHead;
+        while (timeout != null) {
+            Timeout next = timeout.mNext;
+            if (timeout.mRounds <= 0) {
+                bucket.remove(timeout);
+                fire(timeout);
+            } else {
+                timeout.mRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    private void fire(Timeout timeout) {
+        if (timeout.mSchedule == null) {
+            if (!timeout.mState.compareAndSet(STATE_WAITING, STATE_EXPIRED)) {
+                return;
+            }
+            mSize.decrementAndGet();
+        } else if (timeout.mState.get() != STATE_WAITING) {
+            return;
+        }
+        long deadline = timeout.mDeadline;
+        try {
+            mExecutor.execute(() -> {
+                try {
+                    if (timeout.mTask instanceof DeadlineTask) {
+                        ((DeadlineTask) timeout.mTask).run(deadline);
+                    } else {
+                        timeout.mTask.run();
+                    }
+                } catch (Throwable e) {
+                    Log.e(TAG, "Timer task threw an exception", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Timer task rejected", e);
+        }
+        if (timeout.mSchedule != null) {
+            long next = timeout.mSchedule.next(Math.max(timeout.mDeadline, System.currentTimeMillis()));
+            if (next < 0) {
+                if (timeout.mState.compareAndSet(STATE_WAITING, STATE_EXPIRED)) {
+                    mSize.decrementAndGet();
+                }
+                return;
+            }
+            timeout.mDeadline = next;
+            // Never back into the bucket being expired
+            insert(timeout, mTick + 1);
+        }
+    }
+
+    public final class Timeout {
+        private final Runnable mTask;
+        private final Schedule mSchedule;
+        private final AtomicInteger mState = new AtomicInteger(STATE_WAITING);
+        private volatile long mDeadline;
+        private long mRounds;
+        private Bucket mBucket;
+        private Timeout mNext;
+        private Timeout mPrevious;
+
+        private Timeout(Runnable task, long deadline, Schedule schedule) {
+            mTask = task;
+            mDeadline = deadline;
+            mSchedule = schedule;
+        }
+
+        /**
+         * @return False if the timer already fired or was cancelled.
+         */
+        public boolean cancel() {
+            if (!mState.compareAndSet(STATE_WAITING, STATE_CANCELLED)) {
+                return false;
+            }
+            mSize.decrementAndGet();
+            mCancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return mState.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return mState.get() == STATE_EXPIRED;
+        }
+
+        /**
+         * @return Time of the next firing in milliseconds.
+         */
+        public long getDeadline() {
+            return mDeadline;
+        }
+
+        public boolean isRecurring() {
+            return mSchedule != null;
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, only touched by the worker thread.
+     */
+    private static class Bucket {
+        private Timeout mHead;
+        private Timeout mTail;
+
+        void add(Timeout timeout) {
+            timeout.mBucket = this;
+            timeout.mPrevious = mTail;
+            timeout.mNext = null;
+            if (mTail == null) {
+                mHead = timeout;
+            } else {
+                mTail.mNext = timeout;
+            }
+            mTail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.mPrevious != null) {
+                timeout.mPrevious.mNext = timeout.mNext;
+            } else {
+                mHead = timeout.mNext;
+            }
+            if (timeout.mNext != null) {
+                timeout.mNext.mPrevious = timeout.mPrevious;
+            } else {
+                mTail = timeout.mPrevious;
+            }
+            timeout.mBucket = null;
+            timeout.mNext = null;
+            timeout.mPrevious = null;
+        }
+    }
+}